@@ -0,0 +1,30 @@
+package org.cancogenvirusseq.singularity.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.TimeUnit;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.openjdk.jmh.annotations.*;
+
+/** Deserialization of a scroll hit _source, as done per document by ElasticSearchScroll. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisDocumentDeserializationBenchmark {
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private String sourceJson;
+
+  @Setup
+  public void setup() {
+    sourceJson = SyntheticAnalysisDocuments.sourceJson(42);
+  }
+
+  @Benchmark
+  public AnalysisDocument readAnalysisDocument() throws Exception {
+    return objectMapper.readValue(sourceJson, AnalysisDocument.class);
+  }
+}
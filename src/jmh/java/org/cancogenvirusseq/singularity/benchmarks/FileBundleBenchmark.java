@@ -0,0 +1,132 @@
+package org.cancogenvirusseq.singularity.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import lombok.SneakyThrows;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocumentMolecularDataPair;
+import org.cancogenvirusseq.singularity.components.model.FileBundle;
+import org.cancogenvirusseq.singularity.components.utils.FileBundleUtils;
+import org.cancogenvirusseq.singularity.components.utils.ScratchSpace;
+import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing downloaded pairs to a file bundle and compressing the bundle into a tar.gz, both on disk
+ * in the scratch directory as in a real build.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBundleBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Pairs {
+    // number of genomes in a compressed bundle
+    @Param({"100"})
+    private int bundleSize;
+
+    private List<AnalysisDocumentMolecularDataPair> pairs;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+      new TsvUtils().setListSeparator(";");
+
+      final ObjectMapper objectMapper = new ObjectMapper();
+      pairs =
+          LongStream.range(0, bundleSize)
+              .mapToObj(
+                  index ->
+                      new AnalysisDocumentMolecularDataPair(
+                          readDocument(objectMapper, index),
+                          SyntheticAnalysisDocuments.fasta(index)))
+              .collect(Collectors.toList());
+    }
+
+    private AnalysisDocumentMolecularDataPair next() {
+      final AnalysisDocumentMolecularDataPair pair = pairs.get(next);
+      next = (next + 1) % pairs.size();
+      return pair;
+    }
+  }
+
+  /** A bundle that pairs are added to, replaced every iteration so it doesn't grow unbounded. */
+  @State(Scope.Benchmark)
+  public static class OpenBundle {
+    private FileBundle fileBundle;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+      fileBundle = new FileBundle(UUID.randomUUID(), ArchiveCodec.GZIP, scratchDirectory());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+      deleteArchive(FileBundleUtils.tarGzipArchiveAndClose.apply(fileBundle));
+    }
+  }
+
+  /** A bundle holding every pair, filled before each compression. */
+  @State(Scope.Benchmark)
+  public static class FilledBundle {
+    @Param({"GZIP", "ZSTD"})
+    private ArchiveCodec codec;
+
+    private FileBundle fileBundle;
+    private Path archivePath;
+
+    @Setup(Level.Invocation)
+    public void setup(Pairs pairs) {
+      fileBundle = new FileBundle(UUID.randomUUID(), codec, scratchDirectory());
+      pairs.pairs.forEach(
+          pair -> FileBundleUtils.addDownloadPairToFileBundle.apply(fileBundle, pair));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+      deleteArchive(archivePath);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public FileBundle addDownloadPairToFileBundle(Pairs pairs, OpenBundle openBundle) {
+    return FileBundleUtils.addDownloadPairToFileBundle.apply(openBundle.fileBundle, pairs.next());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Path tarGzipArchiveAndClose(FilledBundle filledBundle) {
+    filledBundle.archivePath =
+        FileBundleUtils.tarGzipArchiveAndClose.apply(filledBundle.fileBundle);
+    return filledBundle.archivePath;
+  }
+
+  @SneakyThrows
+  private static void deleteArchive(Path archivePath) {
+    if (archivePath != null) {
+      Files.deleteIfExists(archivePath);
+    }
+  }
+
+  @SneakyThrows
+  private static AnalysisDocument readDocument(ObjectMapper objectMapper, long index) {
+    return objectMapper.readValue(
+        SyntheticAnalysisDocuments.sourceJson(index), AnalysisDocument.class);
+  }
+
+  private static Path scratchDirectory() {
+    return ScratchSpace.getDirectories().get(0);
+  }
+}
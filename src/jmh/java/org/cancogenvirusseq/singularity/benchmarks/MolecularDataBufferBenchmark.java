@@ -0,0 +1,27 @@
+package org.cancogenvirusseq.singularity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.cancogenvirusseq.singularity.components.base.DownloadMolecularDataToPair;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.openjdk.jmh.annotations.*;
+
+/** Copy of each downloaded FASTA object into a buffer with a trailing newline. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MolecularDataBufferBenchmark {
+  private byte[] fasta;
+
+  @Setup
+  public void setup() {
+    fasta = SyntheticAnalysisDocuments.fasta(42);
+  }
+
+  @Benchmark
+  public byte[] molecularDataBufferWithNewline() {
+    return DownloadMolecularDataToPair.molecularDataBufferWithNewline(fasta);
+  }
+}
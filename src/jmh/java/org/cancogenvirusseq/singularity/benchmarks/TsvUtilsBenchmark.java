@@ -0,0 +1,56 @@
+package org.cancogenvirusseq.singularity.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import lombok.SneakyThrows;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
+import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.openjdk.jmh.annotations.*;
+
+/** Metadata TSV row generation, for a single document and for a batch of documents. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TsvUtilsBenchmark {
+  @Param({"100"})
+  private int batchSize;
+
+  private AnalysisDocument analysisDocument;
+  private List<AnalysisDocument> analysisDocuments;
+
+  @Setup
+  public void setup() {
+    // normally set by spring from utils.tsvListSeparator
+    new TsvUtils().setListSeparator(";");
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+    analysisDocument = readDocument(objectMapper, 42);
+    analysisDocuments =
+        LongStream.range(0, batchSize)
+            .mapToObj(index -> readDocument(objectMapper, index))
+            .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public byte[] analysisDocumentToTsvRowBytes() {
+    return TsvUtils.analysisDocumentToTsvRowBytes(analysisDocument);
+  }
+
+  @Benchmark
+  public byte[] analysisDocumentsToTsvRowsBytes() {
+    return TsvUtils.analysisDocumentsToTsvRowsBytes(analysisDocuments);
+  }
+
+  @SneakyThrows
+  private static AnalysisDocument readDocument(ObjectMapper objectMapper, long index) {
+    return objectMapper.readValue(
+        SyntheticAnalysisDocuments.sourceJson(index), AnalysisDocument.class);
+  }
+}
@@ -20,23 +20,38 @@ package org.cancogenvirusseq.singularity.api;
 
 import static java.lang.String.format;
 
+import com.google.common.hash.HashCode;
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import org.cancogenvirusseq.singularity.api.model.*;
 import org.cancogenvirusseq.singularity.components.base.DownloadObjectById;
+import org.cancogenvirusseq.singularity.components.base.DownloadSampleFromArchive;
+import org.cancogenvirusseq.singularity.components.model.BuildProgress;
 import org.cancogenvirusseq.singularity.components.model.TotalCounts;
 import org.cancogenvirusseq.singularity.components.pipelines.CancelSetArchive;
 import org.cancogenvirusseq.singularity.components.pipelines.Contributors;
 import org.cancogenvirusseq.singularity.components.pipelines.SetQueryArchiveRequest;
+import org.cancogenvirusseq.singularity.components.pipelines.SetQueryStreamingExport;
 import org.cancogenvirusseq.singularity.components.pipelines.TotalCountsPipeline;
+import org.cancogenvirusseq.singularity.components.progress.BuildProgressRegistry;
 import org.cancogenvirusseq.singularity.exceptions.http.ArchiveNotFoundHttpException;
 import org.cancogenvirusseq.singularity.exceptions.http.BaseHttpException;
+import org.cancogenvirusseq.singularity.exceptions.http.SampleNotFoundHttpException;
 import org.cancogenvirusseq.singularity.exceptions.http.SetNotFoundHttpException;
+import org.cancogenvirusseq.singularity.exceptions.http.UnsupportedArchiveFormatHttpException;
 import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.cancogenvirusseq.singularity.repository.query.FindArchivesQuery;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpHeaders;
@@ -55,9 +70,12 @@ public class ApiController implements ApiDefinition {
   private final TotalCountsPipeline totalCountsPipeline;
   private final Contributors contributors;
   private final DownloadObjectById downloadObjectById;
+  private final DownloadSampleFromArchive downloadSampleFromArchive;
   private final SetQueryArchiveRequest setQueryArchiveRequest;
+  private final SetQueryStreamingExport setQueryStreamingExport;
   private final CancelSetArchive cancelSetArchive;
   private final ArchivesRepo archivesRepo;
+  private final BuildProgressRegistry buildProgressRegistry;
 
   @Override
   public Mono<EntityListResponse<String>> getContributors() {
@@ -73,13 +91,44 @@ public class ApiController implements ApiDefinition {
   }
 
   @Override
-  public Mono<ResponseEntity<Flux<ByteBuffer>>> downloadLatestAllArchive() {
-    return archivesRepo.findLatestAllArchive().transform(this::processArchiveDownloadRequest);
+  public Mono<ResponseEntity<Flux<ByteBuffer>>> downloadLatestAllArchive(
+      String format, String accept, String ifNoneMatch) {
+    return requestedCodec(format, accept)
+        .map(codec -> codec.orElse(ArchiveCodec.GZIP))
+        .flatMap(archivesRepo::findLatestAllArchive)
+        .transform(archiveMono -> processArchiveDownloadRequest(archiveMono, ifNoneMatch));
   }
 
   @Override
-  public Mono<ResponseEntity<Flux<ByteBuffer>>> downloadArchiveById(UUID id) {
-    return archivesRepo.findCompletedArchiveById(id).transform(this::processArchiveDownloadRequest);
+  public Mono<ResponseEntity<Flux<ByteBuffer>>> downloadArchiveById(
+      UUID id, String format, String accept, String ifNoneMatch) {
+    return requestedCodec(format, accept)
+        .flatMap(
+            codec ->
+                archivesRepo
+                    .findCompletedArchiveById(id)
+                    // an archive only exists in the format it was built with
+                    .filter(archive -> codec.map(archive.getCodec()::equals).orElse(true)))
+        .transform(archiveMono -> processArchiveDownloadRequest(archiveMono, ifNoneMatch));
+  }
+
+  @Override
+  public Mono<ResponseEntity<byte[]>> downloadSampleFromArchive(UUID id, String sampleId) {
+    return archivesRepo
+        .findCompletedArchiveById(id)
+        .switchIfEmpty(Mono.error(new ArchiveNotFoundHttpException()))
+        .flatMap(archive -> downloadSampleFromArchive.apply(archive, sampleId))
+        .switchIfEmpty(Mono.error(new SampleNotFoundHttpException()))
+        .map(
+            fastaRecord ->
+                ResponseEntity.ok()
+                    .header(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        format(
+                            "attachment; filename=%s.fasta",
+                            sampleId.replaceAll("[^A-Za-z0-9._-]", "_")))
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(fastaRecord));
   }
 
   @Override
@@ -88,8 +137,48 @@ public class ApiController implements ApiDefinition {
   }
 
   @Override
-  public Mono<Archive> getArchive(UUID id) {
-    return archivesRepo.findById(id).switchIfEmpty(Mono.error(new ArchiveNotFoundHttpException()));
+  public Mono<ArchiveWithProgress> getArchive(UUID id) {
+    return archivesRepo
+        .findById(id)
+        .map(
+            archive ->
+                new ArchiveWithProgress(
+                    archive, buildProgressRegistry.getProgress(id).orElse(null)))
+        .switchIfEmpty(Mono.error(new ArchiveNotFoundHttpException()));
+  }
+
+  @Override
+  public Flux<BuildProgress> getArchiveProgress(UUID id) {
+    return archivesRepo
+        .findById(id)
+        .switchIfEmpty(Mono.error(new ArchiveNotFoundHttpException()))
+        .flatMapMany(
+            archive ->
+                buildProgressRegistry
+                    .watch(id)
+                    // not being built here, the archive status is all there is to report
+                    .switchIfEmpty(Mono.fromSupplier(() -> BuildProgress.fromArchive(archive))));
+  }
+
+  @Override
+  public Mono<Archive> pinArchive(UUID id) {
+    return setArchivePinned(id, true);
+  }
+
+  @Override
+  public Mono<Archive> unpinArchive(UUID id) {
+    return setArchivePinned(id, false);
+  }
+
+  private Mono<Archive> setArchivePinned(UUID id, boolean pinned) {
+    return archivesRepo
+        .findById(id)
+        .switchIfEmpty(Mono.error(new ArchiveNotFoundHttpException()))
+        .flatMap(
+            archive -> {
+              archive.setPinned(pinned);
+              return archivesRepo.save(archive);
+            });
   }
 
   @Override
@@ -99,12 +188,41 @@ public class ApiController implements ApiDefinition {
         .switchIfEmpty(Mono.error(new SetNotFoundHttpException()));
   }
 
+  @Override
+  public Mono<ResponseEntity<Flux<ByteBuffer>>> streamSetQueryExport(UUID setId) {
+    return setQueryStreamingExport
+        .apply(setId)
+        .map(
+            archiveStream ->
+                ResponseEntity.ok()
+                    .header(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        format(
+                            "attachment; filename=virusseq-search-export-%s%s",
+                            Instant.now(), ArchiveCodec.GZIP.getExtension()))
+                    .header(HttpHeaders.CONTENT_TYPE, ArchiveCodec.GZIP.getMediaType())
+                    .body(archiveStream));
+  }
+
   private <T> Mono<EntityListResponse<T>> listResponseTransform(
       Mono<? extends Collection<T>> entities) {
     return entities.map(entityList -> EntityListResponse.<T>builder().data(entityList).build());
   }
 
   private Mono<ResponseEntity<Flux<ByteBuffer>>> processArchiveDownloadRequest(
+      Mono<Archive> archiveMono, String ifNoneMatch) {
+    return archiveMono.flatMap(
+        archive ->
+            isNotModified(archive, ifNoneMatch)
+                ? Mono.just(
+                    ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(quoted(archive.getSha256()))
+                        .<Flux<ByteBuffer>>build())
+                : processArchiveDownload(Mono.just(archive)))
+        .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
+  }
+
+  private Mono<ResponseEntity<Flux<ByteBuffer>>> processArchiveDownload(
       Mono<Archive> archiveMono) {
     return archiveMono
         .map(Archive::incrementDownloadsForArchive)
@@ -122,10 +240,73 @@ public class ApiController implements ApiDefinition {
                                         "attachment; filename=%s",
                                         Archive.parseFilenameFromArchive(archive)))
                                 .header(
-                                    HttpHeaders.CONTENT_TYPE,
-                                    MediaType.APPLICATION_OCTET_STREAM_VALUE)
-                                .body(archiveDownload.getFlux())))
-        .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
+                                    HttpHeaders.CONTENT_TYPE, archive.getCodec().getMediaType())
+                                .headers(headers -> addDigestHeaders(headers, archive))
+                                .body(archiveDownload.getFlux())));
+  }
+
+  private static boolean isNotModified(Archive archive, String ifNoneMatch) {
+    return ifNoneMatch != null
+        && archive.getSha256() != null
+        && Arrays.stream(ifNoneMatch.split(","))
+            .map(String::trim)
+            .anyMatch(
+                etag ->
+                    etag.equals("*")
+                        || etag.replaceFirst("^W/", "").equals(quoted(archive.getSha256())));
+  }
+
+  /** Checksums of archives built before they were recorded are unknown */
+  private static void addDigestHeaders(HttpHeaders headers, Archive archive) {
+    if (archive.getSha256() == null) {
+      return;
+    }
+    headers.setETag(quoted(archive.getSha256()));
+
+    final List<String> digests = new ArrayList<>();
+    digests.add("sha-256=" + base64OfHex(archive.getSha256()));
+    if (archive.getMd5() != null) {
+      digests.add("md5=" + base64OfHex(archive.getMd5()));
+    }
+    headers.set("Digest", String.join(",", digests));
+  }
+
+  private static String quoted(String etag) {
+    return format("\"%s\"", etag);
+  }
+
+  private static String base64OfHex(String hex) {
+    return Base64.getEncoder().encodeToString(HashCode.fromString(hex).asBytes());
+  }
+
+  /**
+   * The codec asked for by the format param, falling back to the first archive media type in the
+   * Accept header. Empty when the client has no preference.
+   */
+  private Mono<Optional<ArchiveCodec>> requestedCodec(String format, String accept) {
+    if (format != null) {
+      return ArchiveCodec.fromFormat(format)
+          .map(codec -> Mono.just(Optional.of(codec)))
+          .orElseGet(() -> Mono.error(new UnsupportedArchiveFormatHttpException(format)));
+    }
+
+    if (accept == null) {
+      return Mono.just(Optional.empty());
+    }
+
+    val acceptedMediaTypes = MediaType.parseMediaTypes(accept);
+    MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+
+    return Mono.just(
+        acceptedMediaTypes.stream()
+            .flatMap(
+                mediaType ->
+                    Arrays.stream(ArchiveCodec.values())
+                        .filter(
+                            codec ->
+                                MediaType.valueOf(codec.getMediaType())
+                                    .equalsTypeAndSubtype(mediaType)))
+            .findFirst());
   }
 
   @ExceptionHandler
@@ -26,10 +26,13 @@ import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import org.cancogenvirusseq.singularity.api.model.*;
+import org.cancogenvirusseq.singularity.components.model.BuildProgress;
 import org.cancogenvirusseq.singularity.components.model.TotalCounts;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.cancogenvirusseq.singularity.repository.query.FindArchivesQuery;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
@@ -76,21 +79,34 @@ public interface ApiDefinition {
   Mono<ResponseEntity<TotalCounts>> getTotalCounts();
 
   @ApiOperation(
-      value = "Download the latest data archive containing all molecular and meta data",
+      value =
+          "Download the latest data archive containing all molecular and meta data. The archive"
+              + " format (gzip or zstd) is chosen with the format param or the Accept header,"
+              + " gzip by default. The ETag is the archive's SHA-256, a release with the same"
+              + " content as the one a client already has is not modified.",
       nickname = "Download All",
       response = MultipartFile.class,
       tags = "Singularity API")
   @ApiResponses(
       value = {
         @ApiResponse(code = 200, message = "", response = MultipartFile.class),
+        @ApiResponse(code = 304, message = "Archive matches If-None-Match"),
+        @ApiResponse(code = 400, message = "Unsupported format", response = ErrorResponse.class),
         @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
       })
   @RequestMapping(
       value = "/download/archive/all",
-      produces = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+      produces = {
+        MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        ArchiveCodec.MediaTypes.GZIP,
+        ArchiveCodec.MediaTypes.ZSTD
+      },
       method = RequestMethod.GET)
   @Transactional
-  Mono<ResponseEntity<Flux<ByteBuffer>>> downloadLatestAllArchive();
+  Mono<ResponseEntity<Flux<ByteBuffer>>> downloadLatestAllArchive(
+      @RequestParam(value = "format", required = false) String format,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch);
 
   @ApiOperation(
       value = "Download an archive by ID",
@@ -100,14 +116,47 @@ public interface ApiDefinition {
   @ApiResponses(
       value = {
         @ApiResponse(code = 200, message = "", response = MultipartFile.class),
+        @ApiResponse(code = 304, message = "Archive matches If-None-Match"),
+        @ApiResponse(code = 400, message = "Unsupported format", response = ErrorResponse.class),
         @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
       })
   @RequestMapping(
       value = "/download/archive/{id}",
-      produces = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+      produces = {
+        MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        ArchiveCodec.MediaTypes.GZIP,
+        ArchiveCodec.MediaTypes.ZSTD
+      },
       method = RequestMethod.GET)
   @Transactional
-  Mono<ResponseEntity<Flux<ByteBuffer>>> downloadArchiveById(@PathVariable("id") UUID id);
+  Mono<ResponseEntity<Flux<ByteBuffer>>> downloadArchiveById(
+      @PathVariable("id") UUID id,
+      @RequestParam(value = "format", required = false) String format,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch);
+
+  @ApiOperation(
+      value =
+          "Download the fasta record of a single sample from an archive, by specimen collector"
+              + " sample ID or object id. Only archives assembled from gzip members have the"
+              + " sample index this needs.",
+      nickname = "Download Sample from Archive",
+      tags = "Singularity API")
+  @ApiResponses(
+      value = {
+        @ApiResponse(code = 200, message = "", response = String.class),
+        @ApiResponse(
+            code = 404,
+            message = "Archive not found, or sample not found in its index",
+            response = ErrorResponse.class),
+        @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
+      })
+  @RequestMapping(
+      value = "/download/archive/{id}/samples/{sampleId}",
+      produces = MediaType.TEXT_PLAIN_VALUE,
+      method = RequestMethod.GET)
+  Mono<ResponseEntity<byte[]>> downloadSampleFromArchive(
+      @PathVariable("id") UUID id, @PathVariable("sampleId") String sampleId);
 
   @ApiOperation(
       value = "Get details of any archives that bundles all sample data.",
@@ -130,14 +179,63 @@ public interface ApiDefinition {
       tags = "Singularity API")
   @ApiResponses(
       value = {
-        @ApiResponse(code = 200, message = "", response = Archive.class),
+        @ApiResponse(code = 200, message = "", response = ArchiveWithProgress.class),
         @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
       })
   @RequestMapping(
       value = "/archives/{id}",
       produces = MediaType.APPLICATION_JSON_VALUE,
       method = RequestMethod.GET)
-  Mono<Archive> getArchive(@PathVariable("id") UUID id);
+  Mono<ArchiveWithProgress> getArchive(@PathVariable("id") UUID id);
+
+  @ApiOperation(
+      value =
+          "Stream the build progress of an archive as server-sent events until the build finishes.",
+      nickname = "Archive Progress",
+      tags = "Singularity API")
+  @ApiResponses(
+      value = {
+        @ApiResponse(code = 200, message = "", response = BuildProgress.class),
+        @ApiResponse(code = 404, message = "Archive not found", response = ErrorResponse.class),
+        @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
+      })
+  @RequestMapping(
+      value = "/archives/{id}/progress",
+      produces = MediaType.TEXT_EVENT_STREAM_VALUE,
+      method = RequestMethod.GET)
+  Flux<BuildProgress> getArchiveProgress(@PathVariable("id") UUID id);
+
+  @ApiOperation(
+      value = "Pin an archive so that it is never removed by retention",
+      nickname = "Pin Archive",
+      tags = "Singularity API")
+  @ApiResponses(
+      value = {
+        @ApiResponse(code = 200, message = "", response = Archive.class),
+        @ApiResponse(code = 404, message = "Archive not found", response = ErrorResponse.class),
+        @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
+      })
+  @RequestMapping(
+      value = "/archives/{id}/pin",
+      produces = MediaType.APPLICATION_JSON_VALUE,
+      method = RequestMethod.PUT)
+  Mono<Archive> pinArchive(@PathVariable("id") UUID id);
+
+  @ApiOperation(
+      value = "Unpin an archive, it is then removed by retention like any other",
+      nickname = "Unpin Archive",
+      tags = "Singularity API")
+  @ApiResponses(
+      value = {
+        @ApiResponse(code = 200, message = "", response = Archive.class),
+        @ApiResponse(code = 404, message = "Archive not found", response = ErrorResponse.class),
+        @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
+      })
+  @RequestMapping(
+      value = "/archives/{id}/pin",
+      produces = MediaType.APPLICATION_JSON_VALUE,
+      method = RequestMethod.DELETE)
+  Mono<Archive> unpinArchive(@PathVariable("id") UUID id);
 
   @ApiOperation(
       value = "Build a new set query archive given set id",
@@ -155,6 +253,30 @@ public interface ApiDefinition {
       method = RequestMethod.POST)
   Mono<Archive> buildArchiveWithSetId(@RequestBody SetIdBuildRequest setIdBuildRequest);
 
+  @ApiOperation(
+      value =
+          "Export a small set straight into the response as a tar.gz without building an archive,"
+              + " with a fasta file per sample and a metadata file. Larger sets have to be built"
+              + " as set query archives.",
+      nickname = "Stream Set Query Export",
+      response = MultipartFile.class,
+      tags = "Singularity API")
+  @ApiResponses(
+      value = {
+        @ApiResponse(code = 200, message = "", response = MultipartFile.class),
+        @ApiResponse(
+            code = 400,
+            message = "Set too large to be exported directly",
+            response = ErrorResponse.class),
+        @ApiResponse(code = 404, message = "Set not found", response = ErrorResponse.class),
+        @ApiResponse(code = 500, message = UNKNOWN_MSG, response = ErrorResponse.class)
+      })
+  @RequestMapping(
+      value = "/download/set-query/{setId}",
+      produces = {MediaType.APPLICATION_OCTET_STREAM_VALUE, ArchiveCodec.MediaTypes.GZIP},
+      method = RequestMethod.GET)
+  Mono<ResponseEntity<Flux<ByteBuffer>>> streamSetQueryExport(@PathVariable("setId") UUID setId);
+
   @ApiOperation(
     value = "Cancel Build process of given hashes",
     nickname = "Cancel Build",
@@ -0,0 +1,19 @@
+package org.cancogenvirusseq.singularity.api.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import io.swagger.annotations.ApiModel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.cancogenvirusseq.singularity.components.model.BuildProgress;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+
+@Data
+@AllArgsConstructor
+@ApiModel(description = "An archive with the progress of its build when it is being built")
+public class ArchiveWithProgress {
+  @JsonUnwrapped private Archive archive;
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private BuildProgress progress;
+}
@@ -0,0 +1,114 @@
+package org.cancogenvirusseq.singularity.components.base;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.WrapperQueryBuilder;
+import org.elasticsearch.indices.TermsLookup;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * Resolves Arranger set queries into queries on chunks of the set's ids. A terms lookup on a set
+ * has elasticsearch load the whole ids array of the set document for every search and fails past
+ * index.max_terms_count, instead the set document is read once (and cached) and its ids are queried
+ * a chunk at a time.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ArrangerSetResolver {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static final String TERMS_LOOKUP_FIELD = "_id";
+  private static final String TERMS_LOOKUP_PATH = "ids";
+
+  private final ElasticsearchProperties elasticsearchProperties;
+  private final GetArrangerSetDocument getArrangerSetDocument;
+
+  /** Query for the documents whose ids are listed in an Arranger set */
+  public static QueryBuilder arrangerSetTermsQuery(String arrangerSetsIndex, UUID setId) {
+    return QueryBuilders.termsLookupQuery(
+        TERMS_LOOKUP_FIELD,
+        new TermsLookup(arrangerSetsIndex, setId.toString(), TERMS_LOOKUP_PATH));
+  }
+
+  /**
+   * The set a query was built by arrangerSetTermsQuery for, also once it went through the build
+   * queue as a wrapper query, empty for any other query
+   */
+  public static Optional<UUID> arrangerSetIdOf(
+      QueryBuilder queryBuilder, String arrangerSetsIndex) {
+    try {
+      final JsonNode lookup =
+          objectMapper
+              .readTree(
+                  queryBuilder instanceof WrapperQueryBuilder
+                      ? new String(
+                          ((WrapperQueryBuilder) queryBuilder).source(), StandardCharsets.UTF_8)
+                      : queryBuilder.toString())
+              .path("terms")
+              .path(TERMS_LOOKUP_FIELD);
+
+      return Objects.equals(arrangerSetsIndex, lookup.path("index").asText())
+              && TERMS_LOOKUP_PATH.equals(lookup.path("path").asText())
+          ? Optional.of(UUID.fromString(lookup.path("id").asText()))
+          : Optional.empty();
+    } catch (IOException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  public Optional<UUID> arrangerSetIdOf(QueryBuilder queryBuilder) {
+    return arrangerSetIdOf(queryBuilder, elasticsearchProperties.getArrangerSetsIndex());
+  }
+
+  /** Chunks of a list of ids, only those of the slice when given */
+  public static List<List<String>> chunks(
+      List<String> ids, int chunkSize, @Nullable SliceBuilder slice) {
+    final List<List<String>> chunks = Lists.partition(ids, chunkSize);
+    return slice == null
+        ? chunks
+        : IntStream.range(0, chunks.size())
+            .filter(chunkIndex -> chunkIndex % slice.getMax() == slice.getId())
+            .mapToObj(chunks::get)
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * Ids queries covering the documents of the set (of the slice of them when given), a set that
+   * doesn't exist or is empty resolves to a single query that matches nothing
+   */
+  public Flux<QueryBuilder> chunkQueries(UUID setId, @Nullable SliceBuilder slice) {
+    return getArrangerSetDocument
+        .apply(setId)
+        .flatMapIterable(
+            arrangerSetDocument ->
+                chunks(
+                    arrangerSetDocument.getIds(),
+                    elasticsearchProperties.getSetChunkSize(),
+                    slice))
+        .map(chunk -> (QueryBuilder) QueryBuilders.idsQuery().addIds(chunk.toArray(String[]::new)))
+        .switchIfEmpty(Flux.just(QueryBuilders.idsQuery()));
+  }
+
+  /** Chunks of a set queried at once */
+  public int getConcurrency() {
+    return elasticsearchProperties.getSetChunkConcurrency();
+  }
+}
@@ -3,8 +3,11 @@ package org.cancogenvirusseq.singularity.components.base;
 import static org.cancogenvirusseq.singularity.components.model.AnalysisDocument.ID_FIELD;
 import static org.cancogenvirusseq.singularity.components.model.AnalysisDocument.LAST_UPDATED_AT_FIELD;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.cancogenvirusseq.singularity.components.model.CountAndLastUpdatedResult;
 import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
@@ -22,29 +25,82 @@ import reactor.core.publisher.Mono;
 
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class CountAndLastUpdatedAggregation
     implements Function<QueryBuilder, Mono<CountAndLastUpdatedResult>> {
   private final ElasticsearchProperties elasticsearchProperties;
   private final ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig;
+  private final ArrangerSetResolver arrangerSetResolver;
+
+  // results of cached queries by data generation and query, a new generation misses them all
+  private final Cache<String, CountAndLastUpdatedResult> results;
+  private final AtomicLong dataGeneration = new AtomicLong();
 
   // aggregation name constants
   private static final String LAST_UPDATED_AGG_NAME = "lastUpdatedDate";
   private static final String TOTAL_HITS_AGG_NAME = "totalHits";
 
+  public CountAndLastUpdatedAggregation(
+      ElasticsearchProperties elasticsearchProperties,
+      ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig,
+      ArrangerSetResolver arrangerSetResolver) {
+    this.elasticsearchProperties = elasticsearchProperties;
+    this.reactiveElasticSearchClientConfig = reactiveElasticSearchClientConfig;
+    this.arrangerSetResolver = arrangerSetResolver;
+    // other replicas don't see the changes this one detects, the ttl bounds how stale they can be
+    this.results =
+        CacheBuilder.newBuilder()
+            .maximumSize(elasticsearchProperties.getAggregationCacheSize())
+            .expireAfterWrite(
+                Duration.ofSeconds(elasticsearchProperties.getAggregationCacheTtlSeconds()))
+            .build();
+  }
+
   @Override
   public Mono<CountAndLastUpdatedResult> apply(QueryBuilder queryBuilder) {
+    // a set is aggregated a chunk of its ids at a time
+    return arrangerSetResolver
+        .arrangerSetIdOf(queryBuilder)
+        .map(
+            setId ->
+                arrangerSetResolver
+                    .chunkQueries(setId, null)
+                    .flatMap(this::aggregate, arrangerSetResolver.getConcurrency())
+                    .reduce(CountAndLastUpdatedResult::combine))
+        .orElseGet(() -> aggregate(queryBuilder));
+  }
+
+  private Mono<CountAndLastUpdatedResult> aggregate(QueryBuilder queryBuilder) {
     return Mono.just(aggregateSearchSourceBuilderFromQueryBuilder(queryBuilder))
         .map(this::executeAggregationQuery)
         .flatMap(this::extractAggregationResult);
   }
 
+  /**
+   * Same as apply but the result is reused for the same query until the index has new data, only
+   * worth it for queries that are repeated (ex. an Arranger set) unlike ones bounded by an instant
+   */
+  public Mono<CountAndLastUpdatedResult> cached(QueryBuilder queryBuilder) {
+    return Mono.defer(
+        () -> {
+          final String key = dataGeneration.get() + ":" + queryBuilder.toString();
+          return Mono.justOrEmpty(results.getIfPresent(key))
+              .switchIfEmpty(apply(queryBuilder).doOnNext(result -> results.put(key, result)));
+        });
+  }
+
+  /** Called when the index has new data, results cached until now are no longer used */
+  public void newDataGeneration() {
+    dataGeneration.incrementAndGet();
+    results.invalidateAll();
+  }
+
   private SearchSourceBuilder aggregateSearchSourceBuilderFromQueryBuilder(
       QueryBuilder queryBuilder) {
     return new SearchSourceBuilder()
         .query(queryBuilder)
         .aggregation(AggregationBuilders.max(LAST_UPDATED_AGG_NAME).field(LAST_UPDATED_AT_FIELD))
         .aggregation(AggregationBuilders.count(TOTAL_HITS_AGG_NAME).field(ID_FIELD))
+        .size(0)
         .fetchSource(false);
   }
 
@@ -65,6 +121,6 @@ public class CountAndLastUpdatedAggregation
             aggMap ->
                 new CountAndLastUpdatedResult(
                     ((ParsedMax) aggMap.get(LAST_UPDATED_AGG_NAME)),
-                    ((ParsedValueCount) aggMap.get(TOTAL_HITS_AGG_NAME))));
+                    ((ParsedValueCount) aggMap.get(TOTAL_HITS_AGG_NAME)).getValue()));
   }
 }
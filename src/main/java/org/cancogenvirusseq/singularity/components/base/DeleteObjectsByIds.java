@@ -0,0 +1,74 @@
+package org.cancogenvirusseq.singularity.components.base;
+
+import static java.lang.String.format;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Clients;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Workload;
+import org.cancogenvirusseq.singularity.exceptions.runtime.S3DeleteFailedException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+/**
+ * Deletes objects in a single DeleteObjects request, at most 1000 per call. Deleting an object that
+ * doesn't exist succeeds so a partially failed call can be retried as a whole.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeleteObjectsByIds implements Function<List<UUID>, Mono<Integer>> {
+  public static final int MAX_OBJECTS_PER_REQUEST = 1000;
+
+  private final S3Clients s3Clients;
+  private final S3ClientProperties s3ClientProperties;
+
+  @Override
+  public Mono<Integer> apply(List<UUID> objectIds) {
+    if (objectIds.isEmpty()) {
+      return Mono.just(0);
+    }
+
+    // removing expired archives is background work, like release builds
+    return Mono.fromFuture(
+            () ->
+                s3Clients
+                    .get(S3Workload.BUILD_ALL)
+                    .deleteObjects(deleteObjectsRequest(objectIds)))
+        .map(
+            response -> {
+              if (response.hasErrors() && !response.errors().isEmpty()) {
+                throw new S3DeleteFailedException(response.errors());
+              }
+              log.debug("Deleted {} objects from object storage", objectIds.size());
+              return objectIds.size();
+            });
+  }
+
+  private DeleteObjectsRequest deleteObjectsRequest(List<UUID> objectIds) {
+    return DeleteObjectsRequest.builder()
+        .bucket(s3ClientProperties.getBucket())
+        .delete(
+            Delete.builder()
+                .objects(
+                    objectIds.stream()
+                        .map(
+                            objectId ->
+                                ObjectIdentifier.builder()
+                                    .key(format("%s/%s", s3ClientProperties.getDataDir(), objectId))
+                                    .build())
+                        .collect(Collectors.toList()))
+                // only errors are returned
+                .quiet(true)
+                .build())
+        .build();
+  }
+}
@@ -2,19 +2,27 @@ package org.cancogenvirusseq.singularity.components.base;
 
 import static java.lang.String.format;
 
+import com.google.common.annotations.VisibleForTesting;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.cache.GzipMemberCache;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
 import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
 import org.cancogenvirusseq.singularity.components.model.AnalysisDocumentMolecularDataPair;
+import org.cancogenvirusseq.singularity.components.utils.GzipMembers;
 import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Clients;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Workload;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
-import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 
 @Slf4j
@@ -25,42 +33,113 @@ public class DownloadMolecularDataToPair
 
   private static final byte[] newlineBytes = "\n".getBytes(StandardCharsets.UTF_8);
 
-  private final S3AsyncClient s3AsyncClient;
+  private final S3Clients s3Clients;
   private final S3ClientProperties s3ClientProperties;
+  private final ArchiveMetrics archiveMetrics;
+  private final GzipMemberCache gzipMemberCache;
 
   @Override
   public Flux<AnalysisDocumentMolecularDataPair> apply(
       Flux<AnalysisDocument> analysisDocumentFlux) {
-    return analysisDocumentFlux
+    return Flux.deferContextual(ctx -> Flux.just(S3Workload.of(ctx)))
         .flatMap(
-            analysisDocument ->
-                // we can go straight to object storage and get the bytes as we know that these
-                // objects are already verified to be there by song/score else they wouldn't be
-                // in an AnalysisDocument, otherwise we would use the DownloadObjectById
-                // component here
-                Mono.fromFuture(
-                        s3AsyncClient.getObject(
-                            getObjectRequestForAnalysisDocument(analysisDocument),
-                            AsyncResponseTransformer.toBytes()))
-                    .map(
-                        getObjectResponseResponseBytes ->
-                            new AnalysisDocumentMolecularDataPair(
-                                analysisDocument,
-                                molecularDataBufferWithNewline(
-                                    getObjectResponseResponseBytes.asByteArray()))),
-            s3ClientProperties.getMaxConcurrency())
+            workload ->
+                analysisDocumentFlux.flatMap(
+                    analysisDocument ->
+                        downloadMolecularData(workload, analysisDocument)
+                            .map(
+                                molecularBytes ->
+                                    new AnalysisDocumentMolecularDataPair(
+                                        analysisDocument,
+                                        molecularDataBufferWithNewline(molecularBytes))),
+                    s3Clients.getMaxConcurrency(workload)))
         .doOnError(
             throwable -> log.info("DownloadMolecularDataToPair" + throwable.getLocalizedMessage()));
   }
 
+  /**
+   * Gzip archives are assembled from precompressed gzip members when the member cache is enabled,
+   * archives of any other codec are compressed as a whole.
+   */
+  public Function<Flux<AnalysisDocument>, Flux<AnalysisDocumentMolecularDataPair>> forCodec(
+      ArchiveCodec codec) {
+    return ArchiveCodec.GZIP.equals(codec) && gzipMemberCache.isEnabled()
+        ? this::gzipMembers
+        : this;
+  }
+
+  /**
+   * Pairs each document with its fasta record compressed as a gzip member, taken from the member
+   * cache when it is there. Otherwise the record is downloaded, compressed and cached, so each
+   * genome is only ever compressed once.
+   */
+  public Flux<AnalysisDocumentMolecularDataPair> gzipMembers(
+      Flux<AnalysisDocument> analysisDocumentFlux) {
+    return Flux.deferContextual(ctx -> Flux.just(S3Workload.of(ctx)))
+        .flatMap(
+            workload ->
+                analysisDocumentFlux.flatMap(
+                    analysisDocument ->
+                        gzipMemberCache
+                            .find(objectId(analysisDocument))
+                            .switchIfEmpty(
+                                Mono.defer(() -> downloadGzipMember(workload, analysisDocument)))
+                            .map(
+                                member ->
+                                    AnalysisDocumentMolecularDataPair.fromGzipMember(
+                                        analysisDocument, member)),
+                    s3Clients.getMaxConcurrency(workload)))
+        .doOnError(
+            throwable -> log.info("DownloadMolecularDataToPair" + throwable.getLocalizedMessage()));
+  }
+
+  private Mono<byte[]> downloadGzipMember(
+      S3Workload workload, AnalysisDocument analysisDocument) {
+    return downloadMolecularData(workload, analysisDocument)
+        .publishOn(Schedulers.boundedElastic())
+        .map(
+            molecularBytes -> {
+              final byte[] member =
+                  GzipMembers.compress(molecularDataBufferWithNewline(molecularBytes));
+              gzipMemberCache.store(objectId(analysisDocument), member);
+              return member;
+            });
+  }
+
+  private Mono<byte[]> downloadMolecularData(
+      S3Workload workload, AnalysisDocument analysisDocument) {
+    // we can go straight to object storage and get the bytes as we know that these
+    // objects are already verified to be there by song/score else they wouldn't be
+    // in an AnalysisDocument, otherwise we would use the DownloadObjectById
+    // component here
+    return Mono.fromFuture(
+            () ->
+                s3Clients
+                    .get(workload)
+                    .getObject(
+                        getObjectRequestForAnalysisDocument(analysisDocument),
+                        AsyncResponseTransformer.toBytes()))
+        // the response is the only holder of its bytes, so they are used without copying them
+        .transform(archiveMetrics.s3Get(response -> response.asByteArrayUnsafe().length))
+        .map(ResponseBytes::asByteArrayUnsafe)
+        .flatMap(
+            molecularBytes ->
+                s3Clients.throttle(workload, molecularBytes.length).thenReturn(molecularBytes));
+  }
+
+  private static String objectId(AnalysisDocument analysisDocument) {
+    return analysisDocument.getObjectId().textValue();
+  }
+
   private GetObjectRequest getObjectRequestForAnalysisDocument(AnalysisDocument analysisDocument) {
     return GetObjectRequest.builder()
-        .key(format("%s/%s", s3ClientProperties.getDataDir(), analysisDocument.getObjectId().textValue()))
+        .key(format("%s/%s", s3ClientProperties.getDataDir(), objectId(analysisDocument)))
         .bucket(s3ClientProperties.getBucket())
         .build();
   }
 
-  private byte[] molecularDataBufferWithNewline(byte[] molecularBytes) {
+  @VisibleForTesting
+  public static byte[] molecularDataBufferWithNewline(byte[] molecularBytes) {
     return ByteBuffer.allocate(molecularBytes.length + newlineBytes.length)
         .put(molecularBytes)
         .put(newlineBytes)
@@ -12,26 +12,42 @@ import lombok.extern.slf4j.Slf4j;
 import org.cancogenvirusseq.singularity.components.model.AwsSdkFluxResponse;
 import org.cancogenvirusseq.singularity.components.utils.FluxResponseProvider;
 import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Clients;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Workload;
 import org.cancogenvirusseq.singularity.exceptions.runtime.S3DownloadFailedException;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 import software.amazon.awssdk.http.SdkHttpResponse;
-import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class DownloadObjectById implements Function<UUID, Mono<AwsSdkFluxResponse>> {
-  private final S3AsyncClient s3AsyncClient;
+  private final S3Clients s3Clients;
   private final S3ClientProperties s3ClientProperties;
 
   @Override
   public Mono<AwsSdkFluxResponse> apply(UUID objectId) {
     return Mono.fromFuture(
-            s3AsyncClient.getObject(
-                getObjectRequestForObjectId(objectId), new FluxResponseProvider()))
-        .map(verifyResponse);
+            s3Clients
+                .get(S3Workload.SERVE)
+                .getObject(getObjectRequestForObjectId(objectId), new FluxResponseProvider()))
+        .map(verifyResponse)
+        .map(this::throttled);
+  }
+
+  // the object is streamed to the user at the bandwidth share of user downloads
+  private AwsSdkFluxResponse throttled(AwsSdkFluxResponse response) {
+    response.setFlux(
+        response
+            .getFlux()
+            .concatMap(
+                byteBuffer ->
+                    s3Clients
+                        .throttle(S3Workload.SERVE, byteBuffer.remaining())
+                        .thenReturn(byteBuffer)));
+    return response;
   }
 
   private GetObjectRequest getObjectRequestForObjectId(UUID objectId) {
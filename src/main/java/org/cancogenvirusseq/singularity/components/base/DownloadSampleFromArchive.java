@@ -0,0 +1,129 @@
+package org.cancogenvirusseq.singularity.components.base;
+
+import static java.lang.String.format;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.model.SampleIndex;
+import org.cancogenvirusseq.singularity.components.utils.GzipMembers;
+import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
+import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Clients;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Workload;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+/**
+ * Reads the fasta record of a single sample out of a complete archive. The sample is looked up in
+ * the archive's sample index (in each shard's for a sharded release) and its gzip member is fetched
+ * with a ranged read, so only the index and the member are downloaded instead of the whole archive.
+ */
+@Slf4j
+@Component
+public class DownloadSampleFromArchive implements BiFunction<Archive, String, Mono<byte[]>> {
+  private final S3Clients s3Clients;
+  private final S3ClientProperties s3ClientProperties;
+  private final ArchivesRepo archivesRepo;
+
+  // parsed indexes by index object id, an uploaded index never changes so they can't be stale
+  private final Map<UUID, SampleIndex> sampleIndexes;
+
+  public DownloadSampleFromArchive(
+      S3Clients s3Clients,
+      S3ClientProperties s3ClientProperties,
+      ArchivesRepo archivesRepo,
+      ArchiveProperties archiveProperties) {
+    this.s3Clients = s3Clients;
+    this.s3ClientProperties = s3ClientProperties;
+    this.archivesRepo = archivesRepo;
+    this.sampleIndexes =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<UUID, SampleIndex> eldest) {
+                return size() > archiveProperties.getSampleIndexCacheSize();
+              }
+            });
+  }
+
+  /** The sample's fasta record, empty when the archive has no index or the sample isn't in it */
+  @Override
+  public Mono<byte[]> apply(Archive archive, String sampleId) {
+    return indexedArchives(archive)
+        .concatMap(
+            indexedArchive ->
+                sampleIndex(indexedArchive.getIndexObjectId())
+                    .flatMap(sampleIndex -> Mono.justOrEmpty(sampleIndex.find(sampleId)))
+                    .flatMap(
+                        entry ->
+                            readRange(
+                                indexedArchive.getObjectId(), entry.getOffset(), entry.getLength())))
+        .next()
+        .map(GzipMembers::decompress);
+  }
+
+  private Flux<Archive> indexedArchives(Archive archive) {
+    return (archive.isSharded()
+            ? archivesRepo
+                .findByParentId(archive.getId())
+                .sort(Comparator.comparing(Archive::getShardIndex))
+            : Flux.just(archive))
+        .filter(
+            indexedArchive ->
+                indexedArchive.getObjectId() != null && indexedArchive.getIndexObjectId() != null);
+  }
+
+  private Mono<SampleIndex> sampleIndex(UUID indexObjectId) {
+    return Mono.justOrEmpty(sampleIndexes.get(indexObjectId))
+        .switchIfEmpty(
+            Mono.defer(
+                () ->
+                    Mono.fromFuture(
+                            s3Clients
+                                .get(S3Workload.SERVE)
+                                .getObject(
+                                    getObjectRequest(indexObjectId).build(),
+                                    AsyncResponseTransformer.toBytes()))
+                        .map(ResponseBytes::asByteArray)
+                        .map(SampleIndex::read)
+                        .doOnNext(
+                            sampleIndex -> {
+                              log.debug(
+                                  "Loaded sample index {} with {} samples",
+                                  indexObjectId,
+                                  sampleIndex.size());
+                              sampleIndexes.put(indexObjectId, sampleIndex);
+                            })));
+  }
+
+  private Mono<byte[]> readRange(UUID objectId, long offset, long length) {
+    return Mono.fromFuture(
+            () ->
+                s3Clients
+                    .get(S3Workload.SERVE)
+                    .getObject(
+                        getObjectRequest(objectId)
+                            .range(format("bytes=%d-%d", offset, offset + length - 1))
+                            .build(),
+                        AsyncResponseTransformer.toBytes()))
+        .map(ResponseBytes::asByteArray)
+        .flatMap(member -> s3Clients.throttle(S3Workload.SERVE, member.length).thenReturn(member));
+  }
+
+  private GetObjectRequest.Builder getObjectRequest(UUID objectId) {
+    return GetObjectRequest.builder()
+        .key(format("%s/%s", s3ClientProperties.getDataDir(), objectId))
+        .bucket(s3ClientProperties.getBucket());
+  }
+}
@@ -0,0 +1,60 @@
+package org.cancogenvirusseq.singularity.components.base;
+
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ReactiveElasticSearchClientConfig;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.ParsedSum;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/** Total size in bytes of the molecular files matched by a query */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ElasticSearchFileSize implements Function<QueryBuilder, Mono<Long>> {
+  private static final String FILE_SIZE_AGG_NAME = "fileSize";
+  private static final String FIELD_FILE_SIZE = "file.size";
+
+  private final ElasticsearchProperties elasticsearchProperties;
+  private final ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig;
+  private final ArrangerSetResolver arrangerSetResolver;
+
+  @Override
+  public Mono<Long> apply(QueryBuilder queryBuilder) {
+    // a set is summed a chunk of its ids at a time
+    return arrangerSetResolver
+        .arrangerSetIdOf(queryBuilder)
+        .map(
+            setId ->
+                arrangerSetResolver
+                    .chunkQueries(setId, null)
+                    .flatMap(this::sumFileSize, arrangerSetResolver.getConcurrency())
+                    .reduce(0L, Long::sum))
+        .orElseGet(() -> sumFileSize(queryBuilder));
+  }
+
+  private Mono<Long> sumFileSize(QueryBuilder queryBuilder) {
+    return reactiveElasticSearchClientConfig
+        .reactiveElasticsearchClient()
+        .aggregate(
+            new SearchRequest()
+                .indices(elasticsearchProperties.getFileCentricIndex())
+                .source(
+                    new SearchSourceBuilder()
+                        .query(queryBuilder)
+                        .aggregation(
+                            AggregationBuilders.sum(FILE_SIZE_AGG_NAME).field(FIELD_FILE_SIZE))
+                        .size(0)
+                        .fetchSource(false)))
+        .filter(aggregation -> FILE_SIZE_AGG_NAME.equals(aggregation.getName()))
+        .next()
+        .map(aggregation -> (long) ((ParsedSum) aggregation).getValue())
+        .defaultIfEmpty(0L);
+  }
+}
@@ -1,11 +1,14 @@
 package org.cancogenvirusseq.singularity.components.base;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
 import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
 import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
 import org.cancogenvirusseq.singularity.config.elasticsearch.ReactiveElasticSearchClientConfig;
@@ -14,6 +17,7 @@ import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -25,20 +29,56 @@ public class ElasticSearchScroll implements Function<QueryBuilder, Flux<Analysis
   private final ElasticsearchProperties elasticsearchProperties;
   private final ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig;
   private final ObjectMapper objectMapper;
+  private final ArchiveMetrics archiveMetrics;
+  private final ArrangerSetResolver arrangerSetResolver;
 
   @Override
   public Flux<AnalysisDocument> apply(QueryBuilder queryBuilder) {
-    return Mono.just(searchSourceBuilderFromQueryBuilder(queryBuilder))
-        .flatMapMany(this::executeScrollQuery)
+    return apply(queryBuilder, null);
+  }
+
+  /** Scrolls a single slice of the query results, or all of them when no slice is given */
+  public Flux<AnalysisDocument> apply(QueryBuilder queryBuilder, @Nullable SliceBuilder slice) {
+    return arrangerSetResolver
+        .arrangerSetIdOf(queryBuilder)
+        .map(setId -> searchSetChunks(setId, slice))
+        .orElseGet(
+            () ->
+                Mono.just(searchSourceBuilderFromQueryBuilder(queryBuilder).slice(slice))
+                    .flatMapMany(this::executeScrollQuery))
+        .transform(archiveMetrics.scroll(elasticsearchProperties.getScrollPageSize()))
         .map(this::hitMapToAnalysisDocument);
   }
 
   private SearchSourceBuilder searchSourceBuilderFromQueryBuilder(QueryBuilder queryBuilder) {
     return new SearchSourceBuilder()
         .query(queryBuilder)
+        .size(elasticsearchProperties.getScrollPageSize())
         .fetchSource(AnalysisDocument.getEsIncludeFields(), null);
   }
 
+  /**
+   * Searches a set a chunk of its ids at a time, a chunk is never larger than a search page so it
+   * doesn't need a scroll. Chunks are searched concurrently but their documents keep the set order.
+   */
+  private Flux<SearchHit> searchSetChunks(UUID setId, @Nullable SliceBuilder slice) {
+    return arrangerSetResolver
+        .chunkQueries(setId, slice)
+        .flatMapSequential(
+            chunkQuery ->
+                reactiveElasticSearchClientConfig
+                    .reactiveElasticsearchClient()
+                    .search(
+                        new SearchRequest()
+                            .indices(elasticsearchProperties.getFileCentricIndex())
+                            .source(
+                                new SearchSourceBuilder()
+                                    .query(chunkQuery)
+                                    .size(elasticsearchProperties.getSetChunkSize())
+                                    .fetchSource(AnalysisDocument.getEsIncludeFields(), null))),
+            arrangerSetResolver.getConcurrency());
+  }
+
   private Flux<SearchHit> executeScrollQuery(SearchSourceBuilder searchSourceBuilder) {
     return reactiveElasticSearchClientConfig
         .reactiveElasticsearchClient()
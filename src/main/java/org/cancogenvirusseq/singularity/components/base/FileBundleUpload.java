@@ -14,8 +14,10 @@ import java.util.function.Function;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
 import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
 import org.cancogenvirusseq.singularity.exceptions.runtime.S3ArchiveUploadException;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 import reactor.netty.ByteBufFlux;
@@ -31,10 +33,9 @@ import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignReques
 @Component
 @RequiredArgsConstructor
 public class FileBundleUpload implements Function<Path, Mono<UUID>> {
-  private final String ARCHIVE_MEDIA_TYPE = "application/x-gtar";
-
   private final S3Presigner s3Presigner;
   private final S3ClientProperties s3ClientProperties;
+  private final ArchiveMetrics archiveMetrics;
 
   @Override
   public Mono<UUID> apply(Path fileBundlePath) {
@@ -42,7 +43,7 @@ public class FileBundleUpload implements Function<Path, Mono<UUID>> {
         .headers(
             h -> {
               h.set(HttpHeaderNames.CONTENT_LENGTH, getFileSize(fileBundlePath));
-              h.set(HttpHeaderNames.CONTENT_TYPE, ARCHIVE_MEDIA_TYPE);
+              h.set(HttpHeaderNames.CONTENT_TYPE, getMediaType(fileBundlePath));
             })
         .put()
         .uri(getPresignedUrlStringForFileBundle(fileBundlePath))
@@ -55,6 +56,7 @@ public class FileBundleUpload implements Function<Path, Mono<UUID>> {
                     fileBundlePath.getFileName(),
                     response.path()))
         .map(this::extractUploadObjectId)
+        .transform(archiveMetrics.upload(fileBundlePath))
         .log("ArchiveUpload");
   }
 
@@ -64,7 +66,7 @@ public class FileBundleUpload implements Function<Path, Mono<UUID>> {
               .key(format("%s/%s", s3ClientProperties.getDataDir(), UUID.randomUUID()))
               .bucket(s3ClientProperties.getBucket())
               .contentLength(getFileSize(fileBundlePath))
-              .contentType(ARCHIVE_MEDIA_TYPE)
+              .contentType(getMediaType(fileBundlePath))
               .build();
 
   private final Function<PutObjectRequest, PutObjectPresignRequest> createPutObjectPresignRequest =
@@ -88,6 +90,13 @@ public class FileBundleUpload implements Function<Path, Mono<UUID>> {
         .apply(s3ClientProperties, fileBundlePath);
   }
 
+  private String getMediaType(Path path) {
+    // the bundle filename carries the extension of the codec it was compressed with
+    return ArchiveCodec.fromFilename(path.getFileName().toString())
+        .orElse(ArchiveCodec.GZIP)
+        .getMediaType();
+  }
+
   @SneakyThrows
   private Long getFileSize(Path path) {
     return Files.size(path);
@@ -1,9 +1,10 @@
 package org.cancogenvirusseq.singularity.components.base;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.util.UUID;
 import java.util.function.Function;
-import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.cancogenvirusseq.singularity.components.model.ArrangerSetDocument;
@@ -14,20 +15,47 @@ import org.elasticsearch.index.get.GetResult;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+/**
+ * Fetches Arranger set documents, which never change once created so the most used ones are kept in
+ * memory and served without asking elasticsearch again.
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class GetArrangerSetDocument implements Function<UUID, Mono<ArrangerSetDocument>> {
   private final ElasticsearchProperties elasticsearchProperties;
   private final ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig;
   private final ObjectMapper objectMapper;
 
+  private final Cache<UUID, ArrangerSetDocument> setDocuments;
+
+  public GetArrangerSetDocument(
+      ElasticsearchProperties elasticsearchProperties,
+      ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig,
+      ObjectMapper objectMapper) {
+    this.elasticsearchProperties = elasticsearchProperties;
+    this.reactiveElasticSearchClientConfig = reactiveElasticSearchClientConfig;
+    this.objectMapper = objectMapper;
+    this.setDocuments =
+        CacheBuilder.newBuilder()
+            // a set holds up to hundreds of thousands of ids, so the cache is bounded by ids held
+            .maximumWeight(elasticsearchProperties.getSetDocumentCacheMaxIds())
+            .weigher((UUID setId, ArrangerSetDocument setDocument) -> setDocument.getIds().size())
+            .build();
+  }
+
   @Override
   public Mono<ArrangerSetDocument> apply(UUID setId) {
-    return reactiveElasticSearchClientConfig
-        .reactiveElasticsearchClient()
-        .get(new GetRequest(elasticsearchProperties.getArrangerSetsIndex(), setId.toString()))
-        .map(this::getResultToArrangerSetDocument);
+    return Mono.justOrEmpty(setDocuments.getIfPresent(setId))
+        .switchIfEmpty(
+            Mono.defer(
+                () ->
+                    reactiveElasticSearchClientConfig
+                        .reactiveElasticsearchClient()
+                        .get(
+                            new GetRequest(
+                                elasticsearchProperties.getArrangerSetsIndex(), setId.toString()))
+                        .map(this::getResultToArrangerSetDocument)
+                        .doOnNext(setDocument -> setDocuments.put(setId, setDocument))));
   }
 
   @SneakyThrows
@@ -0,0 +1,90 @@
+package org.cancogenvirusseq.singularity.components.base;
+
+import static org.cancogenvirusseq.singularity.components.model.AnalysisDocument.LAST_UPDATED_AT_FIELD;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ReactiveElasticSearchClientConfig;
+import org.cancogenvirusseq.singularity.repository.model.IndexFingerprint;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fingerprints the file centric index as of an instant, from the latest update and document count
+ * aggregation builds already use and the max sequence numbers of the index's primary shards.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexFingerprintQuery implements Function<Instant, Mono<IndexFingerprint>> {
+  private static final String STATS_PATH =
+      "/{index}/_stats/docs?level=shards"
+          + "&filter_path=indices.*.shards.*.routing.primary,indices.*.shards.*.seq_no.max_seq_no";
+
+  private final ElasticsearchProperties elasticsearchProperties;
+  private final ReactiveElasticSearchClientConfig reactiveElasticSearchClientConfig;
+  private final CountAndLastUpdatedAggregation countAndLastUpdatedAggregation;
+  private final ObjectMapper objectMapper;
+
+  @Override
+  public Mono<IndexFingerprint> apply(Instant instant) {
+    return countAndLastUpdatedAggregation
+        .apply(QueryBuilders.rangeQuery(LAST_UPDATED_AT_FIELD).to(instant))
+        .zipWith(maxSeqNo())
+        .map(
+            countAndMaxSeqNo ->
+                IndexFingerprint.builder()
+                    .name(elasticsearchProperties.getFileCentricIndex())
+                    .lastUpdatedAt(
+                        Optional.of(countAndMaxSeqNo.getT1().getLastUpdatedDate().getValue())
+                            // there is no max of an empty index
+                            .filter(Double::isFinite)
+                            .map(Double::longValue)
+                            .orElse(null))
+                    .numDocuments(countAndMaxSeqNo.getT1().getNumDocuments())
+                    .maxSeqNo(countAndMaxSeqNo.getT2().orElse(null))
+                    .recordedAt(Instant.now().toEpochMilli())
+                    .build());
+  }
+
+  /** Sum of the max sequence numbers of the primary shards, empty when the stats can't be read */
+  private Mono<Optional<Long>> maxSeqNo() {
+    return reactiveElasticSearchClientConfig
+        .reactiveElasticsearchClient()
+        .execute(
+            webClient ->
+                webClient
+                    .get()
+                    .uri(STATS_PATH, elasticsearchProperties.getFileCentricIndex())
+                    .retrieve()
+                    .bodyToMono(String.class))
+        .map(this::sumPrimaryMaxSeqNo)
+        .onErrorResume(
+            throwable -> {
+              log.warn("Couldn't read index stats: {}", throwable.getMessage());
+              return Mono.just(Optional.empty());
+            });
+  }
+
+  @SneakyThrows
+  private Optional<Long> sumPrimaryMaxSeqNo(String stats) {
+    final JsonNode indices = objectMapper.readTree(stats).path("indices");
+    // an alias may point at several indices, each with several shards and their replicas
+    return Optional.of(
+        StreamSupport.stream(indices.spliterator(), false)
+            .flatMap(index -> StreamSupport.stream(index.path("shards").spliterator(), false))
+            .flatMap(shard -> StreamSupport.stream(shard.spliterator(), false))
+            .filter(copy -> copy.path("routing").path("primary").asBoolean(false))
+            .mapToLong(copy -> copy.path("seq_no").path("max_seq_no").asLong(0))
+            .sum());
+  }
+}
@@ -0,0 +1,179 @@
+package org.cancogenvirusseq.singularity.components.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.archive.MemberCacheProperties;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Local disk cache of each genome compressed as a gzip member, keyed by its object id. Genome
+ * objects never change once uploaded so cached members never need to be invalidated, only evicted
+ * (least recently used first) to keep the cache under its maximum size.
+ */
+@Slf4j
+@Component
+public class GzipMemberCache {
+  private static final String MEMBER_EXTENSION = ".gz";
+  // object ids become filenames, anything else is never cached
+  private static final Pattern OBJECT_ID_PATTERN = Pattern.compile("[A-Za-z0-9-]+");
+
+  private final MemberCacheProperties properties;
+  private final Path directory;
+  private final AtomicLong cachedBytes;
+  private final Counter hits;
+  private final Counter misses;
+
+  private Disposable evictionDisposable;
+
+  public GzipMemberCache(MemberCacheProperties properties, MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.directory = Paths.get(properties.getDirectory());
+    this.cachedBytes = meterRegistry.gauge("singularity.member.cache.bytes", new AtomicLong());
+    this.hits = meterRegistry.counter("singularity.member.cache.requests", "result", "hit");
+    this.misses = meterRegistry.counter("singularity.member.cache.requests", "result", "miss");
+  }
+
+  @PostConstruct
+  @SneakyThrows
+  public void init() {
+    if (!isEnabled()) {
+      return;
+    }
+
+    Files.createDirectories(directory);
+    evictionDisposable =
+        Flux.interval(Duration.ZERO, Duration.ofSeconds(properties.getEvictionIntervalSeconds()))
+            .onBackpressureDrop()
+            .concatMap(
+                tick -> Mono.fromRunnable(this::evict).subscribeOn(Schedulers.boundedElastic()))
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (evictionDisposable != null) {
+      evictionDisposable.dispose();
+    }
+  }
+
+  public boolean isEnabled() {
+    return properties.getEnabled();
+  }
+
+  /** The cached member of an object, empty when it isn't cached */
+  public Mono<byte[]> find(String objectId) {
+    if (!OBJECT_ID_PATTERN.matcher(objectId).matches()) {
+      return Mono.empty();
+    }
+
+    return Mono.fromCallable(
+            () -> {
+              final Path memberPath = memberPath(objectId);
+              try {
+                final byte[] member = Files.readAllBytes(memberPath);
+                // the modified time is the last use, for eviction
+                Files.setLastModifiedTime(memberPath, FileTime.from(Instant.now()));
+                return member;
+              } catch (NoSuchFileException e) {
+                return null;
+              }
+            })
+        .subscribeOn(Schedulers.boundedElastic())
+        .doOnSuccess(member -> (member == null ? misses : hits).increment());
+  }
+
+  /** Caches a member, failing to do so only means it has to be compressed again next time */
+  public void store(String objectId, byte[] member) {
+    if (!OBJECT_ID_PATTERN.matcher(objectId).matches()) {
+      return;
+    }
+
+    try {
+      final Path temporaryPath = Files.createTempFile(directory, objectId, ".tmp");
+      Files.write(temporaryPath, member);
+      // readers only ever see complete members
+      Files.move(temporaryPath, memberPath(objectId), StandardCopyOption.ATOMIC_MOVE);
+      cachedBytes.addAndGet(member.length);
+    } catch (IOException e) {
+      log.warn("Unable to cache gzip member of {}: {}", objectId, e.getMessage());
+    }
+  }
+
+  private Path memberPath(String objectId) {
+    return directory.resolve(objectId + MEMBER_EXTENSION);
+  }
+
+  private void evict() {
+    try (Stream<Path> files = Files.list(directory)) {
+      final List<CachedMember> members =
+          files
+              .filter(path -> path.getFileName().toString().endsWith(MEMBER_EXTENSION))
+              .map(CachedMember::of)
+              .filter(member -> member.size >= 0)
+              .sorted(Comparator.comparing(member -> member.lastUsed))
+              .collect(Collectors.toList());
+
+      // recounted from the files every time so the gauge can't drift
+      long total = members.stream().mapToLong(member -> member.size).sum();
+      final long target = properties.getMaxBytes() / 10 * 9;
+      if (total > properties.getMaxBytes()) {
+        for (CachedMember member : members) {
+          if (total <= target) {
+            break;
+          }
+          if (Files.deleteIfExists(member.path)) {
+            total -= member.size;
+          }
+        }
+        log.debug("Evicted gzip members down to {} bytes", total);
+      }
+      cachedBytes.set(total);
+    } catch (IOException e) {
+      log.warn("Gzip member cache eviction failed: {}", e.getMessage());
+    }
+  }
+
+  private static class CachedMember {
+    private final Path path;
+    private final long size;
+    private final FileTime lastUsed;
+
+    private CachedMember(Path path, long size, FileTime lastUsed) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+
+    private static CachedMember of(Path path) {
+      try {
+        return new CachedMember(path, Files.size(path), Files.getLastModifiedTime(path));
+      } catch (IOException e) {
+        // evicted or replaced while listing
+        return new CachedMember(path, -1, FileTime.fromMillis(0));
+      }
+    }
+  }
+}
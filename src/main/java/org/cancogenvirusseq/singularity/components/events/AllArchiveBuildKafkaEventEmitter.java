@@ -3,6 +3,7 @@ package org.cancogenvirusseq.singularity.components.events;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.leader.LeaderElection;
 import org.cancogenvirusseq.singularity.config.kafka.KafkaArchiveBuildConsumerConfig;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
@@ -19,7 +20,11 @@ import java.time.Instant;
 @RequiredArgsConstructor
 public class AllArchiveBuildKafkaEventEmitter implements EventEmitter<String>  {
 
+  private static final String TRIGGER_NAME = "allArchiveBuild";
+
   private final KafkaArchiveBuildConsumerConfig kafkaArchiveBuildConsumerConfig;
+  private final EventCoalescerFactory eventCoalescerFactory;
+  private final LeaderElection leaderElection;
 
   private final Sinks.Many<String> proxyManySink = Sinks.many().multicast().onBackpressureBuffer();
 
@@ -38,11 +43,12 @@ public class AllArchiveBuildKafkaEventEmitter implements EventEmitter<String>  {
   }
 
   private Disposable triggerAllArchiveBuildDisposable(){
-    return kafkaArchiveBuildConsumerConfig
-            .getReceiver()
-            .receiveAutoAck()
+    // only the leader consumes release triggers
+    return leaderElection
+            .whileLeader(() -> kafkaArchiveBuildConsumerConfig.getReceiver().receiveAutoAck())
             .doOnNext(record -> log.debug("Message received from Kafka cron: {}", record.toString()))
             .map(value -> Instant.now().toString())
+            .transform(eventCoalescerFactory.create(TRIGGER_NAME))
             .doOnNext(proxyManySink::tryEmitNext)
             .onErrorContinue(
                     ((throwable, value) ->
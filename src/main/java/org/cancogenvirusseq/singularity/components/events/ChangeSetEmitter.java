@@ -0,0 +1,9 @@
+package org.cancogenvirusseq.singularity.components.events;
+
+import org.cancogenvirusseq.singularity.components.model.AnalysisChangeSet;
+import reactor.core.publisher.Flux;
+
+/** Source of the analyses that changed in the index, for pipelines that update just those */
+public interface ChangeSetEmitter {
+  Flux<AnalysisChangeSet> receiveChangeSets();
+}
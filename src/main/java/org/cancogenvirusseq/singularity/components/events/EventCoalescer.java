@@ -0,0 +1,139 @@
+package org.cancogenvirusseq.singularity.components.events;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Trailing-edge debouncer with a max-wait ceiling. Events are coalesced into a window that is
+ * closed once no new event has arrived for the quiet period, or once the max wait has elapsed since
+ * the first event of the window, whichever comes first. When the window closes the most recent
+ * event is emitted downstream, so a continuous stream of events triggers at most once per max wait
+ * period instead of never. Only a single timer is pending at any time per subscription.
+ */
+@Slf4j
+public class EventCoalescer<T> implements UnaryOperator<Flux<T>> {
+  private final String triggerName;
+  private final long quietPeriodNanos;
+  private final long maxWaitNanos;
+  private final Scheduler scheduler;
+
+  private final Timer triggerLatency;
+  private final DistributionSummary coalescedEvents;
+
+  public EventCoalescer(
+      String triggerName,
+      Duration quietPeriod,
+      Duration maxWait,
+      Scheduler scheduler,
+      MeterRegistry meterRegistry) {
+    this.triggerName = triggerName;
+    this.quietPeriodNanos = quietPeriod.toNanos();
+    this.maxWaitNanos = Math.max(maxWait.toNanos(), quietPeriodNanos);
+    this.scheduler = scheduler;
+    this.triggerLatency =
+        Timer.builder("singularity.events.trigger.latency")
+            .description("Time from the first coalesced event to the emitted trigger")
+            .tag("trigger", triggerName)
+            .register(meterRegistry);
+    this.coalescedEvents =
+        DistributionSummary.builder("singularity.events.coalesced")
+            .description("Number of events coalesced into a single trigger")
+            .tag("trigger", triggerName)
+            .register(meterRegistry);
+  }
+
+  @Override
+  public Flux<T> apply(Flux<T> events) {
+    return Flux.create(
+        sink -> {
+          final Window window = new Window(sink);
+          final Disposable upstream =
+              events.subscribe(
+                  window::onEvent,
+                  sink::error,
+                  () -> {
+                    window.flush();
+                    sink.complete();
+                  });
+          sink.onDispose(
+              () -> {
+                upstream.dispose();
+                window.cancelTimer();
+              });
+        });
+  }
+
+  private class Window {
+    private final FluxSink<T> sink;
+
+    private T latest;
+    private long count = 0;
+    private long firstEventAtNanos;
+    private Disposable timer;
+
+    private Window(FluxSink<T> sink) {
+      this.sink = sink;
+    }
+
+    private void onEvent(T event) {
+      final long delayNanos;
+      synchronized (this) {
+        final long now = scheduler.now(TimeUnit.NANOSECONDS);
+        if (count == 0) {
+          firstEventAtNanos = now;
+        }
+        count++;
+        latest = event;
+        cancelTimer();
+
+        delayNanos = Math.min(quietPeriodNanos, maxWaitNanos - (now - firstEventAtNanos));
+        if (delayNanos > 0) {
+          timer = scheduler.schedule(this::flush, delayNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+
+      if (delayNanos <= 0) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      final T trigger;
+      synchronized (this) {
+        if (count == 0) {
+          return;
+        }
+        final long latencyNanos = scheduler.now(TimeUnit.NANOSECONDS) - firstEventAtNanos;
+        triggerLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        coalescedEvents.record(count);
+        log.debug(
+            "{} trigger emitted after coalescing {} events over {}ms",
+            triggerName,
+            count,
+            TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+
+        trigger = latest;
+        latest = null;
+        count = 0;
+        cancelTimer();
+      }
+      sink.next(trigger);
+    }
+
+    private synchronized void cancelTimer() {
+      if (timer != null) {
+        timer.dispose();
+        timer = null;
+      }
+    }
+  }
+}
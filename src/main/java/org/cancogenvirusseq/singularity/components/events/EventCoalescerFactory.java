@@ -0,0 +1,24 @@
+package org.cancogenvirusseq.singularity.components.events;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import lombok.RequiredArgsConstructor;
+import org.cancogenvirusseq.singularity.config.events.EventCoalescerProperties;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+
+@Component
+@RequiredArgsConstructor
+public class EventCoalescerFactory {
+  private final EventCoalescerProperties properties;
+  private final MeterRegistry meterRegistry;
+
+  public <T> EventCoalescer<T> create(String triggerName) {
+    return new EventCoalescer<>(
+        triggerName,
+        Duration.ofSeconds(properties.getQuietPeriodSeconds()),
+        Duration.ofSeconds(properties.getMaxWaitSeconds()),
+        Schedulers.parallel(),
+        meterRegistry);
+  }
+}
@@ -0,0 +1,81 @@
+package org.cancogenvirusseq.singularity.components.events;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.CountAndLastUpdatedAggregation;
+import org.cancogenvirusseq.singularity.components.base.IndexFingerprintQuery;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.IndexFingerprintRepo;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
+import org.cancogenvirusseq.singularity.repository.model.IndexFingerprint;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Tells whether the file centric index changed since the latest release was queued, by comparing
+ * the index's fingerprint to the one recorded for that release. The recorded fingerprint is kept in
+ * memory and in the database, so a new leader doesn't rebuild a release that is already up to date.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexChangeDetector {
+  private final IndexFingerprintQuery indexFingerprintQuery;
+  private final CountAndLastUpdatedAggregation countAndLastUpdatedAggregation;
+  private final IndexFingerprintRepo indexFingerprintRepo;
+  private final ArchivesRepo archivesRepo;
+  private final ElasticsearchProperties elasticsearchProperties;
+
+  private final AtomicReference<IndexFingerprint> lastRecorded = new AtomicReference<>();
+
+  /**
+   * Emits the fingerprint of the index as of the instant when a release built from it would differ
+   * from the latest one, completes empty when the latest release already holds the same data and is
+   * complete or still building.
+   */
+  public Mono<IndexFingerprint> changedSinceLastRelease(Instant instant) {
+    return indexFingerprintQuery
+        .apply(instant)
+        .filterWhen(
+            fingerprint ->
+                lastRecordedFingerprint()
+                    .filter(fingerprint::sameDataAs)
+                    .flatMap(unused -> latestReleaseIsUsable())
+                    .map(unchanged -> !unchanged)
+                    .defaultIfEmpty(true))
+        .doOnNext(
+            fingerprint -> {
+              if (!fingerprint.sameDataAs(lastRecorded.get())) {
+                countAndLastUpdatedAggregation.newDataGeneration();
+              }
+            });
+  }
+
+  /** Records the fingerprint a release was queued for */
+  public Mono<IndexFingerprint> record(IndexFingerprint fingerprint) {
+    return indexFingerprintRepo.record(fingerprint).doOnNext(lastRecorded::set);
+  }
+
+  private Mono<IndexFingerprint> lastRecordedFingerprint() {
+    return Mono.justOrEmpty(lastRecorded.get())
+        .switchIfEmpty(
+            indexFingerprintRepo
+                .findById(elasticsearchProperties.getFileCentricIndex())
+                .doOnNext(lastRecorded::set));
+  }
+
+  // a failed or cancelled release has to be built again even though the index hasn't changed
+  private Mono<Boolean> latestReleaseIsUsable() {
+    return archivesRepo
+        .findTopByTypeOrderByCreatedAtDesc(ArchiveType.ALL)
+        .map(
+            archive ->
+                ArchiveStatus.COMPLETE.equals(archive.getStatus())
+                    || ArchiveStatus.BUILDING.equals(archive.getStatus()))
+        .defaultIfEmpty(false);
+  }
+}
@@ -18,35 +18,50 @@
 
 package org.cancogenvirusseq.singularity.components.events;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.leader.LeaderElection;
+import org.cancogenvirusseq.singularity.components.model.AnalysisChangeSet;
+import org.cancogenvirusseq.singularity.components.model.SongAnalysisMessage;
+import org.cancogenvirusseq.singularity.config.kafka.KafkaProperties;
 import org.cancogenvirusseq.singularity.config.kafka.KafkaSongUploadConsumerConfig;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
+import reactor.kafka.receiver.ReceiverRecord;
 
 @Slf4j
 @Component
 @Profile("kafka")
 @RequiredArgsConstructor
-public class TotalCountsKafkaEventEmitter implements EventEmitter<Instant> {
-  private final KafkaSongUploadConsumerConfig kafkaSongUploadConsumerConfig;
-
-  @Value("${files.finalEventCheckSeconds}")
-  private final Integer finalEventCheckSeconds = 60; // default to 1 minute
+public class TotalCountsKafkaEventEmitter implements EventEmitter<Instant>, ChangeSetEmitter {
+  private static final String TRIGGER_NAME = "totalCounts";
 
-  private static final AtomicReference<Instant> lastEvent = new AtomicReference<>();
+  private final KafkaSongUploadConsumerConfig kafkaSongUploadConsumerConfig;
+  private final KafkaProperties kafkaProperties;
+  private final EventCoalescerFactory eventCoalescerFactory;
+  private final ObjectMapper objectMapper;
+  private final LeaderElection leaderElection;
 
   private final Sinks.Many<Instant> proxyManySink = Sinks.many().multicast().onBackpressureBuffer();
+  private final Sinks.Many<AnalysisChangeSet> changeSetSink =
+      Sinks.many().multicast().directBestEffort();
+  // change-sets received since the last trigger, emitted merged along with it
+  private final AtomicReference<AnalysisChangeSet> pendingChangeSet =
+      new AtomicReference<>(AnalysisChangeSet.empty());
 
   @Getter private Disposable kafkaConsumerDisposable;
 
@@ -59,24 +74,43 @@ public class TotalCountsKafkaEventEmitter implements EventEmitter<Instant> {
   @Override
   public Flux<Instant> receive() {
     // reactor kafka doesn't allow multiple subscriptions on its fluxes.
-    // We only use kafa messages as an event source to trigger instants.
     // The proxyManySink is used to tryEmit the instants to trigger
     // operations for multiple subscribed components
     return proxyManySink.asFlux();
   }
 
+  /**
+   * The analyses changed by the song_analysis messages received since the previous change-set, for
+   * components that only need to update the documents that changed instead of recomputing
+   * everything. Change-sets are emitted with the coalesced trigger, once the indexer had time to
+   * catch up with the messages, and batches that change nothing in the index are left out.
+   */
+  @Override
+  public Flux<AnalysisChangeSet> receiveChangeSets() {
+    return changeSetSink.asFlux();
+  }
+
   private Disposable createKafkaConsumeAndSinkDisposable() {
-    return kafkaSongUploadConsumerConfig
-        .getReceiver()
-        .receiveAutoAck()
-        .concatMap(r -> r)
-        .doOnNext(record -> log.debug("Message received from Kafka: {}", record.toString()))
-        // we dont' actually care about the message contents so we just emit and Instant here
-        // instead
-        .map(value -> Instant.now())
-        .doOnNext(lastEvent::set)
-        .transform(takeOnlyFinalInstant)
-        .doOnNext(proxyManySink::tryEmitNext)
+    // only the leader joins the consumer group, so it is assigned every partition
+    return leaderElection
+        .whileLeader(() -> kafkaSongUploadConsumerConfig.getReceiver().receive())
+        .bufferTimeout(
+            kafkaProperties.getSongUploadMaxBatchSize(),
+            Duration.ofMillis(kafkaProperties.getSongUploadMaxBatchWaitMs()))
+        .concatMap(this::processBatch)
+        // unreadable messages are passed on, whatever they changed has to be recounted
+        .filter(changeSet -> !changeSet.isEmpty() || !changeSet.isComplete())
+        .doOnNext(
+            changeSet -> pendingChangeSet.accumulateAndGet(changeSet, AnalysisChangeSet::merge))
+        .map(changeSet -> Instant.now())
+        // we only want to trigger at the tail end of a submission, but never starve the trigger
+        // during a continuous stream of submissions
+        .transform(eventCoalescerFactory.create(TRIGGER_NAME))
+        .doOnNext(
+            instant -> {
+              changeSetSink.tryEmitNext(pendingChangeSet.getAndSet(AnalysisChangeSet.empty()));
+              proxyManySink.tryEmitNext(instant);
+            })
         .onErrorContinue(
             ((throwable, value) ->
                 log.debug("intervalEmit emission {}, threw: {}", throwable, value)))
@@ -84,27 +118,32 @@ public class TotalCountsKafkaEventEmitter implements EventEmitter<Instant> {
         .subscribe();
   }
 
-  /**
-   * As events come in, we only want to trigger the bundle building at the tail end of a submission,
-   * meaning that we do not want to start building the bundle until every event for a particular
-   * submission has been received thereby letting us know that we can start building, we accomplish
-   * this by delaying all elements by some set time and then filtering all events that are not the
-   * most recent event. Pseudo Example:
-   *
-   * <p>emit a sequential number every 10 second ... 4 3 2 1 -> setLatest(x) -> wait 15 seconds ->
-   * current: 1, latest: 2 (filter fail) ... current: 4, latest: 4 (filter pass) -< request build
-   */
-  private final UnaryOperator<Flux<Instant>> takeOnlyFinalInstant =
-      events ->
-          events
-              .delaySequence(Duration.ofSeconds(finalEventCheckSeconds))
-              .filter(
-                  instant -> {
-                    log.debug(
-                        "Current instant: {}, lastEvent: {}, {}",
-                        instant,
-                        lastEvent.get(),
-                        instant.equals(lastEvent.get()) ? "does match" : "does not match");
-                    return instant.equals(lastEvent.get());
-                  });
+  private Mono<AnalysisChangeSet> processBatch(List<ReceiverRecord<String, String>> records) {
+    final List<SongAnalysisMessage> messages =
+        records.stream()
+            .map(this::parseMessage)
+            .flatMap(Optional::stream)
+            .collect(Collectors.toList());
+    final AnalysisChangeSet changeSet =
+        AnalysisChangeSet.fromMessages(messages, records.size() - messages.size());
+
+    log.debug("Received {} messages from Kafka as {}", records.size(), changeSet);
+
+    // the change-set is fully derived from the batch so every offset in it can be committed,
+    // acknowledged offsets are committed together in a single request
+    records.forEach(record -> record.receiverOffset().acknowledge());
+    return records.get(records.size() - 1).receiverOffset().commit().thenReturn(changeSet);
+  }
+
+  private Optional<SongAnalysisMessage> parseMessage(ReceiverRecord<String, String> record) {
+    try {
+      return Optional.of(objectMapper.readValue(record.value(), SongAnalysisMessage.class));
+    } catch (JsonProcessingException | IllegalArgumentException e) {
+      log.warn(
+          "Skipping unreadable song_analysis message at offset {}: {}",
+          record.offset(),
+          e.getMessage());
+      return Optional.empty();
+    }
+  }
 }
@@ -20,21 +20,31 @@ package org.cancogenvirusseq.singularity.components.hoc;
 
 import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.createFileBundleFromPairsWithArchive;
 import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.deleteFileBundleForArchive;
+import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.sampleIndexForArchive;
 
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.function.Function;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.cancogenvirusseq.singularity.components.base.DownloadMolecularDataToPair;
 import org.cancogenvirusseq.singularity.components.base.ElasticSearchScroll;
 import org.cancogenvirusseq.singularity.components.base.FileBundleUpload;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
 import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.components.model.BuildStage;
 import org.cancogenvirusseq.singularity.components.notifications.archives.ArchiveNotifier;
+import org.cancogenvirusseq.singularity.components.progress.BuildProgressRegistry;
+import org.cancogenvirusseq.singularity.components.progress.BuildProgressTracker;
 import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
 import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
 @Slf4j
 @Component
@@ -45,23 +55,60 @@ public class ArchiveBuildRequestToArchive implements Function<ArchiveBuildReques
   private final DownloadMolecularDataToPair downloadMolecularDataToPair;
   private final FileBundleUpload fileBundleUpload;
   private final ArchivesRepo archivesRepo;
+  private final ArchiveMetrics archiveMetrics;
+  private final BuildProgressRegistry buildProgressRegistry;
 
   private final ArchiveNotifier notifier;
 
   @Override
   public Flux<Archive> apply(ArchiveBuildRequest archiveBuildRequest) {
+    return Flux.defer(
+            () -> {
+              final BuildProgressTracker progress =
+                  buildProgressRegistry.start(archiveBuildRequest.getArchive());
+              return buildArchive(archiveBuildRequest, progress)
+                  .doFinally(
+                      signalType ->
+                          buildProgressRegistry.finish(
+                              archiveBuildRequest.getArchive(),
+                              progress,
+                              finalStage(signalType, archiveBuildRequest.getArchive())));
+            })
+        .transform(archiveMetrics.build(archiveBuildRequest.getArchive().getType()))
+        .contextWrite(ctx -> ctx.put("archiveBuildRequest", archiveBuildRequest))
+        .log("ArchiveBuildRequestToArchive");
+  }
+
+  private Flux<Archive> buildArchive(
+      ArchiveBuildRequest archiveBuildRequest, BuildProgressTracker progress) {
     return elasticSearchScroll
-        .apply(archiveBuildRequest.getQueryBuilder())
-        .transform(downloadMolecularDataToPair)
-        .transform(createFileBundleFromPairsWithArchive(archiveBuildRequest.getArchive()))
-        .filter(fileBundlePath ->
-            archivesRepo
-                .findByArchiveObject(archiveBuildRequest.getArchive())
-                .filter(archive -> ArchiveStatus.BUILDING.equals(archive.getStatus()))
-                .hasElement()
-                .block()
-        )
-        .flatMap(fileBundleUpload)
+        .apply(archiveBuildRequest.getQueryBuilder(), archiveBuildRequest.getSlice())
+        .transform(downloadMolecularDataToPair.forCodec(archiveBuildRequest.getArchive().getCodec()))
+        .doOnNext(pair -> progress.documentDownloaded(pair.getMolecularDataLength()))
+        .doOnComplete(() -> progress.stage(BuildStage.COMPRESSING))
+        .transform(
+            createFileBundleFromPairsWithArchive(archiveBuildRequest.getArchive(), archiveMetrics))
+        // only upload if the archive wasn't cancelled while it was being bundled
+        .filterWhen(
+            fileBundlePath ->
+                archivesRepo
+                    .findByArchiveObject(archiveBuildRequest.getArchive())
+                    .filter(archive -> ArchiveStatus.BUILDING.equals(archive.getStatus()))
+                    .hasElement())
+        .doOnNext(fileBundlePath -> progress.stage(BuildStage.UPLOADING))
+        .flatMap(
+            fileBundlePath ->
+                reuseIdenticalArchive(archiveBuildRequest.getArchive())
+                    .switchIfEmpty(
+                        Mono.defer(
+                            () ->
+                                fileBundleUpload
+                                    .apply(fileBundlePath)
+                                    .flatMap(
+                                        uploadObjectId ->
+                                            uploadSampleIndex(
+                                                    archiveBuildRequest.getArchive(), fileBundlePath)
+                                                .thenReturn(uploadObjectId)))))
         .flatMap(
             uploadObjectId ->
                 withArchiveBuildRequestContext(
@@ -71,6 +118,12 @@ public class ArchiveBuildRequestToArchive implements Function<ArchiveBuildReques
                             .filter(archive -> ArchiveStatus.BUILDING.equals(archive.getStatus()))
                             .flatMap(archive -> {
                                 archiveBuildRequestCtx.getArchive().setObjectId(uploadObjectId);
+                                if (ArchiveType.ALL_SHARD.equals(archive.getType())) {
+                                  // a shard's sample count is only known once it is built
+                                  archiveBuildRequestCtx
+                                      .getArchive()
+                                      .setNumOfSamples(progress.getDocumentsProcessed());
+                                }
                                 archiveBuildRequestCtx.getArchive().setStatus(ArchiveStatus.COMPLETE);
 
                                 log.debug("processArchiveBuildRequest is done!");
@@ -110,9 +163,59 @@ public class ArchiveBuildRequestToArchive implements Function<ArchiveBuildReques
                             return archivesRepo.save(archiveBuildRequestCtx.getArchive());
                         })
                 )
-        )
-        .contextWrite(ctx -> ctx.put("archiveBuildRequest", archiveBuildRequest))
-        .log("ArchiveBuildRequestToArchive");
+        );
+  }
+
+  /**
+   * The object of a complete archive with the same content and codec, ex. a release rebuilt after
+   * an event that didn't change anything. The archive takes over its object, and the checksums
+   * and sample index that go with it, instead of uploading an identical one.
+   */
+  private Mono<UUID> reuseIdenticalArchive(Archive archive) {
+    return archivesRepo
+        .findIdenticalCompleteArchive(archive.getContentSha256(), archive.getCodec(), archive.getId())
+        .map(
+            identical -> {
+              log.info(
+                  "Archive {} has the same content as archive {}, reusing its object {}",
+                  archive.getId(),
+                  identical.getId(),
+                  identical.getObjectId());
+              archive.setSizeBytes(identical.getSizeBytes());
+              archive.setSha256(identical.getSha256());
+              archive.setMd5(identical.getMd5());
+              archive.setIndexObjectId(identical.getIndexObjectId());
+              return identical.getObjectId();
+            });
+  }
+
+  /** Uploads the sample index written next to an archive assembled from gzip members */
+  private Mono<Archive> uploadSampleIndex(Archive archive, Path fileBundlePath) {
+    return Mono.justOrEmpty(sampleIndexForArchive(archive, fileBundlePath))
+        .flatMap(fileBundleUpload)
+        .map(Optional::of)
+        .defaultIfEmpty(Optional.empty())
+        .map(
+            indexObjectId -> {
+              // an archive rebuilt without gzip members has no index
+              archive.setIndexObjectId(indexObjectId.orElse(null));
+              return archive;
+            });
+  }
+
+  private static BuildStage finalStage(SignalType signalType, Archive archive) {
+    if (SignalType.CANCEL.equals(signalType)) {
+      return BuildStage.CANCELLED;
+    }
+    switch (archive.getStatus()) {
+      case COMPLETE:
+        return BuildStage.COMPLETE;
+      case FAILED:
+        return BuildStage.FAILED;
+      default:
+        // the archive stopped being BUILDING while it was being built
+        return BuildStage.CANCELLED;
+    }
   }
 
   private <R> Mono<R> withArchiveBuildRequestContext(Function<ArchiveBuildRequest, Mono<R>> func) {
@@ -0,0 +1,167 @@
+package org.cancogenvirusseq.singularity.components.hoc;
+
+import static org.cancogenvirusseq.singularity.components.model.ShardManifest.MANIFEST_FILENAME;
+import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.createManifestArchive;
+import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.deleteFileBundleForArchive;
+import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.fileSize;
+import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.md5Hex;
+import static org.cancogenvirusseq.singularity.components.utils.FileBundleUtils.sha256Hex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.FileBundleUpload;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
+import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.components.model.ShardManifest;
+import org.cancogenvirusseq.singularity.components.notifications.archives.ArchiveNotifier;
+import org.cancogenvirusseq.singularity.components.queue.BuildQueue;
+import org.cancogenvirusseq.singularity.components.utils.ExistingArchiveUtils;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Builds a sharded ALL archive. The query results are split into sliced scrolls, each slice is
+ * built and uploaded as its own ALL_SHARD archive concurrently, and the ALL archive itself is a
+ * small manifest listing the shards with their sizes and checksums.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ArchiveBuildRequestToShardedArchive
+    implements Function<ArchiveBuildRequest, Flux<Archive>> {
+
+  private final ArchiveBuildRequestToArchive archiveBuildRequestToArchive;
+  private final ExistingArchiveUtils existingArchiveUtils;
+  private final FileBundleUpload fileBundleUpload;
+  private final ArchivesRepo archivesRepo;
+  private final ArchiveMetrics archiveMetrics;
+  private final ObjectMapper objectMapper;
+
+  private final ArchiveNotifier notifier;
+
+  @Override
+  public Flux<Archive> apply(ArchiveBuildRequest archiveBuildRequest) {
+    final Archive archive = archiveBuildRequest.getArchive();
+    final int shardCount = archive.getShardCount();
+
+    return Flux.range(0, shardCount)
+        .flatMap(
+            shardIndex -> buildShard(archiveBuildRequest, shardIndex, shardCount), shardCount)
+        .collectSortedList(Comparator.comparing(Archive::getShardIndex))
+        .flatMap(shards -> completeWithManifest(archive, shards))
+        .onErrorResume(
+            throwable -> {
+              archive.setStatus(ArchiveStatus.FAILED);
+              log.error(
+                  "Sharded archive {} failed: {}", archive.getId(), throwable.getLocalizedMessage());
+              notifier.notify(archive);
+              return archivesRepo.save(archive);
+            })
+        .doFinally(signalType -> deleteFileBundleForArchive.accept(archive))
+        .transformDeferredContextual(
+            (build, ctx) ->
+                build.doOnCancel(
+                    () -> {
+                      // another replica took the build over, the archive is still being built
+                      if (ctx.getOrDefault(BuildQueue.CLAIM_LOST, new AtomicBoolean()).get()) {
+                        log.info("Sharded archive {} stopped, built elsewhere", archive.getId());
+                        return;
+                      }
+                      archivesRepo
+                          .findByArchiveObject(archive)
+                          .filter(existing -> ArchiveStatus.BUILDING.equals(existing.getStatus()))
+                          .flatMap(
+                              existing -> {
+                                archive.setStatus(ArchiveStatus.CANCELLED);
+                                log.info(
+                                    "doOnCancel sharded archive id:{} cancelled", archive.getId());
+                                notifier.notify(archive);
+                                return archivesRepo.save(archive);
+                              })
+                          .subscribe();
+                    }))
+        .flux()
+        .transform(archiveMetrics.build(archive.getType()))
+        .log("ArchiveBuildRequestToShardedArchive");
+  }
+
+  private Mono<Archive> buildShard(
+      ArchiveBuildRequest archiveBuildRequest, int shardIndex, int shardCount) {
+    final Archive shardTemplate =
+        Archive.newShardFromArchive(archiveBuildRequest.getArchive(), shardIndex);
+
+    return archivesRepo
+        .findArchiveByHashInfoEquals(shardTemplate.getHashInfo())
+        // a shard left over from an earlier attempt at this release doesn't need to be rebuilt
+        .filter(existing -> ArchiveStatus.COMPLETE.equals(existing.getStatus()))
+        .switchIfEmpty(
+            Mono.defer(
+                () ->
+                    existingArchiveUtils
+                        .createNewOrResetExistingArchiveInDatabase(shardTemplate)
+                        .flatMap(
+                            shard ->
+                                archiveBuildRequestToArchive
+                                    .apply(
+                                        new ArchiveBuildRequest(
+                                            shard,
+                                            archiveBuildRequest.getQueryBuilder(),
+                                            new SliceBuilder(shardIndex, shardCount)))
+                                    .last())))
+        .flatMap(
+            shard ->
+                ArchiveStatus.COMPLETE.equals(shard.getStatus())
+                    ? Mono.just(shard)
+                    : Mono.error(
+                        new IllegalStateException(
+                            String.format(
+                                "shard %d ended as %s", shardIndex, shard.getStatus()))));
+  }
+
+  private Mono<Archive> completeWithManifest(Archive archive, List<Archive> shards) {
+    final ShardManifest manifest = ShardManifest.fromArchiveAndShards(archive, shards);
+
+    return Mono.fromCallable(
+            () ->
+                createManifestArchive(
+                    archive, MANIFEST_FILENAME, objectMapper.writeValueAsBytes(manifest)))
+        .subscribeOn(Schedulers.boundedElastic())
+        .doOnNext(
+            manifestPath -> {
+              archive.setSizeBytes(fileSize(manifestPath));
+              archive.setSha256(sha256Hex(manifestPath));
+              archive.setMd5(md5Hex(manifestPath));
+            })
+        .flatMap(fileBundleUpload)
+        .flatMap(
+            uploadObjectId ->
+                archivesRepo
+                    .findByArchiveObject(archive)
+                    // the release may have been cancelled while its shards were being built
+                    .filter(existing -> ArchiveStatus.BUILDING.equals(existing.getStatus()))
+                    .flatMap(
+                        existing -> {
+                          archive.setObjectId(uploadObjectId);
+                          archive.setNumOfSamples(manifest.getNumOfSamples());
+                          archive.setStatus(ArchiveStatus.COMPLETE);
+                          log.debug(
+                              "Sharded archive {} complete with {} shards",
+                              archive.getId(),
+                              shards.size());
+                          notifier.notify(archive);
+                          return archivesRepo.save(archive);
+                        })
+                    .defaultIfEmpty(archive));
+  }
+}
@@ -10,27 +10,36 @@ import org.cancogenvirusseq.singularity.components.base.CountAndLastUpdatedAggre
 import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
 import org.cancogenvirusseq.singularity.components.model.CountAndLastUpdatedResult;
 import org.cancogenvirusseq.singularity.components.utils.ExistingArchiveUtils;
+import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
 import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class InstantToArchiveBuildRequest implements Function<Instant, Mono<ArchiveBuildRequest>> {
+public class InstantToArchiveBuildRequest implements Function<Instant, Flux<ArchiveBuildRequest>> {
   private final CountAndLastUpdatedAggregation countAndLastUpdatedAggregation;
   private final ArchivesRepo archivesRepo;
+  private final ArchiveProperties archiveProperties;
 
   private final ExistingArchiveUtils existingArchiveUtils;
 
   @Override
-  public Mono<ArchiveBuildRequest> apply(Instant instant) {
+  public Flux<ArchiveBuildRequest> apply(Instant instant) {
 
     return Mono.just(QueryBuilders.rangeQuery(LAST_UPDATED_AT_FIELD).to(instant))
         .flatMap(countAndLastUpdatedAggregation)
-        .flatMap(this::createOrGetArchiveInDatabase)
+        // one archive per configured codec, all from the same count and last updated snapshot
+        .flatMapMany(
+            countAndLastUpdatedResult ->
+                Flux.fromIterable(archiveProperties.getAllCodecs())
+                    .concatMap(
+                        codec -> createOrGetArchiveInDatabase(countAndLastUpdatedResult, codec)))
         // why this? because R2DBC does not hydrate fields
         // (https://github.com/spring-projects/spring-data-r2dbc/issues/455)
         .flatMap(archivesRepo::findByArchiveObject)
@@ -44,13 +53,15 @@ public class InstantToArchiveBuildRequest implements Function<Instant, Mono<Arch
    * existing archive instead should be used instead, restarting that build
    *
    * @param countAndLastUpdatedResult
+   * @param codec
    * @return
    */
   private Mono<Archive> createOrGetArchiveInDatabase(
-      CountAndLastUpdatedResult countAndLastUpdatedResult) {
+      CountAndLastUpdatedResult countAndLastUpdatedResult, ArchiveCodec codec) {
 
     Archive archiveTemplate =
-        Archive.newAllArchiveFromCountAndLastUpdatedResult(countAndLastUpdatedResult);
+        Archive.newAllArchiveFromCountAndLastUpdatedResult(
+            countAndLastUpdatedResult, codec, archiveProperties.getShardCount());
 
     return existingArchiveUtils.createNewOrResetExistingArchiveInDatabase(archiveTemplate);
   }
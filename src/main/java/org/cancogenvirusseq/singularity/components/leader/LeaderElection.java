@@ -0,0 +1,123 @@
+package org.cancogenvirusseq.singularity.components.leader;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.utils.InstanceUtils;
+import org.cancogenvirusseq.singularity.config.leader.LeaderElectionProperties;
+import org.cancogenvirusseq.singularity.repository.LeaderLeaseRepo;
+import org.reactivestreams.Publisher;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Elects a single replica to run the background pipelines that must only run once across the
+ * deployment. Leadership is a lease row in Postgres that the leader keeps renewing; when it stops
+ * (crash, network partition, shutdown) another replica takes the lease over once it expires, or
+ * straight away on a clean shutdown as the lease is released.
+ */
+@Slf4j
+@Component
+public class LeaderElection {
+  private static final String LEASE_NAME = "singularity-background-pipelines";
+
+  private final LeaderLeaseRepo leaderLeaseRepo;
+  private final LeaderElectionProperties properties;
+
+  @Getter private final String instanceId;
+
+  private final Sinks.Many<Boolean> leadershipSink = Sinks.many().replay().latest();
+  private final AtomicInteger leader;
+
+  @Getter private Disposable renewDisposable;
+
+  public LeaderElection(
+      LeaderLeaseRepo leaderLeaseRepo,
+      LeaderElectionProperties properties,
+      MeterRegistry meterRegistry) {
+    this.leaderLeaseRepo = leaderLeaseRepo;
+    this.properties = properties;
+    this.instanceId = InstanceUtils.newInstanceId();
+    this.leader = meterRegistry.gauge("singularity.leader", new AtomicInteger());
+  }
+
+  @PostConstruct
+  public void init() {
+    if (!properties.getEnabled()) {
+      log.info("Leader election is disabled, {} runs every background pipeline", instanceId);
+      setLeader(true);
+      return;
+    }
+
+    renewDisposable =
+        Flux.interval(Duration.ZERO, Duration.ofMillis(properties.getRenewIntervalMs()))
+            .onBackpressureDrop()
+            .concatMap(tick -> tryAcquire())
+            .subscribe(this::setLeader);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (renewDisposable == null) {
+      return;
+    }
+
+    renewDisposable.dispose();
+    if (isLeader()) {
+      setLeader(false);
+      // hand over without waiting for the lease to expire
+      leaderLeaseRepo
+          .release(LEASE_NAME, instanceId)
+          .timeout(Duration.ofMillis(properties.getRenewIntervalMs()))
+          .onErrorResume(throwable -> Mono.empty())
+          .block();
+    }
+  }
+
+  public boolean isLeader() {
+    return leader.get() == 1;
+  }
+
+  /** Emits true when this replica becomes the leader and false when it stops being the leader */
+  public Flux<Boolean> leadership() {
+    return leadershipSink.asFlux().distinctUntilChanged();
+  }
+
+  /**
+   * Runs the supplied pipeline for as long as this replica is the leader, subscribing to it again
+   * each time leadership is regained. The returned flux never completes on its own so that it can
+   * be subscribed to once at startup by every replica.
+   */
+  public <T> Flux<T> whileLeader(Supplier<? extends Publisher<T>> pipeline) {
+    return leadership().switchMap(isLeader -> isLeader ? Flux.defer(pipeline) : Flux.empty());
+  }
+
+  private Mono<Boolean> tryAcquire() {
+    return leaderLeaseRepo
+        .acquire(LEASE_NAME, instanceId, properties.getLeaseMs())
+        .hasElement()
+        // if the lease can't be confirmed before the next renewal it may be lost by the time the
+        // answer comes back, step down rather than risk two leaders
+        .timeout(Duration.ofMillis(properties.getRenewIntervalMs()))
+        .onErrorResume(
+            throwable -> {
+              log.warn("Leader lease renewal failed: {}", throwable.getMessage());
+              return Mono.just(false);
+            });
+  }
+
+  private void setLeader(boolean isLeader) {
+    if (leader.getAndSet(isLeader ? 1 : 0) == 1 != isLeader) {
+      log.info("{} {} the leader", instanceId, isLeader ? "is now" : "is no longer");
+    }
+    leadershipSink.tryEmitNext(isLeader);
+  }
+}
@@ -0,0 +1,230 @@
+package org.cancogenvirusseq.singularity.components.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.context.ContextView;
+
+/**
+ * Meters for each stage of the archive build pipeline. Every meter is tagged with the type of the
+ * archive being built, which the stages that don't know about the archive read from the
+ * "archiveBuildRequest" reactor context written by ArchiveBuildRequestToArchive. Tags are limited to
+ * enum values so cardinality stays constant no matter how many archives are built.
+ */
+@Component
+@RequiredArgsConstructor
+public class ArchiveMetrics {
+  public static final String ARCHIVE_TYPE_TAG = "archiveType";
+  public static final String OUTCOME_TAG = "outcome";
+
+  // used when a stage runs outside of an archive build
+  private static final String NO_ARCHIVE_TYPE = "NONE";
+
+  private final MeterRegistry meterRegistry;
+
+  private final Map<String, AtomicInteger> s3GetsInFlight = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> buildsInFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Counts documents read from a scroll and times each page, a page being the time taken for the
+   * next pageSize documents to arrive. This includes time spent waiting on downstream demand, so a
+   * page that is slower than the search itself points at a downstream stage.
+   */
+  public <T> UnaryOperator<Flux<T>> scroll(int pageSize) {
+    return documents ->
+        Flux.deferContextual(
+            ctx -> {
+              final Tags tags = archiveTypeTags(ctx);
+              final Timer pageLatency =
+                  Timer.builder("singularity.es.scroll.page")
+                      .description("Time to receive a page of documents from a scroll")
+                      .tags(tags)
+                      .register(meterRegistry);
+              final AtomicLong pageStartedAt = new AtomicLong();
+              final AtomicLong documentsInPage = new AtomicLong();
+
+              return documents
+                  .doOnSubscribe(subscription -> pageStartedAt.set(System.nanoTime()))
+                  .doOnNext(
+                      document -> {
+                        meterRegistry.counter("singularity.es.scroll.documents", tags).increment();
+                        if (documentsInPage.incrementAndGet() == pageSize) {
+                          documentsInPage.set(0);
+                          pageLatency.record(
+                              System.nanoTime() - pageStartedAt.getAndSet(System.nanoTime()),
+                              TimeUnit.NANOSECONDS);
+                        }
+                      })
+                  .doOnComplete(
+                      () -> {
+                        if (documentsInPage.get() > 0) {
+                          pageLatency.record(
+                              System.nanoTime() - pageStartedAt.get(), TimeUnit.NANOSECONDS);
+                        }
+                      });
+            });
+  }
+
+  /** Times a single object storage GET and records the number of bytes it returned. */
+  public <T> UnaryOperator<Mono<T>> s3Get(ToLongFunction<T> responseBytes) {
+    return response ->
+        Mono.deferContextual(
+            ctx -> {
+              final Tags tags = archiveTypeTags(ctx);
+              final AtomicInteger inFlight =
+                  inFlightGauge(s3GetsInFlight, "singularity.s3.get.inflight", tags);
+              final Timer.Sample sample = Timer.start(meterRegistry);
+
+              return response
+                  .doOnSubscribe(subscription -> inFlight.incrementAndGet())
+                  .doOnNext(
+                      value ->
+                          DistributionSummary.builder("singularity.s3.get.bytes")
+                              .baseUnit("bytes")
+                              .tags(tags)
+                              .register(meterRegistry)
+                              .record(responseBytes.applyAsLong(value)))
+                  .doFinally(
+                      signalType -> {
+                        inFlight.decrementAndGet();
+                        sample.stop(
+                            Timer.builder("singularity.s3.get.latency")
+                                .description("Object storage GET latency")
+                                .publishPercentileHistogram()
+                                .tags(tags)
+                                .tag(OUTCOME_TAG, signalType.name())
+                                .register(meterRegistry));
+                      });
+            });
+  }
+
+  /** Times the upload of a file and counts its bytes once the upload has succeeded. */
+  public <T> UnaryOperator<Mono<T>> upload(Path file) {
+    return upload ->
+        Mono.deferContextual(
+            ctx -> {
+              final Tags tags = archiveTypeTags(ctx);
+              final Timer.Sample sample = Timer.start(meterRegistry);
+
+              return upload.doOnSuccess(
+                  value -> {
+                    sample.stop(
+                        Timer.builder("singularity.archive.upload.duration")
+                            .tags(tags)
+                            .register(meterRegistry));
+                    meterRegistry
+                        .counter("singularity.archive.upload.bytes", tags)
+                        .increment(fileSize(file));
+                  });
+            });
+  }
+
+  /**
+   * Times the compression of an archive, counting the uncompressed bytes that went in and the
+   * compressed bytes that came out.
+   */
+  public Path compression(
+      ArchiveType archiveType, long uncompressedBytes, Supplier<Path> compression) {
+    final Tags tags = archiveTypeTags(archiveType);
+    final Path archivePath =
+        Timer.builder("singularity.archive.compression.duration")
+            .tags(tags)
+            .register(meterRegistry)
+            .record(compression);
+
+    meterRegistry
+        .counter("singularity.archive.compression.input.bytes", tags)
+        .increment(uncompressedBytes);
+    meterRegistry
+        .counter("singularity.archive.compression.output.bytes", tags)
+        .increment(fileSize(archivePath));
+    return archivePath;
+  }
+
+  /**
+   * Times a whole archive build by its outcome, which is the status of the last archive emitted or
+   * CANCELLED if the build is cancelled before it finishes.
+   */
+  public UnaryOperator<Flux<Archive>> build(ArchiveType archiveType) {
+    return build -> {
+      final Tags tags = archiveTypeTags(archiveType);
+      final AtomicReference<Timer.Sample> sample = new AtomicReference<>();
+      final AtomicReference<ArchiveStatus> outcome = new AtomicReference<>();
+      final AtomicInteger inFlight =
+          inFlightGauge(buildsInFlight, "singularity.archive.builds.inflight", tags);
+
+      return build
+          .doOnSubscribe(
+              subscription -> {
+                inFlight.incrementAndGet();
+                sample.set(Timer.start(meterRegistry));
+              })
+          .doOnNext(archive -> outcome.set(archive.getStatus()))
+          .doFinally(
+              signalType -> {
+                inFlight.decrementAndGet();
+                sample
+                    .get()
+                    .stop(
+                        Timer.builder("singularity.archive.build.duration")
+                            .tags(tags)
+                            .tag(OUTCOME_TAG, buildOutcome(signalType, outcome.get()))
+                            .register(meterRegistry));
+              });
+    };
+  }
+
+  public static Tags archiveTypeTags(ArchiveType archiveType) {
+    return Tags.of(ARCHIVE_TYPE_TAG, archiveType.name());
+  }
+
+  private static Tags archiveTypeTags(ContextView ctx) {
+    return Tags.of(
+        ARCHIVE_TYPE_TAG,
+        ctx.<ArchiveBuildRequest>getOrEmpty("archiveBuildRequest")
+            .map(archiveBuildRequest -> archiveBuildRequest.getArchive().getType().name())
+            .orElse(NO_ARCHIVE_TYPE));
+  }
+
+  private static String buildOutcome(SignalType signalType, ArchiveStatus lastStatus) {
+    if (SignalType.CANCEL.equals(signalType)) {
+      return ArchiveStatus.CANCELLED.name();
+    } else if (SignalType.ON_ERROR.equals(signalType) || lastStatus == null) {
+      return ArchiveStatus.FAILED.name();
+    }
+    return lastStatus.name();
+  }
+
+  private AtomicInteger inFlightGauge(
+      Map<String, AtomicInteger> gauges, String name, Tags tags) {
+    return gauges.computeIfAbsent(
+        name + tags, key -> meterRegistry.gauge(name, tags, new AtomicInteger()));
+  }
+
+  @SneakyThrows
+  private static long fileSize(Path path) {
+    return Files.size(path);
+  }
+}
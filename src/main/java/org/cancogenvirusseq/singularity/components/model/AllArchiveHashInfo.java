@@ -1,9 +1,11 @@
 package org.cancogenvirusseq.singularity.components.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 
 @Getter
 @RequiredArgsConstructor
@@ -13,11 +15,23 @@ public class AllArchiveHashInfo {
   private final Long numSamples;
   private final String lastUpdated;
 
+  // left out for gzip so the hashes of archives built before codecs existed don't change
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final ArchiveCodec codec;
+
+  // left out for unsharded archives, for the same reason
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final Integer shardCount;
+
   public static AllArchiveHashInfo parseFromCountAndLastUpdatedResult(
-      CountAndLastUpdatedResult countAndLastUpdatedResult) {
+      CountAndLastUpdatedResult countAndLastUpdatedResult,
+      ArchiveCodec codec,
+      Integer shardCount) {
     return new AllArchiveHashInfo(
-        countAndLastUpdatedResult.getNumDocuments().getValue(),
-        countAndLastUpdatedResult.getLastUpdatedDate().getValueAsString());
+        countAndLastUpdatedResult.getNumDocuments(),
+        countAndLastUpdatedResult.getLastUpdatedDate().getValueAsString(),
+        ArchiveCodec.GZIP.equals(codec) ? null : codec,
+        shardCount);
   }
 
   @Override
@@ -0,0 +1,127 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import static org.cancogenvirusseq.singularity.components.model.SongAnalysisMessage.*;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The set of analyses that changed in the file centric index over a batch of Song messages. When an
+ * analysis appears more than once in a batch only its latest message is considered. Messages that
+ * couldn't be read are counted, a change-set with any of them doesn't tell everything that changed.
+ */
+@Getter
+@RequiredArgsConstructor
+public class AnalysisChangeSet {
+  private final Set<String> added;
+  private final Set<String> updated;
+  private final Set<String> suppressed;
+  private final int unreadable;
+
+  public enum ChangeType {
+    ADDED,
+    UPDATED,
+    SUPPRESSED,
+    // the analysis is not (yet) in the index, ex. created but not published
+    IGNORED
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && updated.isEmpty() && suppressed.isEmpty();
+  }
+
+  public int size() {
+    return added.size() + updated.size() + suppressed.size();
+  }
+
+  public boolean isComplete() {
+    return unreadable == 0;
+  }
+
+  /** Every analysis that changed, whatever the change */
+  public Set<String> getAnalysisIds() {
+    return Stream.of(added, updated, suppressed)
+        .flatMap(Set::stream)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  /** This change-set followed by a later one, the later change to an analysis wins */
+  public AnalysisChangeSet merge(AnalysisChangeSet later) {
+    final Set<String> laterAnalysisIds = later.getAnalysisIds();
+    return new AnalysisChangeSet(
+        union(added, later.getAdded(), laterAnalysisIds),
+        union(updated, later.getUpdated(), laterAnalysisIds),
+        union(suppressed, later.getSuppressed(), laterAnalysisIds),
+        unreadable + later.getUnreadable());
+  }
+
+  public static AnalysisChangeSet empty() {
+    return new AnalysisChangeSet(Set.of(), Set.of(), Set.of(), 0);
+  }
+
+  public static AnalysisChangeSet fromMessages(Collection<SongAnalysisMessage> messages) {
+    return fromMessages(messages, 0);
+  }
+
+  public static AnalysisChangeSet fromMessages(
+      Collection<SongAnalysisMessage> messages, int unreadable) {
+    // later messages for the same analysis replace earlier ones
+    final Map<String, ChangeType> latestChangeByAnalysisId = new LinkedHashMap<>();
+    messages.stream()
+        .filter(message -> message.getAnalysisId() != null)
+        .forEach(
+            message -> {
+              latestChangeByAnalysisId.remove(message.getAnalysisId());
+              latestChangeByAnalysisId.put(message.getAnalysisId(), changeTypeOf(message));
+            });
+
+    return new AnalysisChangeSet(
+        analysisIdsWithChangeType(latestChangeByAnalysisId, ChangeType.ADDED),
+        analysisIdsWithChangeType(latestChangeByAnalysisId, ChangeType.UPDATED),
+        analysisIdsWithChangeType(latestChangeByAnalysisId, ChangeType.SUPPRESSED),
+        unreadable);
+  }
+
+  public static ChangeType changeTypeOf(SongAnalysisMessage message) {
+    if (ACTION_PUBLISH.equalsIgnoreCase(message.getAction())) {
+      return ChangeType.ADDED;
+    } else if (ACTION_UNPUBLISH.equalsIgnoreCase(message.getAction())
+        || ACTION_SUPPRESS.equalsIgnoreCase(message.getAction())) {
+      return ChangeType.SUPPRESSED;
+    } else if (ACTION_CREATE.equalsIgnoreCase(message.getAction())
+        || !STATE_PUBLISHED.equalsIgnoreCase(message.getState())) {
+      return ChangeType.IGNORED;
+    }
+    // any other change to an analysis that is published
+    return ChangeType.UPDATED;
+  }
+
+  private static Set<String> analysisIdsWithChangeType(
+      Map<String, ChangeType> changes, ChangeType changeType) {
+    return changes.entrySet().stream()
+        .filter(entry -> changeType.equals(entry.getValue()))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  private static Set<String> union(
+      Set<String> earlier, Set<String> later, Set<String> changedLater) {
+    return Stream.concat(
+            earlier.stream().filter(analysisId -> !changedLater.contains(analysisId)),
+            later.stream())
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "AnalysisChangeSet(added=%d, updated=%d, suppressed=%d, unreadable=%d)",
+        added.size(), updated.size(), suppressed.size(), unreadable);
+  }
+}
@@ -18,12 +18,28 @@
 
 package org.cancogenvirusseq.singularity.components.model;
 
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
+import org.cancogenvirusseq.singularity.components.utils.GzipMembers;
 
 @Getter
-@RequiredArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class AnalysisDocumentMolecularDataPair {
   private final AnalysisDocument analysisDocument;
+  // the fasta record, or the record compressed as a gzip member
   private final byte[] molecularData;
+  private final boolean gzipMember;
+  // size of the fasta record, once decompressed if it is a gzip member
+  private final long molecularDataLength;
+
+  public AnalysisDocumentMolecularDataPair(AnalysisDocument analysisDocument, byte[] molecularData) {
+    this(analysisDocument, molecularData, false, molecularData.length);
+  }
+
+  public static AnalysisDocumentMolecularDataPair fromGzipMember(
+      AnalysisDocument analysisDocument, byte[] gzipMember) {
+    return new AnalysisDocumentMolecularDataPair(
+        analysisDocument, gzipMember, true, GzipMembers.uncompressedSize(gzipMember));
+  }
 }
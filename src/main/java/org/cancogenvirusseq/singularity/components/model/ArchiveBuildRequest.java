@@ -1,13 +1,22 @@
 package org.cancogenvirusseq.singularity.components.model;
 
+import javax.annotation.Nullable;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
 
 @Getter
-@RequiredArgsConstructor
+@AllArgsConstructor
 public class ArchiveBuildRequest {
   private final Archive archive;
   private final QueryBuilder queryBuilder;
+
+  // the slice of the query results to build, when building one shard of a sharded archive
+  @Nullable private final SliceBuilder slice;
+
+  public ArchiveBuildRequest(Archive archive, QueryBuilder queryBuilder) {
+    this(archive, queryBuilder, null);
+  }
 }
@@ -0,0 +1,53 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.UUID;
+import lombok.Builder;
+import lombok.Value;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+
+/** Point in time view of the progress of an archive build. */
+@Value
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BuildProgress {
+  UUID archiveId;
+  BuildStage stage;
+  long documentsProcessed;
+  long numOfSamples;
+  long bytesDownloaded;
+  long bytesCompressed;
+  // epoch seconds
+  long startedAt;
+  // estimated seconds until all documents are downloaded, only known while downloading
+  Long etaSeconds;
+
+  /**
+   * Progress as far as it can be told from the archive alone, for archives that are not being built
+   * on this instance. The stage is unknown for an archive that is still building elsewhere.
+   */
+  public static BuildProgress fromArchive(Archive archive) {
+    final BuildStage stage = stageFromStatus(archive.getStatus());
+    return BuildProgress.builder()
+        .archiveId(archive.getId())
+        .stage(stage)
+        .documentsProcessed(BuildStage.COMPLETE.equals(stage) ? archive.getNumOfSamples() : 0)
+        .numOfSamples(archive.getNumOfSamples())
+        .startedAt(archive.getCreatedAt() == null ? 0 : archive.getCreatedAt())
+        .build();
+  }
+
+  private static BuildStage stageFromStatus(ArchiveStatus status) {
+    switch (status) {
+      case COMPLETE:
+        return BuildStage.COMPLETE;
+      case FAILED:
+        return BuildStage.FAILED;
+      case CANCELLED:
+        return BuildStage.CANCELLED;
+      default:
+        return null;
+    }
+  }
+}
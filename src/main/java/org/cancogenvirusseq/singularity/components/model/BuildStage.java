@@ -0,0 +1,15 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+public enum BuildStage {
+  // documents are scrolled from the index and their molecular data downloaded
+  DOWNLOADING,
+  COMPRESSING,
+  UPLOADING,
+  COMPLETE,
+  FAILED,
+  CANCELLED;
+
+  public boolean isFinished() {
+    return this == COMPLETE || this == FAILED || this == CANCELLED;
+  }
+}
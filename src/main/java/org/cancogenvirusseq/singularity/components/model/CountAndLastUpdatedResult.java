@@ -3,11 +3,20 @@ package org.cancogenvirusseq.singularity.components.model;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.elasticsearch.search.aggregations.metrics.ParsedMax;
-import org.elasticsearch.search.aggregations.metrics.ParsedValueCount;
 
 @Getter
 @RequiredArgsConstructor
 public class CountAndLastUpdatedResult {
   private final ParsedMax lastUpdatedDate;
-  private final ParsedValueCount numDocuments;
+  private final Long numDocuments;
+
+  /** Result over the documents of both results, which have to be of distinct documents */
+  public static CountAndLastUpdatedResult combine(
+      CountAndLastUpdatedResult first, CountAndLastUpdatedResult second) {
+    return new CountAndLastUpdatedResult(
+        first.getLastUpdatedDate().getValue() >= second.getLastUpdatedDate().getValue()
+            ? first.getLastUpdatedDate()
+            : second.getLastUpdatedDate(),
+        first.getNumDocuments() + second.getNumDocuments());
+  }
 }
@@ -22,54 +22,88 @@ import static java.lang.String.format;
 
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.UUID;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.springframework.util.FileSystemUtils;
 
 @Slf4j
 @Getter
 public class FileBundle {
-  public static final String DOWNLOAD_DIR = "/tmp";
   public static final String FILE_NAME_TEMPLATE = "files-archive-";
   public static final String MOLECULAR_PREFIX_FILE_NAME = "2-";
   public static final String METADATA_PREFIX_FILE_NAME = "1-";
   public static final String MOLECULAR_FILE_EXTENSION = ".fasta";
   public static final String METADATA_FILE_EXTENSION = ".tsv";
-  public static final String ARCHIVE_EXTENSION = ".tar.gz";
+  public static final String SAMPLE_INDEX_FILE_EXTENSION = ".index.tsv.gz";
+  private static final String SAMPLE_INDEX_FILENAME = "sample-index.tsv";
 
+  private final ArchiveCodec codec;
+  private final Path scratchDirectory;
   private final String archiveFilename;
+  private final String sampleIndexFilename;
   private final String downloadDirectory;
   private final String molecularFilename;
   private final String metadataFilename;
   private final BufferedOutputStream archiveFileOutputStream;
+  // digests of the archive, computed as it is written
+  private final MessageDigest archiveSha256;
+  private final MessageDigest archiveMd5;
+  // digest of what went into the bundle, equal for bundles of the same samples in the same order
+  private final MessageDigest contentSha256;
   private final BufferedOutputStream molecularFileOutputStream;
   private final BufferedOutputStream metadataFileOutputStream;
+  // sample index entries with offsets into the fasta file, only written for gzip members
+  private final BufferedOutputStream sampleIndexOutputStream;
 
-  @Setter private GzipCompressorOutputStream archiveGzipOutputStream;
+  @Setter private OutputStream archiveCompressorOutputStream;
   @Setter private TarArchiveOutputStream archiveTarOutputStream;
 
+  // bytes written to the bundle files, before compression
+  private long uncompressedBytes = 0;
+  // size of the fasta file once decompressed, it holds gzip members instead of records when set
+  private long molecularDataLength = 0;
+  private boolean gzipMembers = false;
+  // bytes written to the fasta file so far
+  private long molecularFileBytes = 0;
+
   @SneakyThrows
-  public FileBundle(UUID archiveId) {
+  public FileBundle(UUID archiveId, ArchiveCodec codec, Path scratchDirectory) {
     // record archive name and create FileOutputStream (buffered)
-    this.archiveFilename = archiveFilenameFromArchiveId(archiveId);
+    this.codec = codec;
+    this.scratchDirectory = scratchDirectory;
+    this.archiveFilename = archiveFilenameFromArchiveId(archiveId, codec);
+    this.sampleIndexFilename = sampleIndexFilenameFromArchiveId(archiveId);
+    this.archiveSha256 = MessageDigest.getInstance("SHA-256");
+    this.archiveMd5 = MessageDigest.getInstance("MD5");
+    this.contentSha256 = MessageDigest.getInstance("SHA-256");
     this.archiveFileOutputStream =
         new BufferedOutputStream(
-            new FileOutputStream(format("%s/%s", DOWNLOAD_DIR, this.archiveFilename)));
+            new DigestOutputStream(
+                new DigestOutputStream(
+                    new FileOutputStream(scratchDirectory.resolve(this.archiveFilename).toFile()),
+                    archiveSha256),
+                archiveMd5));
 
     // create download directory for file downloads
-    this.downloadDirectory = format("%s/%s%s", DOWNLOAD_DIR, FILE_NAME_TEMPLATE, archiveId);
+    this.downloadDirectory = format("%s/%s%s", scratchDirectory, FILE_NAME_TEMPLATE, archiveId);
 
     FileSystemUtils.deleteRecursively(Paths.get(this.downloadDirectory));
-    Files.deleteIfExists(Paths.get(this.archiveFilenameFromArchiveId(archiveId)));
-    log.info("Cleaning up Download Directory({}) and compressed file({}).", this.downloadDirectory, this.archiveFilenameFromArchiveId(archiveId));
+    Files.deleteIfExists(Paths.get(this.archiveFilename));
+    log.info("Cleaning up Download Directory({}) and compressed file({}).", this.downloadDirectory, this.archiveFilename);
     
     Files.createDirectory(Paths.get(this.downloadDirectory));
 
@@ -89,9 +123,48 @@ public class FileBundle {
 
     // write the tsv header
     this.metadataFileOutputStream.write(TsvUtils.getHeader());
+
+    this.sampleIndexOutputStream =
+        new BufferedOutputStream(
+            new FileOutputStream(format("%s/%s", this.downloadDirectory, SAMPLE_INDEX_FILENAME)));
+  }
+
+  public void addUncompressedBytes(long bytes) {
+    uncompressedBytes += bytes;
+  }
+
+  /**
+   * The object id stands in for the fasta record, song objects never change once published, and
+   * the metadata row covers the rest of the sample.
+   */
+  public void addContent(String objectId, byte[] metadataRow) {
+    contentSha256.update(objectId.getBytes(StandardCharsets.UTF_8));
+    contentSha256.update(metadataRow);
+  }
+
+  public void addMolecularData(AnalysisDocumentMolecularDataPair pair) {
+    molecularDataLength += pair.getMolecularDataLength();
+    gzipMembers = pair.isGzipMember();
+    molecularFileBytes += pair.getMolecularData().length;
+  }
+
+  public Path getSampleIndexPath() {
+    return Paths.get(downloadDirectory, SAMPLE_INDEX_FILENAME);
+  }
+
+  public static String archiveFilenameFromArchiveId(UUID archiveId, ArchiveCodec codec) {
+    return format("%s%s%s", FILE_NAME_TEMPLATE, archiveId, codec.getExtension());
+  }
+
+  public static String archiveFilenameFromArchive(Archive archive) {
+    return archiveFilenameFromArchiveId(archive.getId(), archive.getCodec());
+  }
+
+  public static String sampleIndexFilenameFromArchiveId(UUID archiveId) {
+    return format("%s%s%s", FILE_NAME_TEMPLATE, archiveId, SAMPLE_INDEX_FILE_EXTENSION);
   }
 
-  public static String archiveFilenameFromArchiveId(UUID archiveId) {
-    return format("%s%s%s", FILE_NAME_TEMPLATE, archiveId, ARCHIVE_EXTENSION);
+  public static String sampleIndexFilenameFromArchive(Archive archive) {
+    return sampleIndexFilenameFromArchiveId(archive.getId());
   }
 }
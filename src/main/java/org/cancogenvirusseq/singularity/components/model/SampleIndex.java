@@ -0,0 +1,88 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import static java.lang.String.format;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.Value;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Sidecar index of an archive assembled from gzip members, it maps each sample to the member its
+ * fasta record was copied as. A member is a complete gzip stream, so a single record is read back
+ * with a ranged read of the archive and decompressed on its own.
+ *
+ * <p>The index is a gzip compressed tsv with one line per sample: the specimen collector sample ID,
+ * the object id, and the offset and length of the member in the archive.
+ */
+@RequiredArgsConstructor
+public class SampleIndex {
+  private final Map<String, Entry> entriesBySampleId;
+  private final Map<String, Entry> entriesByObjectId;
+
+  /** Finds a sample by its specimen collector sample ID, or failing that by its object id */
+  public Optional<Entry> find(String id) {
+    return Optional.ofNullable(entriesBySampleId.get(id))
+        .or(() -> Optional.ofNullable(entriesByObjectId.get(id)));
+  }
+
+  public int size() {
+    return entriesByObjectId.size();
+  }
+
+  @SneakyThrows
+  public static SampleIndex read(byte[] compressedIndex) {
+    final Map<String, Entry> entriesBySampleId = new HashMap<>();
+    final Map<String, Entry> entriesByObjectId = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                new GzipCompressorInputStream(new ByteArrayInputStream(compressedIndex)),
+                StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final Entry entry = Entry.fromTsvLine(line);
+        // sample ids are only unique within a study, the first sample with an id wins
+        entriesBySampleId.putIfAbsent(entry.getSampleId(), entry);
+        entriesByObjectId.put(entry.getObjectId(), entry);
+      }
+    }
+    return new SampleIndex(entriesBySampleId, entriesByObjectId);
+  }
+
+  @Value
+  public static class Entry {
+    String sampleId;
+    String objectId;
+    long offset;
+    long length;
+
+    public Entry withOffsetFrom(long base) {
+      return new Entry(sampleId, objectId, base + offset, length);
+    }
+
+    public byte[] toTsvLine() {
+      // tabs and newlines would break the line apart, they are not expected in ids anyway
+      return format(
+              "%s\t%s\t%d\t%d\n", sanitize(sampleId), sanitize(objectId), offset, length)
+          .getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static Entry fromTsvLine(String line) {
+      final String[] columns = line.split("\t", -1);
+      return new Entry(
+          columns[0], columns[1], Long.parseLong(columns[2]), Long.parseLong(columns[3]));
+    }
+
+    private static String sanitize(String id) {
+      return id.replaceAll("[\t\r\n]", " ");
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+
+@Getter
+@RequiredArgsConstructor
+public class ShardArchiveHashInfo {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final String parentHash;
+  private final Integer shardIndex;
+
+  @Override
+  @SneakyThrows
+  public String toString() {
+    return ShardArchiveHashInfo.objectMapper.writeValueAsString(this);
+  }
+}
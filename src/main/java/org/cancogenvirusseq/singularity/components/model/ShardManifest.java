@@ -0,0 +1,59 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import static java.lang.String.format;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import lombok.Builder;
+import lombok.Value;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
+
+/** Lists the shards of a sharded release so clients can download and verify them in parallel. */
+@Value
+@Builder
+public class ShardManifest {
+  public static final String MANIFEST_FILENAME = "manifest.json";
+
+  UUID archiveId;
+  Long createdAt;
+  ArchiveCodec codec;
+  Long numOfSamples;
+  List<Shard> shards;
+
+  @Value
+  @Builder
+  public static class Shard {
+    Integer index;
+    UUID archiveId;
+    String filename;
+    String downloadPath;
+    Long numOfSamples;
+    Long sizeBytes;
+    String sha256;
+  }
+
+  public static ShardManifest fromArchiveAndShards(Archive archive, List<Archive> shards) {
+    return ShardManifest.builder()
+        .archiveId(archive.getId())
+        .createdAt(archive.getCreatedAt())
+        .codec(archive.getCodec())
+        .numOfSamples(shards.stream().mapToLong(Archive::getNumOfSamples).sum())
+        .shards(
+            shards.stream()
+                .map(
+                    shard ->
+                        Shard.builder()
+                            .index(shard.getShardIndex())
+                            .archiveId(shard.getId())
+                            .filename(Archive.parseFilenameFromArchive(shard))
+                            .downloadPath(format("/download/archive/%s", shard.getId()))
+                            .numOfSamples(shard.getNumOfSamples())
+                            .sizeBytes(shard.getSizeBytes())
+                            .sha256(shard.getSha256())
+                            .build())
+                .collect(Collectors.toList()))
+        .build();
+  }
+}
@@ -0,0 +1,27 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Message published by Song on the song_analysis topic whenever an analysis changes. Only the
+ * fields needed to identify the change are mapped, the embedded analysis payload is ignored.
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SongAnalysisMessage {
+  public static final String ACTION_CREATE = "CREATE";
+  public static final String ACTION_PUBLISH = "PUBLISH";
+  public static final String ACTION_UNPUBLISH = "UNPUBLISH";
+  public static final String ACTION_SUPPRESS = "SUPPRESS";
+
+  public static final String STATE_PUBLISHED = "PUBLISHED";
+
+  private String analysisId;
+  private String studyId;
+  private String state;
+  private String action;
+  private String songServerId;
+}
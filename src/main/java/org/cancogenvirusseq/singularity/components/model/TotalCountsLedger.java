@@ -0,0 +1,78 @@
+package org.cancogenvirusseq.singularity.components.model;
+
+import static org.cancogenvirusseq.singularity.components.utils.ConverterUtils.convertBytesToHumanReadable;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.Value;
+
+/**
+ * What each analysis in the file centric index adds to the total counts, so that the totals can be
+ * updated from just the analyses that changed. Files and their sizes are summed, studies and
+ * samples are counted once however many analyses share them. Not thread safe.
+ */
+public class TotalCountsLedger {
+  private final Map<String, List<FileCounts>> analyses = new HashMap<>();
+  private final Multiset<String> studies = HashMultiset.create();
+  private final Multiset<String> samples = HashMultiset.create();
+  private long files = 0;
+  private long fileSizeBytes = 0;
+
+  /** The fields of a file centric document that are counted */
+  @Value
+  public static class FileCounts {
+    String analysisId;
+    String studyId;
+    // null when the document has no file size, it isn't counted as a file then
+    Long fileSizeBytes;
+    List<String> submitterDonorIds;
+  }
+
+  /** Replaces what an analysis adds to the counts by its documents, nothing once it's gone */
+  public void put(String analysisId, List<FileCounts> documents) {
+    Optional.ofNullable(analyses.remove(analysisId))
+        .ifPresent(previous -> previous.forEach(this::subtract));
+    if (!documents.isEmpty()) {
+      analyses.put(analysisId, documents);
+      documents.forEach(this::add);
+    }
+  }
+
+  public TotalCounts toTotalCounts(Instant instant) {
+    return TotalCounts.builder()
+        .files(files)
+        .samples((long) samples.elementSet().size())
+        .studies(studies.elementSet().size())
+        .fileSizeBytes(fileSizeBytes)
+        .fileSizeHumanReadable(convertBytesToHumanReadable(fileSizeBytes))
+        .timestamp(instant.toEpochMilli())
+        .build();
+  }
+
+  private void add(FileCounts document) {
+    if (document.getFileSizeBytes() != null) {
+      files++;
+      fileSizeBytes += document.getFileSizeBytes();
+    }
+    if (document.getStudyId() != null) {
+      studies.add(document.getStudyId());
+    }
+    samples.addAll(document.getSubmitterDonorIds());
+  }
+
+  private void subtract(FileCounts document) {
+    if (document.getFileSizeBytes() != null) {
+      files--;
+      fileSizeBytes -= document.getFileSizeBytes();
+    }
+    if (document.getStudyId() != null) {
+      studies.remove(document.getStudyId());
+    }
+    document.getSubmitterDonorIds().forEach(samples::remove);
+  }
+}
@@ -4,7 +4,10 @@ import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static java.text.MessageFormat.format;
 
@@ -15,6 +18,31 @@ public class IndexerNotification {
     private final NotificationName notificationName;
     private final Map<String, ? extends Object> attributes;
 
+    /**
+     * Merges notifications of the same name into a single one listing the first maxEntries of them
+     * and counting the rest.
+     */
+    public static IndexerNotification digest(
+            NotificationName notificationName, List<IndexerNotification> notifications, int maxEntries) {
+        if (notifications.size() == 1) {
+            return notifications.get(0);
+        }
+
+        final LinkedHashMap<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("Notifications", notifications.size());
+        for (int i = 0; i < Math.min(maxEntries, notifications.size()); i++) {
+            attributes.put(
+                    "#" + (i + 1),
+                    notifications.get(i).getAttributes().entrySet().stream()
+                            .map(entry -> entry.getKey() + ": " + entry.getValue())
+                            .collect(Collectors.joining(", ")));
+        }
+        if (notifications.size() > maxEntries) {
+            attributes.put("Not listed", notifications.size() - maxEntries);
+        }
+        return new IndexerNotification(notificationName, attributes);
+    }
+
     public String toString() {
         return format("{0} | {1}", notificationName.name().toUpperCase(), attributes);
     }
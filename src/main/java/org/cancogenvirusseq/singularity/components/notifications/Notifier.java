@@ -1,60 +1,65 @@
 package org.cancogenvirusseq.singularity.components.notifications;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.notifications.NotificationDispatchProperties;
 import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.stream.Collectors;
 
+/**
+ * Dispatches notifications to the channels subscribed to them. Each channel has a bounded queue
+ * that is drained once per window, the notifications queued during the window are merged into one
+ * digest per notification name, and digests are sent one at a time no faster than the channel's
+ * minimum interval. A burst of notifications therefore never turns into a burst of requests, when
+ * the queue is full new notifications are dropped and counted.
+ */
 @Slf4j
 @Component
 public class Notifier {
 
-    private final Set<NotificationChannel> notificationChannels;
+    private final List<ChannelDispatcher> dispatchers;
 
-    public Notifier(Set<NotificationChannel> notificationChannels) {
-        this.notificationChannels = notificationChannels;
+    public Notifier(
+            Set<NotificationChannel> notificationChannels,
+            NotificationDispatchProperties properties,
+            MeterRegistry meterRegistry) {
+        this.dispatchers =
+                notificationChannels.stream()
+                        .map(channel -> new ChannelDispatcher(channel, properties, meterRegistry))
+                        .collect(Collectors.toUnmodifiableList());
     }
 
     /**
-     * Asynchronously calls the eligible notification channels.
+     * Queues the notification for the eligible notification channels, it is sent with the next
+     * digest of each channel.
      *
      * @param notification the notification to send
      */
     public void notify(IndexerNotification notification) {
-        // some of the channels may need async I/O execution (slack) but
-        // the caller (indexer) doesn't need to worry about what happens here so no need to return the
-        // flux and we subscribe here.
-        Flux.fromIterable(getEligibleChannels(notification))
-                .flatMap(
-                        notificationChannel ->
-                                sendNotificationThroughChannel(notification, notificationChannel))
-                .subscribe();
+        // the caller doesn't need to worry about what happens here, queueing never blocks
+        dispatchers.stream()
+                .filter(dispatcher -> shouldReceiveNotification(notification, dispatcher.getChannel()))
+                .forEach(dispatcher -> dispatcher.offer(notification));
     }
 
-    private Mono<Boolean> sendNotificationThroughChannel(
-            IndexerNotification notification, NotificationChannel notificationChannel) {
-        return notificationChannel
-                .send(notification)
-                .doOnSuccess((resp) -> log.info("Notification sent {} to channel {}", notification.getNotificationName(), notificationChannel.getClass().getName()))
-                .onErrorResume(
-                        e -> {
-                            log.error(
-                                    "failed to deliver notification {} to channel {}",
-                                    notification,
-                                    notificationChannel,
-                                    e);
-                            return Mono.just(false);
-                        });
-    }
-
-    private List<NotificationChannel> getEligibleChannels(IndexerNotification notification) {
-        return notificationChannels.stream()
-                .filter(notificationChannel -> shouldReceiveNotification(notification, notificationChannel))
-                .collect(Collectors.toUnmodifiableList());
+    @PreDestroy
+    public void shutdown() {
+        dispatchers.forEach(ChannelDispatcher::dispose);
     }
 
     private boolean shouldReceiveNotification(
@@ -62,4 +67,126 @@ public class Notifier {
         return notificationChannel.subscriptions().contains(NotificationName.ALL)
                 || notificationChannel.subscriptions().contains(notification.getNotificationName());
     }
+
+    private static class ChannelDispatcher {
+        private final NotificationChannel channel;
+        private final NotificationDispatchProperties properties;
+        private final BlockingQueue<IndexerNotification> queue;
+
+        private final Counter sent;
+        private final Counter merged;
+        private final Counter dropped;
+        private final Counter failed;
+
+        private final Disposable disposable;
+
+        ChannelDispatcher(
+                NotificationChannel channel,
+                NotificationDispatchProperties properties,
+                MeterRegistry meterRegistry) {
+            this.channel = channel;
+            this.properties = properties;
+            this.queue = new ArrayBlockingQueue<>(properties.getQueueSize());
+
+            final String channelName = channel.getClass().getSimpleName();
+            this.sent = counter(meterRegistry, "sent", channelName);
+            this.merged = counter(meterRegistry, "merged", channelName);
+            this.dropped = counter(meterRegistry, "dropped", channelName);
+            this.failed = counter(meterRegistry, "failed", channelName);
+
+            this.disposable =
+                    Flux.interval(Duration.ofMillis(properties.getWindowMs()))
+                            // a window that ends while the previous digests are still being sent is
+                            // merged into the next one
+                            .onBackpressureDrop()
+                            .concatMap(tick -> sendDigests(), 1)
+                            .subscribe();
+        }
+
+        private static Counter counter(MeterRegistry meterRegistry, String name, String channelName) {
+            return meterRegistry.counter("singularity.notifications." + name, "channel", channelName);
+        }
+
+        NotificationChannel getChannel() {
+            return channel;
+        }
+
+        void offer(IndexerNotification notification) {
+            if (!queue.offer(notification)) {
+                dropped.increment();
+                log.debug("Notification queue of {} is full, dropped {}", channel, notification);
+            }
+        }
+
+        void dispose() {
+            disposable.dispose();
+            if (!queue.isEmpty()) {
+                log.warn("{} notifications to {} were not sent before shutdown", queue.size(), channel);
+            }
+        }
+
+        private Flux<Boolean> sendDigests() {
+            final Duration minInterval = Duration.ofMillis(properties.getMinIntervalMs());
+            final List<IndexerNotification> drained = new ArrayList<>();
+            queue.drainTo(drained);
+            if (drained.isEmpty()) {
+                return Flux.empty();
+            }
+
+            final Map<NotificationName, List<IndexerNotification>> byName =
+                    drained.stream()
+                            .collect(
+                                    Collectors.groupingBy(
+                                            IndexerNotification::getNotificationName,
+                                            LinkedHashMap::new,
+                                            Collectors.toList()));
+
+            merged.increment(drained.size() - byName.size());
+
+            return Flux.fromIterable(byName.entrySet())
+                    .map(
+                            entry ->
+                                    IndexerNotification.digest(
+                                            entry.getKey(),
+                                            entry.getValue(),
+                                            properties.getMaxDigestEntries()))
+                    .concatMap(
+                            digest ->
+                                    send(digest)
+                                            // keeps the channel under its rate limit
+                                            .delayUntil(ignored -> Mono.delay(minInterval)));
+        }
+
+        private Mono<Boolean> send(IndexerNotification notification) {
+            return Mono.defer(() -> channel.send(notification))
+                    .flatMap(
+                            delivered ->
+                                    delivered
+                                            ? Mono.just(true)
+                                            : Mono.error(new IllegalStateException("not delivered")))
+                    // ex. rate limited by slack, back off before trying again
+                    .retryWhen(
+                            Retry.backoff(
+                                    properties.getMaxRetries(),
+                                    Duration.ofMillis(properties.getRetryBackoffMs())))
+                    .doOnSuccess(
+                            delivered -> {
+                                sent.increment();
+                                log.info(
+                                        "Notification sent {} to channel {}",
+                                        notification.getNotificationName(),
+                                        channel.getClass().getName());
+                            })
+                    .onErrorResume(
+                            e -> {
+                                failed.increment();
+                                log.error(
+                                        "failed to deliver notification {} to channel {}",
+                                        notification,
+                                        channel,
+                                        e);
+                                return Mono.just(false);
+                            });
+        }
+    }
 }
@@ -20,7 +20,8 @@ public class ArchiveNotifier {
     private final DateConverter dateConverter;
 
     public void notify(Archive archive) {
-        if (archive != null) {
+        // shards are reported through the release they belong to
+        if (archive != null && !ArchiveType.ALL_SHARD.equals(archive.getType())) {
             Message message = new Message(
                     archive.getStatus(),
                     archive.getHash(),
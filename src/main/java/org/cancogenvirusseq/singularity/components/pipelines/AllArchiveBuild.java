@@ -19,15 +19,28 @@
 package org.cancogenvirusseq.singularity.components.pipelines;
 
 import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.cancogenvirusseq.singularity.components.events.EventEmitter;
-import org.cancogenvirusseq.singularity.components.hoc.ArchiveBuildRequestToArchive;
+import org.cancogenvirusseq.singularity.components.events.IndexChangeDetector;
 import org.cancogenvirusseq.singularity.components.hoc.InstantToArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.components.leader.LeaderElection;
+import org.cancogenvirusseq.singularity.components.notifications.archives.ArchiveNotifier;
+import org.cancogenvirusseq.singularity.components.queue.BuildQueue;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
+import org.cancogenvirusseq.singularity.repository.model.IndexFingerprint;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Component
@@ -35,7 +48,11 @@ import reactor.core.Disposable;
 public class AllArchiveBuild {
   private final EventEmitter<String> eventEmitter;
   private final InstantToArchiveBuildRequest instantToArchiveBuildRequest;
-  private final ArchiveBuildRequestToArchive archiveBuildRequestToArchive;
+  private final BuildQueue buildQueue;
+  private final LeaderElection leaderElection;
+  private final IndexChangeDetector indexChangeDetector;
+  private final ArchivesRepo archivesRepo;
+  private final ArchiveNotifier notifier;
 
   @Getter private Disposable allArchiveDisposable;
   @Getter private Disposable buildAllArchiveDisposable;
@@ -47,28 +64,84 @@ public class AllArchiveBuild {
   }
 
   private Disposable createAllArchiveDisposable() {
-    return eventEmitter
-        .receive()
-        .doOnNext(
+    // every replica enqueues into the same build queue, so releases are only triggered by the leader
+    return leaderElection
+        .whileLeader(eventEmitter::receive)
+        .concatMap(
             instant -> {
               log.info("createAllArchiveDisposable received instant: {}", instant);
+              final Instant buildInstant = Instant.now();
 
-              if (buildAllArchiveDisposable != null && !buildAllArchiveDisposable.isDisposed()) {
-                log.info("Killing existing archive build!");
-                this.buildAllArchiveDisposable.dispose();
-              }
+              return indexChangeDetector
+                  .changedSinceLastRelease(buildInstant)
+                  .map(Optional::of)
+                  .onErrorResume(
+                      throwable -> {
+                        log.warn(
+                            "Couldn't tell whether the index changed, building anyway: {}",
+                            throwable.getMessage());
+                        return Mono.just(Optional.empty());
+                      })
+                  .doOnNext(
+                      fingerprint -> {
+                        if (buildAllArchiveDisposable != null
+                            && !buildAllArchiveDisposable.isDisposed()) {
+                          this.buildAllArchiveDisposable.dispose();
+                        }
 
-              log.info("Spawning new archive build...");
-              this.buildAllArchiveDisposable = createBuildAllArchiveDisposable(Instant.now());
+                        log.info("Queueing new archive build...");
+                        this.buildAllArchiveDisposable =
+                            createBuildAllArchiveDisposable(buildInstant, fingerprint);
+                      })
+                  // the running build, if any, already has this data so it is left alone
+                  .switchIfEmpty(
+                      Mono.fromRunnable(
+                          () -> log.info("Index unchanged since the last release, build skipped")));
             })
         .log("Files::createAllArchiveDisposable")
         .subscribe();
   }
 
-  private Disposable createBuildAllArchiveDisposable(Instant instant) {
+  private Disposable createBuildAllArchiveDisposable(
+      Instant instant, Optional<IndexFingerprint> fingerprint) {
     return instantToArchiveBuildRequest
         .apply(instant)
-        .flatMapMany(archiveBuildRequestToArchive)
+        .concatMap(buildQueue::enqueue)
+        .map(archiveBuildRequest -> archiveBuildRequest.getArchive().getId())
+        .collect(Collectors.toSet())
+        .flatMap(
+            queuedArchiveIds ->
+                supersedeOlderReleases(queuedArchiveIds)
+                    .then(Mono.justOrEmpty(fingerprint).flatMap(indexChangeDetector::record)))
         .subscribe();
   }
+
+  /**
+   * The new release supersedes any older one still being built. They are cancelled in the database
+   * so that whichever replica builds them stops, and those built here are stopped right away.
+   */
+  private Mono<Void> supersedeOlderReleases(Set<UUID> queuedArchiveIds) {
+    return (queuedArchiveIds.isEmpty()
+            ? Flux.<Archive>empty()
+            : archivesRepo.cancelBuildingReleasesExcept(queuedArchiveIds))
+        .doOnNext(
+            archive -> {
+              log.info("Archive {} superseded by a new release, cancelled", archive.getId());
+              notifier.notify(archive);
+            })
+        .onErrorResume(
+            throwable -> {
+              log.warn("Couldn't cancel superseded releases: {}", throwable.getMessage());
+              return Mono.empty();
+            })
+        .then(
+            Mono.fromRunnable(
+                () -> {
+                  log.info("Killing existing archive build!");
+                  buildQueue.cancelLocalBuilds(
+                      archive ->
+                          ArchiveType.ALL.equals(archive.getType())
+                              && !queuedArchiveIds.contains(archive.getId()));
+                }));
+  }
 }
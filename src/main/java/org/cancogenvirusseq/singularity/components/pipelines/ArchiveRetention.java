@@ -0,0 +1,153 @@
+package org.cancogenvirusseq.singularity.components.pipelines;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.DeleteObjectsByIds;
+import org.cancogenvirusseq.singularity.components.leader.LeaderElection;
+import org.cancogenvirusseq.singularity.config.archive.RetentionProperties;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Removes archives the retention policy no longer keeps, their objects from the bucket first and
+ * then their rows. Releases beyond the latest keepReleases per codec, set query archives that
+ * haven't been downloaded for setQueryExpiryDays and old failed or cancelled archives are removed,
+ * pinned archives never are. Runs on the leader only, in small paced batches so it doesn't compete
+ * with builds for the database and object storage.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ArchiveRetention {
+  private static final long SECONDS_PER_DAY = Duration.ofDays(1).getSeconds();
+
+  private final RetentionProperties properties;
+  private final ArchivesRepo archivesRepo;
+  private final DeleteObjectsByIds deleteObjectsByIds;
+  private final LeaderElection leaderElection;
+  private final MeterRegistry meterRegistry;
+
+  @Getter private Disposable retentionDisposable;
+
+  @PostConstruct
+  public void init() {
+    if (!properties.getEnabled()) {
+      log.info("Archive retention is disabled");
+      return;
+    }
+
+    final Duration interval = Duration.ofMinutes(properties.getIntervalMinutes());
+    retentionDisposable =
+        leaderElection
+            .whileLeader(() -> Flux.interval(interval, interval).onBackpressureDrop())
+            .concatMap(tick -> removeExpiredArchives())
+            .subscribe();
+  }
+
+  public Mono<Integer> removeExpiredArchives() {
+    final long now = Instant.now().getEpochSecond();
+    final int limit = properties.getMaxArchivesPerRun();
+
+    return Flux.concat(
+            archivesRepo.findExpiredReleases(Math.max(1, properties.getKeepReleases()), limit),
+            archivesRepo.findExpiredSetQueryArchives(
+                now - properties.getSetQueryExpiryDays() * SECONDS_PER_DAY, limit),
+            archivesRepo.findExpiredUnfinishedArchives(
+                now - properties.getUnfinishedExpiryDays() * SECONDS_PER_DAY, limit))
+        .take(limit)
+        // read everything up front so no connection is held while pausing between batches
+        .collectList()
+        .flatMapMany(Flux::fromIterable)
+        .buffer(properties.getBatchSize())
+        .concatMap(
+            batch ->
+                removeArchives(batch)
+                    .delayElement(Duration.ofMillis(properties.getPauseBetweenBatchesMs())))
+        .reduce(0, Integer::sum)
+        .doOnNext(
+            removed -> {
+              if (removed > 0) {
+                log.info("Retention removed {} archives", removed);
+              }
+            })
+        .onErrorResume(
+            throwable -> {
+              // whatever wasn't removed is picked up again by the next run
+              log.error("Archive retention run failed: {}", throwable.getMessage(), throwable);
+              return Mono.just(0);
+            });
+  }
+
+  /** Objects of the removed archives that no archive being kept shares with them */
+  private Flux<UUID> unusedObjectIds(List<Archive> removedArchives) {
+    final Set<UUID> objectIds =
+        removedArchives.stream()
+            .flatMap(archive -> Stream.of(archive.getObjectId(), archive.getIndexObjectId()))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+    if (objectIds.isEmpty()) {
+      return Flux.empty();
+    }
+
+    return archivesRepo
+        .findObjectIdsInUse(
+            objectIds,
+            removedArchives.stream().map(Archive::getId).collect(Collectors.toList()))
+        .collect(Collectors.toSet())
+        .flatMapMany(
+            inUse ->
+                Flux.fromIterable(objectIds).filter(objectId -> !inUse.contains(objectId)));
+  }
+
+  private Mono<Integer> removeArchives(List<Archive> archives) {
+    final List<UUID> archiveIds =
+        archives.stream().map(Archive::getId).collect(Collectors.toList());
+
+    return Flux.fromIterable(archives)
+        // the shard rows go with their release's row, but their objects must be deleted too
+        .concatMap(
+            archive ->
+                archive.isSharded()
+                    ? archivesRepo.findByParentId(archive.getId()).startWith(archive)
+                    : Flux.just(archive))
+        .collectList()
+        .flatMapMany(this::unusedObjectIds)
+        .buffer(DeleteObjectsByIds.MAX_OBJECTS_PER_REQUEST)
+        .concatMap(deleteObjectsByIds)
+        .then(archivesRepo.deleteAllById(archiveIds))
+        .doOnSuccess(
+            done ->
+                archives.forEach(
+                    archive -> {
+                      log.debug(
+                          "Removed {} archive {} ({})",
+                          archive.getType(),
+                          archive.getId(),
+                          archive.getStatus());
+                      meterRegistry
+                          .counter(
+                              "singularity.archive.retention.removed",
+                              "archiveType",
+                              archive.getType().toString(),
+                              "status",
+                              archive.getStatus().toString())
+                          .increment();
+                    }))
+        .thenReturn(archives.size());
+  }
+}
@@ -7,12 +7,13 @@ import org.cancogenvirusseq.singularity.api.model.ErrorArchive;
 import org.cancogenvirusseq.singularity.api.model.HashResult;
 import org.cancogenvirusseq.singularity.api.model.Summary;
 import org.cancogenvirusseq.singularity.components.notifications.archives.ArchiveNotifier;
+import org.cancogenvirusseq.singularity.components.queue.BuildQueue;
 import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
 import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
 import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
 import org.springframework.stereotype.Component;
-import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import java.time.Instant;
@@ -29,7 +30,7 @@ public class CancelSetArchive implements BiFunction<Collection<String>, Boolean,
 
   private final ArchiveProperties archiveProperties;
 
-  private final AllArchiveBuild allArchiveBuild;
+  private final BuildQueue buildQueue;
 
   private final ArchiveNotifier notifier;
 
@@ -63,6 +64,8 @@ public class CancelSetArchive implements BiFunction<Collection<String>, Boolean,
           .doOnSuccess(savedArchive -> {
               hashResultMap.get(savedArchive.getHash()).setNewStatus(savedArchive.getStatus().toString());
               notifier.notify(savedArchive);
+              // replicas building it are told by the database, this one doesn't wait for that
+              buildQueue.cancelLocalBuild(savedArchive.getId());
           })
           .onErrorResume(err -> {
             errorList.add(new ErrorArchive(a.getHash(), null, err.getMessage()));
@@ -74,11 +77,8 @@ public class CancelSetArchive implements BiFunction<Collection<String>, Boolean,
       .doOnNext(l -> {
           // Kill the existing archive build if this is a force cancel request without passing any hashId
           if(force && hashList.isEmpty()) {
-              Disposable buildAllArchiveDisposable = allArchiveBuild.getBuildAllArchiveDisposable();
-              if(buildAllArchiveDisposable != null && !buildAllArchiveDisposable.isDisposed()){
-                  log.info("Killing existing archive build!");
-                  buildAllArchiveDisposable.dispose();
-              }
+              log.info("Killing existing archive build!");
+              buildQueue.cancelLocalBuilds(archive -> ArchiveType.ALL.equals(archive.getType()));
           }
       })
       .map(al -> new CancelListResponse(
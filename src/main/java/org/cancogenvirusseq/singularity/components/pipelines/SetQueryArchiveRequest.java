@@ -1,18 +1,18 @@
 package org.cancogenvirusseq.singularity.components.pipelines;
 
 import java.util.UUID;
-import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.ArrangerSetResolver;
 import org.cancogenvirusseq.singularity.components.base.CountAndLastUpdatedAggregation;
 import org.cancogenvirusseq.singularity.components.base.GetArrangerSetDocument;
-import org.cancogenvirusseq.singularity.components.events.ArchiveBuildRequestEmitter;
 import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
 import org.cancogenvirusseq.singularity.components.model.ArrangerSetDocument;
 import org.cancogenvirusseq.singularity.components.model.CountAndLastUpdatedResult;
 import org.cancogenvirusseq.singularity.components.model.SetQueryArchiveHashInfo;
+import org.cancogenvirusseq.singularity.components.queue.BuildQueue;
 import org.cancogenvirusseq.singularity.components.utils.ExistingArchiveUtils;
 import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
 import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
@@ -22,8 +22,6 @@ import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
 import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
 import org.elasticsearch.index.query.QueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.indices.TermsLookup;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
@@ -31,7 +29,7 @@ import reactor.core.publisher.Mono;
 @Component
 @RequiredArgsConstructor
 public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
-  private final ArchiveBuildRequestEmitter archiveBuildRequestEmitter;
+  private final BuildQueue buildQueue;
 
   private final ElasticsearchProperties elasticsearchProperties;
   private final ArchivesRepo archivesRepo;
@@ -43,10 +41,6 @@ public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
 
   private final ExistingArchiveUtils existingArchiveUtils;
 
-  // aggregation name constants
-  private static final String TERMS_LOOKUP_FIELD = "_id";
-  private static final String TERMS_LOOKUP_PATH = "ids";
-
   @Override
   public Mono<Archive> apply(UUID setId) {
     return getArrangerSetDocument
@@ -60,7 +54,7 @@ public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
       arrangerSetDocumentToSetQueryHashInfoFunctionForSetId(UUID setId) {
     return arrangerSetDocument ->
         Mono.just(arrangerSetTermsQuery(setId))
-            .flatMap(countAndLastUpdatedAggregation)
+            .flatMap(countAndLastUpdatedAggregation::cached)
             .map(checkSetQueryVsAggregation(arrangerSetDocument))
             .map(
                 countAndLastUpdatedResult ->
@@ -72,10 +66,8 @@ public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
   }
 
   private QueryBuilder arrangerSetTermsQuery(UUID setId) {
-    return QueryBuilders.termsLookupQuery(
-        TERMS_LOOKUP_FIELD,
-        new TermsLookup(
-            elasticsearchProperties.getArrangerSetsIndex(), setId.toString(), TERMS_LOOKUP_PATH));
+    return ArrangerSetResolver.arrangerSetTermsQuery(
+        elasticsearchProperties.getArrangerSetsIndex(), setId);
   }
 
   private UnaryOperator<CountAndLastUpdatedResult> checkSetQueryVsAggregation(
@@ -83,9 +75,9 @@ public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
     return countAndLastUpdatedResult -> {
       if (!arrangerSetDocument
           .getSize()
-          .equals(countAndLastUpdatedResult.getNumDocuments().getValue())) {
+          .equals(countAndLastUpdatedResult.getNumDocuments())) {
         throw new InconsistentSetQueryException(
-            arrangerSetDocument.getSize(), countAndLastUpdatedResult.getNumDocuments().getValue());
+            arrangerSetDocument.getSize(), countAndLastUpdatedResult.getNumDocuments());
       }
 
       return countAndLastUpdatedResult;
@@ -100,10 +92,9 @@ public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
             // why this? because R2DBC does not hydrate fields
             // (https://github.com/spring-projects/spring-data-r2dbc/issues/455)
             .flatMap(archivesRepo::findByArchiveObject)
-            // this onSuccess will only execute when the archive is created and will not be
-            // triggered by
+            // this will only execute when the archive is created and will not be triggered by
             // the onErrorResume
-            .doOnSuccess(triggerBuildArchive(setId))
+            .flatMap(createdArchive -> queueBuildArchive(setId, createdArchive))
             // in the event of an already built archive, return the existing archive
             .onErrorResume(ExistingArchiveRestartException.class,
                 dataViolation ->
@@ -115,10 +106,9 @@ public class SetQueryArchiveRequest implements Function<UUID, Mono<Archive>> {
                         .switchIfEmpty(Mono.error(dataViolation)));
   }
 
-  private Consumer<Archive> triggerBuildArchive(UUID setId) {
-    return createdArchive ->
-        archiveBuildRequestEmitter
-            .getSink()
-            .tryEmitNext(new ArchiveBuildRequest(createdArchive, arrangerSetTermsQuery(setId)));
+  private Mono<Archive> queueBuildArchive(UUID setId, Archive createdArchive) {
+    return buildQueue
+        .enqueue(new ArchiveBuildRequest(createdArchive, arrangerSetTermsQuery(setId)))
+        .thenReturn(createdArchive);
   }
 }
@@ -0,0 +1,96 @@
+package org.cancogenvirusseq.singularity.components.pipelines;
+
+import static java.lang.String.format;
+import static org.cancogenvirusseq.singularity.components.base.ArrangerSetResolver.arrangerSetTermsQuery;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.DownloadMolecularDataToPair;
+import org.cancogenvirusseq.singularity.components.base.ElasticSearchScroll;
+import org.cancogenvirusseq.singularity.components.base.GetArrangerSetDocument;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocumentMolecularDataPair;
+import org.cancogenvirusseq.singularity.components.utils.StreamingTarGzip;
+import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
+import org.cancogenvirusseq.singularity.exceptions.http.SetNotFoundHttpException;
+import org.cancogenvirusseq.singularity.exceptions.http.SetTooLargeToStreamHttpException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Exports a small set query straight into the response instead of building an archive. The tar.gz
+ * is written as the fasta records are downloaded, one fasta entry per sample since the size of a
+ * combined fasta isn't known until every record is in, followed by the metadata of the samples.
+ * Nothing is written to disk or object storage and the download only goes as fast as the client
+ * reads it.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SetQueryStreamingExport implements Function<UUID, Mono<Flux<ByteBuffer>>> {
+  public static final String MOLECULAR_DIRECTORY = "fasta";
+  public static final String METADATA_FILENAME = "metadata.tsv";
+
+  private final GetArrangerSetDocument getArrangerSetDocument;
+  private final ElasticSearchScroll elasticSearchScroll;
+  private final DownloadMolecularDataToPair downloadMolecularDataToPair;
+  private final ElasticsearchProperties elasticsearchProperties;
+  private final ArchiveProperties archiveProperties;
+
+  /** The archive of the set, or an error if the set doesn't exist or is too large to stream */
+  @Override
+  public Mono<Flux<ByteBuffer>> apply(UUID setId) {
+    return getArrangerSetDocument
+        .apply(setId)
+        .switchIfEmpty(Mono.error(new SetNotFoundHttpException()))
+        .flatMap(
+            arrangerSetDocument ->
+                arrangerSetDocument.getSize() > archiveProperties.getStreamingExportMaxSamples()
+                    ? Mono.error(
+                        new SetTooLargeToStreamHttpException(
+                            arrangerSetDocument.getSize(),
+                            archiveProperties.getStreamingExportMaxSamples()))
+                    : Mono.just(streamArchive(setId)));
+  }
+
+  private Flux<ByteBuffer> streamArchive(UUID setId) {
+    return Flux.using(
+        StreamingTarGzip::new,
+        tarGzip -> {
+          final ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+          metadata.writeBytes(TsvUtils.getHeader());
+          return elasticSearchScroll
+              .apply(arrangerSetTermsQuery(elasticsearchProperties.getArrangerSetsIndex(), setId))
+              .transform(downloadMolecularDataToPair)
+              // pairs arrive one at a time, so the entries are written in order
+              .map(
+                  pair -> {
+                    metadata.writeBytes(
+                        TsvUtils.analysisDocumentToTsvRowBytes(pair.getAnalysisDocument()));
+                    return tarGzip.putEntry(molecularFilename(pair), pair.getMolecularData());
+                  })
+              .concatWith(
+                  Mono.fromCallable(
+                      () -> tarGzip.putEntry(METADATA_FILENAME, metadata.toByteArray())))
+              .concatWith(Mono.fromCallable(tarGzip::finish))
+              .filter(ByteBuffer::hasRemaining);
+        },
+        StreamingTarGzip::close)
+        .doOnError(
+            throwable ->
+                log.error(
+                    "Streaming export of set {} failed: {}", setId, throwable.getLocalizedMessage()))
+        .log("SetQueryStreamingExport");
+  }
+
+  private static String molecularFilename(AnalysisDocumentMolecularDataPair pair) {
+    return format(
+        "%s/%s.fasta", MOLECULAR_DIRECTORY, pair.getAnalysisDocument().getObjectId().asText());
+  }
+}
@@ -1,32 +1,39 @@
 package org.cancogenvirusseq.singularity.components.pipelines;
 
 import static org.cancogenvirusseq.singularity.components.model.AnalysisDocument.LAST_UPDATED_AT_FIELD;
-import static org.cancogenvirusseq.singularity.components.utils.ConverterUtils.convertBytesToHumanReadable;
 
+import com.google.common.collect.Lists;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.cancogenvirusseq.singularity.components.base.CountAndLastUpdatedAggregation;
+import org.cancogenvirusseq.singularity.components.events.ChangeSetEmitter;
 import org.cancogenvirusseq.singularity.components.events.EventEmitter;
+import org.cancogenvirusseq.singularity.components.leader.LeaderElection;
+import org.cancogenvirusseq.singularity.components.model.AnalysisChangeSet;
 import org.cancogenvirusseq.singularity.components.model.TotalCounts;
+import org.cancogenvirusseq.singularity.components.model.TotalCountsLedger;
 import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
 import org.cancogenvirusseq.singularity.repository.TotalCountsRepo;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.aggregations.Aggregation;
-import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
-import org.elasticsearch.search.aggregations.metrics.ParsedStats;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.elasticsearch.client.reactive.ReactiveElasticsearchClient;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
@@ -37,32 +44,45 @@ import reactor.core.publisher.Mono;
 @Component
 @RequiredArgsConstructor
 public class TotalCountsPipeline {
-  private static final Integer MAX_AGGREGATE_BUCKETS = 1000;
   private static final Integer SIZE = 10000;
   private static final String FIELD_DONORS = "donors";
   private static final String FIELD_SUBMITTER_DONOR_ID = "submitter_donor_id";
   private static final String FIELD_STUDY_ID = "study_id";
-  private static final String FIELD_FILE_SIZE = "file.size";
+  private static final String FIELD_FILE = "file";
+  private static final String FIELD_SIZE = "size";
+  private static final String FIELD_ANALYSIS = "analysis";
+  private static final String FIELD_ID = "analysis_id";
+  private static final String FIELD_ANALYSIS_ID = FIELD_ANALYSIS + "." + FIELD_ID;
 
-  private static final String[] ES_INCLUDE = {FIELD_DONORS + "." + FIELD_SUBMITTER_DONOR_ID};
+  private static final String[] ES_INCLUDE = {
+    FIELD_DONORS + "." + FIELD_SUBMITTER_DONOR_ID,
+    FIELD_STUDY_ID,
+    FIELD_FILE + "." + FIELD_SIZE,
+    FIELD_ANALYSIS_ID
+  };
 
   private final ElasticsearchProperties properties;
   private final ReactiveElasticsearchClient client;
   private final EventEmitter<Instant> eventEmitter;
+  // present when events tell which analyses changed
+  private final Optional<ChangeSetEmitter> changeSetEmitter;
+  private final LeaderElection leaderElection;
 
   private final TotalCountsRepo totalCountsRepo;
+  private final CountAndLastUpdatedAggregation countAndLastUpdatedAggregation;
+
+  // spreads the recalculation of stale counts by replicas starting together (ex. rolling deploys)
+  @Value("${totalCounts.startupJitterMs:30000}")
+  private Long startupJitterMs;
 
   @Getter private Disposable pipelineDisposable;
-  private Disposable calculatorDisposable;
+  // counts per analysis while leader, only ever updated by one update at a time
+  private volatile TotalCountsLedger ledger;
 
   @PostConstruct
   public void init() {
-    log.info("CachedTotalCounts is empty - Calculating");
-
-    // create calculator disposable on start up to fetch and count things
-    calculatorDisposable = createCalculatorDisposable(Instant.now());
-
-    // totalCountsDisposable will update total count on events received
+    // totalCountsDisposable will update total count on events received, counts are only calculated
+    // by the leader and every replica reads them from the database
     pipelineDisposable = createTotalCountsPipelineDisposable();
   }
 
@@ -81,109 +101,196 @@ public class TotalCountsPipeline {
   }
 
   private Disposable createTotalCountsPipelineDisposable() {
-    return eventEmitter
-        .receive()
-        .doOnNext(
-            instant -> {
-              log.info("totalCountsDisposable received instant: {}", instant);
-
-              if (!calculatorDisposable.isDisposed()) {
-                log.info("Killing previous calculator disposable!");
-                this.calculatorDisposable.dispose();
-              }
-
-              log.info("Spawning new calculator disposable...");
-              this.calculatorDisposable = createCalculatorDisposable(instant);
+    return leaderElection
+        // on becoming the leader the persisted counts are recalculated only if the index changed
+        // since, then counts are updated on every event
+        .whileLeader(
+            () -> {
+              // another leader may have updated the counts since this one last kept a ledger
+              ledger = null;
+              return Flux.merge(
+                  recalculationTriggers().map(this::recalculate),
+                  changeSets().map(this::applyChangeSet));
             })
+        // one update at a time, a change-set received during a recalculation is applied after it
+        .concatMap(
+            update ->
+                update
+                    .flatMap(this::updateTotalCount)
+                    .doOnNext(tc -> log.info("CachedTotalCounts calculated - " + tc.toString()))
+                    .onErrorResume(
+                        throwable -> {
+                          log.error("totalCounts update failed: {}", throwable.getMessage());
+                          ledger = null;
+                          return Mono.empty();
+                        }))
         .subscribe();
   }
 
-  private Disposable createCalculatorDisposable(Instant instant) {
-    log.info("starting totalCounts:");
-    return createBuilderWithStudiesAndFilesCount()
-        .flatMap(
-            totalCountsBuilder ->
-                countUniqueGenomes().map(count -> totalCountsBuilder.samples(count.longValue())))
-        .map(totalCountsBuilder -> totalCountsBuilder.timestamp(instant.toEpochMilli()))
-        .map(TotalCounts.TotalCountsBuilder::build)
-        .flatMap(this::updateTotalCount)
-        .subscribe(tc -> log.info("CachedTotalCounts calculated - " + tc.toString()));
+  private Flux<Instant> recalculationTriggers() {
+    // with change-sets, events update the counts of the analyses that changed instead
+    return changeSetEmitter.isPresent()
+        ? staleCountsRecalculation().flux()
+        : eventEmitter.receive().mergeWith(staleCountsRecalculation());
   }
 
-  private Mono<TotalCounts.TotalCountsBuilder> createBuilderWithStudiesAndFilesCount() {
-    val STUDIES_AGG_NAME = "studies";
-    val FILES_AGG_NAME = "files";
-    val source =
-        new SearchSourceBuilder()
-            .aggregation(
-                AggregationBuilders.terms(STUDIES_AGG_NAME)
-                    .field(FIELD_STUDY_ID)
-                    .size(MAX_AGGREGATE_BUCKETS))
-            .aggregation(AggregationBuilders.stats(FILES_AGG_NAME).field(FIELD_FILE_SIZE))
-            .fetchSource(false);
+  private Flux<AnalysisChangeSet> changeSets() {
+    return changeSetEmitter
+        .map(emitter -> emitter.receiveChangeSets().onBackpressureBuffer())
+        .orElse(Flux.empty());
+  }
 
-    return client
-        .aggregate(new SearchRequest().indices(properties.getFileCentricIndex()).source(source))
-        .collectMap(Aggregation::getName)
-        .map(
-            aggLookUp -> {
-              val builder = TotalCounts.builder();
-              if (aggLookUp.containsKey(STUDIES_AGG_NAME)) {
-                val agg = (ParsedStringTerms) aggLookUp.get(STUDIES_AGG_NAME);
-                builder.studies(agg.getBuckets().size());
-              }
-              if (aggLookUp.containsKey(FILES_AGG_NAME)) {
-                val agg = (ParsedStats) aggLookUp.get(FILES_AGG_NAME);
-                builder.files(agg.getCount());
-                Double sum = agg.getSum();
-                // sum is a whole number because we index in bytes so longValue will have no data
-                // loss
-                builder.fileSizeBytes(sum.longValue());
-                builder.fileSizeHumanReadable(convertBytesToHumanReadable(sum.longValue()));
-              }
-              return builder;
+  private Mono<Instant> staleCountsRecalculation() {
+    return Mono.delay(Duration.ofMillis(ThreadLocalRandom.current().nextLong(startupJitterMs + 1)))
+        .then(persistedCountsAreStale())
+        .filter(Boolean::booleanValue)
+        .map(stale -> Instant.now());
+  }
+
+  private Mono<Boolean> persistedCountsAreStale() {
+    return totalCountsRepo
+        .findTopByOrderByTimestampDesc()
+        .flatMap(
+            persisted ->
+                countAndLastUpdatedAggregation
+                    .apply(QueryBuilders.matchAllQuery())
+                    .map(result -> result.getLastUpdatedDate().getValue())
+                    // an empty index has no latest update and nothing to recount
+                    .filter(Double::isFinite)
+                    .map(lastUpdatedAt -> persisted.getTimestamp() < lastUpdatedAt.longValue())
+                    .defaultIfEmpty(false)
+                    .doOnNext(
+                        stale ->
+                            log.info(
+                                "Persisted totalCounts as of {} are {}",
+                                Instant.ofEpochMilli(persisted.getTimestamp()),
+                                stale ? "stale, recalculating" : "up to date")))
+        .defaultIfEmpty(true)
+        .onErrorResume(
+            throwable -> {
+              log.warn("Couldn't check persisted totalCounts: {}", throwable.getMessage());
+              return Mono.just(true);
             });
   }
 
-  private Mono<Integer> countUniqueGenomes() {
+  /** Counts every document of the index into a new ledger */
+  private Mono<TotalCounts> recalculate(Instant instant) {
+    return Mono.defer(
+        () -> {
+          log.info("starting totalCounts: {}", instant);
+          final TotalCountsLedger recalculated = new TotalCountsLedger();
+          return scrollFileCounts(QueryBuilders.rangeQuery(LAST_UPDATED_AT_FIELD).to(instant))
+              .collectMultimap(TotalCountsLedger.FileCounts::getAnalysisId)
+              .map(
+                  documentsByAnalysisId -> {
+                    documentsByAnalysisId.forEach(
+                        (analysisId, documents) ->
+                            recalculated.put(analysisId, List.copyOf(documents)));
+                    ledger = recalculated;
+                    return recalculated.toTotalCounts(instant);
+                  });
+        });
+  }
+
+  /**
+   * Updates the ledger with the current documents of the analyses that changed. The whole index is
+   * recounted instead when there is no ledger yet, when some messages couldn't be read, or when the
+   * index doesn't agree with the messages (ex. an added analysis that isn't indexed yet) as the
+   * counts would then miss the change once it reaches the index.
+   */
+  private Mono<TotalCounts> applyChangeSet(AnalysisChangeSet changeSet) {
+    return Mono.defer(
+        () -> {
+          final Instant instant = Instant.now();
+          if (ledger == null || !changeSet.isComplete()) {
+            log.info("Recounting totalCounts for {}, no ledger or unreadable messages", changeSet);
+            return recalculate(instant);
+          }
+
+          return Flux.fromIterable(Lists.partition(List.copyOf(changeSet.getAnalysisIds()), SIZE))
+              .concatMap(
+                  analysisIds ->
+                      scrollFileCounts(QueryBuilders.termsQuery(FIELD_ANALYSIS_ID, analysisIds)))
+              .collectMultimap(TotalCountsLedger.FileCounts::getAnalysisId)
+              .flatMap(
+                  documentsByAnalysisId -> {
+                    if (!indexAgreesWith(changeSet, documentsByAnalysisId.keySet())) {
+                      log.info(
+                          "Recounting totalCounts, the index is out of step with {}", changeSet);
+                      return recalculate(instant);
+                    }
+
+                    log.info("Updating totalCounts with {}", changeSet);
+                    changeSet
+                        .getAnalysisIds()
+                        .forEach(
+                            analysisId ->
+                                ledger.put(
+                                    analysisId,
+                                    List.copyOf(
+                                        documentsByAnalysisId.getOrDefault(
+                                            analysisId, List.of()))));
+                    return Mono.just(ledger.toTotalCounts(instant));
+                  });
+        });
+  }
+
+  private static boolean indexAgreesWith(
+      AnalysisChangeSet changeSet, Set<String> indexedAnalysisIds) {
+    return indexedAnalysisIds.containsAll(changeSet.getAdded())
+        && indexedAnalysisIds.containsAll(changeSet.getUpdated())
+        && changeSet.getSuppressed().stream().noneMatch(indexedAnalysisIds::contains);
+  }
+
+  private Flux<TotalCountsLedger.FileCounts> scrollFileCounts(QueryBuilder query) {
     return client
         .scroll(
             new SearchRequest()
                 .indices(properties.getFileCentricIndex())
                 .source(
                     new SearchSourceBuilder()
-                        .query(QueryBuilders.rangeQuery(LAST_UPDATED_AT_FIELD).to(Instant.now()))
+                        .query(query)
                         .size(SIZE)
                         .fetchSource(ES_INCLUDE, null))
                 .scroll(new TimeValue(properties.getScrollTimeoutMinutes(), TimeUnit.MINUTES)))
-        .flatMap(this::extractSubmitterDonorIdsFromSearchHit)
-        // genomes are currently in 100,000s range and Integer max is ~2billion;
-        .reduce(
-            new HashSet<String>(),
-            (hashSet, id) -> {
-              hashSet.add(id);
-              return hashSet;
-            })
-        .map(HashSet::size);
+        .map(this::searchHitToFileCounts);
+  }
+
+  private TotalCountsLedger.FileCounts searchHitToFileCounts(SearchHit searchHit) {
+    final Map<String, Object> source = searchHit.getSourceAsMap();
+    final Object fileSize = nested(source, FIELD_FILE).get(FIELD_SIZE);
+    return new TotalCountsLedger.FileCounts(
+        // documents are counted by their own id if they somehow have no analysis
+        Optional.ofNullable(nested(source, FIELD_ANALYSIS).get(FIELD_ID))
+            .map(Object::toString)
+            .orElse(searchHit.getId()),
+        Optional.ofNullable(source.get(FIELD_STUDY_ID)).map(Object::toString).orElse(null),
+        fileSize instanceof Number ? ((Number) fileSize).longValue() : null,
+        extractSubmitterDonorIds(source));
   }
 
-  private Flux<String> extractSubmitterDonorIdsFromSearchHit(SearchHit searchHit) {
-    Map<String, Object> source = searchHit.getSourceAsMap();
+  private static Map<String, Object> nested(Map<String, Object> source, String field) {
+    return source.get(field) instanceof Map
+        ? (Map<String, Object>) source.get(field)
+        : Map.of();
+  }
+
+  private List<String> extractSubmitterDonorIds(Map<String, Object> source) {
     if (source.get(FIELD_DONORS) instanceof List) {
       List<Object> donors = (List<Object>) source.getOrDefault(FIELD_DONORS, new ArrayList<>());
-      return Flux.fromStream(
-          donors.stream()
-              .map(
-                  d -> {
-                    if (d instanceof Map) {
-                      val castedD = (Map<String, Object>) d;
-                      return castedD.getOrDefault(FIELD_SUBMITTER_DONOR_ID, "").toString();
-                    }
-                    return "";
-                  })
-              .filter(id -> !id.isEmpty()));
+      return donors.stream()
+          .map(
+              d -> {
+                if (d instanceof Map) {
+                  val castedD = (Map<String, Object>) d;
+                  return castedD.getOrDefault(FIELD_SUBMITTER_DONOR_ID, "").toString();
+                }
+                return "";
+              })
+          .filter(id -> !id.isEmpty())
+          .collect(Collectors.toList());
     }
-    return Flux.empty();
+    return List.of();
   }
 
   private Mono<TotalCounts> updateTotalCount(TotalCounts totalCounts){
@@ -197,7 +304,17 @@ public class TotalCountsPipeline {
             log.info("Updating database with totalCounts");
             return totalCountsRepo.save(totalCounts);
           } else {
-            return Mono.just(o);
+            // the counts are unchanged as of this instant, which spares the next leader a recount
+            return totalCountsRepo.save(
+                TotalCounts.builder()
+                    .id(o.getId())
+                    .files(o.getFiles())
+                    .samples(o.getSamples())
+                    .studies(o.getStudies())
+                    .fileSizeBytes(o.getFileSizeBytes())
+                    .fileSizeHumanReadable(o.getFileSizeHumanReadable())
+                    .timestamp(totalCounts.getTimestamp())
+                    .build());
           }
         }).switchIfEmpty(totalCountsRepo.save(totalCounts));
   }
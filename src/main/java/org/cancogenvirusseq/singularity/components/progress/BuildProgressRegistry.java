@@ -0,0 +1,54 @@
+package org.cancogenvirusseq.singularity.components.progress;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.model.BuildProgress;
+import org.cancogenvirusseq.singularity.components.model.BuildStage;
+import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/** In-memory registry of the progress of the archive builds running on this instance. */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BuildProgressRegistry {
+  private final ArchiveProperties archiveProperties;
+
+  private final Map<UUID, BuildProgressTracker> trackers = new ConcurrentHashMap<>();
+
+  public BuildProgressTracker start(Archive archive) {
+    final BuildProgressTracker tracker =
+        new BuildProgressTracker(
+            archive, Duration.ofMillis(archiveProperties.getProgressIntervalMs()));
+    trackers.put(archive.getId(), tracker);
+    return tracker;
+  }
+
+  public void finish(Archive archive, BuildProgressTracker tracker, BuildStage finalStage) {
+    tracker.stage(finalStage);
+    // watchers keep their reference to the tracker's publisher and receive the final stage
+    trackers.remove(archive.getId(), tracker);
+    log.debug("Build of archive {} finished as {}", archive.getId(), finalStage);
+  }
+
+  public Optional<BuildProgress> getProgress(UUID archiveId) {
+    return Optional.ofNullable(trackers.get(archiveId)).map(BuildProgressTracker::snapshot);
+  }
+
+  /**
+   * Progress updates for a running build, shared by all watchers of that build. Empty when the
+   * archive is not being built on this instance.
+   */
+  public Flux<BuildProgress> watch(UUID archiveId) {
+    return Optional.ofNullable(trackers.get(archiveId))
+        .map(BuildProgressTracker::getUpdates)
+        .orElse(Flux.empty());
+  }
+}
@@ -0,0 +1,97 @@
+package org.cancogenvirusseq.singularity.components.progress;
+
+import static org.cancogenvirusseq.singularity.components.model.FileBundle.archiveFilenameFromArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import org.cancogenvirusseq.singularity.components.model.BuildProgress;
+import org.cancogenvirusseq.singularity.components.model.BuildStage;
+import org.cancogenvirusseq.singularity.components.utils.ScratchSpace;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import reactor.core.publisher.Flux;
+
+/**
+ * Mutable progress of a single archive build. The build pipeline records into it as it goes and a
+ * single shared publisher samples it on an interval, so watchers never add work to the build.
+ */
+public class BuildProgressTracker {
+  private final Archive archive;
+  private final Instant startedAt = Instant.now();
+  private final Path archivePath;
+
+  private final AtomicLong documentsProcessed = new AtomicLong();
+  private final AtomicLong bytesDownloaded = new AtomicLong();
+  private final AtomicLong bytesCompressed = new AtomicLong();
+  private volatile BuildStage stage = BuildStage.DOWNLOADING;
+
+  @Getter private final Flux<BuildProgress> updates;
+
+  BuildProgressTracker(Archive archive, Duration updateInterval) {
+    this.archive = archive;
+    this.archivePath =
+        ScratchSpace.directoryFor(archive).resolve(archiveFilenameFromArchive(archive));
+    this.updates =
+        Flux.interval(Duration.ZERO, updateInterval)
+            .map(tick -> snapshot())
+            .distinctUntilChanged()
+            .takeUntil(progress -> progress.getStage().isFinished())
+            .replay(1)
+            .refCount();
+  }
+
+  public void documentDownloaded(long bytes) {
+    documentsProcessed.incrementAndGet();
+    bytesDownloaded.addAndGet(bytes);
+  }
+
+  public void stage(BuildStage stage) {
+    if (BuildStage.UPLOADING.equals(stage)) {
+      // compression is done, record its final size
+      bytesCompressed.set(archiveFileSize());
+    }
+    this.stage = stage;
+  }
+
+  public long getDocumentsProcessed() {
+    return documentsProcessed.get();
+  }
+
+  public BuildProgress snapshot() {
+    final BuildStage currentStage = stage;
+    return BuildProgress.builder()
+        .archiveId(archive.getId())
+        .stage(currentStage)
+        .documentsProcessed(documentsProcessed.get())
+        .numOfSamples(archive.getNumOfSamples())
+        .bytesDownloaded(bytesDownloaded.get())
+        .bytesCompressed(
+            // the archive is written to disk while compressing so its size is the progress
+            BuildStage.COMPRESSING.equals(currentStage) ? archiveFileSize() : bytesCompressed.get())
+        .startedAt(startedAt.getEpochSecond())
+        .etaSeconds(BuildStage.DOWNLOADING.equals(currentStage) ? downloadEtaSeconds() : null)
+        .build();
+  }
+
+  private Long downloadEtaSeconds() {
+    final long processed = documentsProcessed.get();
+    if (processed == 0) {
+      return null;
+    }
+    final long elapsedMillis = Duration.between(startedAt, Instant.now()).toMillis();
+    final long remaining = Math.max(archive.getNumOfSamples() - processed, 0);
+    return elapsedMillis * remaining / processed / 1000;
+  }
+
+  private long archiveFileSize() {
+    try {
+      return Files.size(archivePath);
+    } catch (IOException e) {
+      return bytesCompressed.get();
+    }
+  }
+}
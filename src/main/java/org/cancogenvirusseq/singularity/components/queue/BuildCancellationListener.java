@@ -0,0 +1,95 @@
+package org.cancogenvirusseq.singularity.components.queue;
+
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.config.archive.BuildQueueProperties;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Stops builds running on this replica as soon as their archive is cancelled, wherever the cancel
+ * request was served. The database notifies every listening replica when an archive's status
+ * becomes CANCELLED, without it a cancelled build would only notice once it is done downloading
+ * and about to upload.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BuildCancellationListener {
+  static final String CHANNEL = "archive_cancelled";
+
+  private final PostgresqlConnectionFactory psqlConnectionFactory;
+  private final BuildQueue buildQueue;
+  private final BuildQueueProperties properties;
+
+  private Disposable listenerDisposable;
+
+  @PostConstruct
+  public void init() {
+    if (!properties.getListenForCancellations()) {
+      return;
+    }
+
+    listenerDisposable =
+        // notifications need a connection of their own, outside the pool, for as long as we listen
+        Flux.usingWhen(psqlConnectionFactory.create(), this::listen, PostgresqlConnection::close)
+            // the connection going away ends the notifications, listen again on a new one
+            .concatWith(Mono.error(new IllegalStateException("listening connection closed")))
+            .retryWhen(
+                Retry.backoff(
+                        Long.MAX_VALUE, Duration.ofMillis(properties.getListenRetryDelayMs()))
+                    .maxBackoff(Duration.ofMinutes(1))
+                    .transientErrors(true)
+                    .doBeforeRetry(
+                        retrySignal ->
+                            log.warn(
+                                "Listening for cancelled archives failed: {}",
+                                retrySignal.failure().getMessage())))
+            .subscribe(this::cancel);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (listenerDisposable != null) {
+      listenerDisposable.dispose();
+    }
+  }
+
+  private Flux<Notification> listen(PostgresqlConnection connection) {
+    return connection
+        .createStatement("LISTEN " + CHANNEL)
+        .execute()
+        .flatMap(PostgresqlResult::getRowsUpdated)
+        .doOnComplete(() -> log.info("Listening for cancelled archives"))
+        .thenMany(connection.getNotifications());
+  }
+
+  private void cancel(Notification notification) {
+    parseArchiveId(notification.getParameter())
+        .ifPresentOrElse(
+            buildQueue::cancelLocalBuild,
+            () ->
+                log.warn(
+                    "Ignoring cancellation of unknown archive '{}'", notification.getParameter()));
+  }
+
+  private static Optional<UUID> parseArchiveId(String parameter) {
+    try {
+      return Optional.of(UUID.fromString(parameter));
+    } catch (IllegalArgumentException | NullPointerException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package org.cancogenvirusseq.singularity.components.queue;
+
+import static java.lang.String.format;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.ElasticSearchFileSize;
+import org.cancogenvirusseq.singularity.components.hoc.ArchiveBuildRequestToArchive;
+import org.cancogenvirusseq.singularity.components.hoc.ArchiveBuildRequestToShardedArchive;
+import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.components.notifications.archives.ArchiveNotifier;
+import org.cancogenvirusseq.singularity.components.utils.InstanceUtils;
+import org.cancogenvirusseq.singularity.components.utils.ScratchSpace;
+import org.cancogenvirusseq.singularity.config.archive.BuildQueueProperties;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.BuildQueueRepo;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.cancogenvirusseq.singularity.repository.model.BuildQueueEntry;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * Durable queue of archive builds shared by every replica. Builds are enqueued in Postgres and any
+ * replica with a free worker claims the oldest one. A claim is a lease that the building replica
+ * keeps renewing, so the builds of a replica that dies are claimed again once their leases expire.
+ */
+@Slf4j
+@Component
+public class BuildQueue {
+  /**
+   * Context key of a flag set on a build once its replica lost the claim on it, its archive is
+   * then being built by another replica and must not be cancelled as the build stops here
+   */
+  public static final String CLAIM_LOST = "buildQueueClaimLost";
+
+  private final BuildQueueRepo buildQueueRepo;
+  private final ArchivesRepo archivesRepo;
+  private final BuildQueueProperties properties;
+  private final ArchiveBuildRequestToArchive archiveBuildRequestToArchive;
+  private final ArchiveBuildRequestToShardedArchive archiveBuildRequestToShardedArchive;
+  private final ArchiveNotifier notifier;
+  private final ElasticSearchFileSize elasticSearchFileSize;
+
+  @Getter private final String instanceId;
+
+  // entries claimed by this replica, including builds that have not started yet
+  private final AtomicInteger claimed;
+  private final Map<UUID, RunningBuild> running = new ConcurrentHashMap<>();
+  private final AtomicLong queueDepth;
+  // claims put back because there was no scratch space for them
+  private final Counter deferred;
+
+  @Getter private Disposable workerDisposable;
+
+  public BuildQueue(
+      BuildQueueRepo buildQueueRepo,
+      ArchivesRepo archivesRepo,
+      BuildQueueProperties properties,
+      ArchiveBuildRequestToArchive archiveBuildRequestToArchive,
+      ArchiveBuildRequestToShardedArchive archiveBuildRequestToShardedArchive,
+      ArchiveNotifier notifier,
+      ElasticSearchFileSize elasticSearchFileSize,
+      MeterRegistry meterRegistry) {
+    this.buildQueueRepo = buildQueueRepo;
+    this.archivesRepo = archivesRepo;
+    this.properties = properties;
+    this.archiveBuildRequestToArchive = archiveBuildRequestToArchive;
+    this.archiveBuildRequestToShardedArchive = archiveBuildRequestToShardedArchive;
+    this.notifier = notifier;
+    this.elasticSearchFileSize = elasticSearchFileSize;
+    this.instanceId = InstanceUtils.newInstanceId();
+    this.claimed = meterRegistry.gauge("singularity.archive.build.queue.claimed", new AtomicInteger());
+    this.queueDepth =
+        meterRegistry.gauge("singularity.archive.build.queue.depth", new AtomicLong());
+    this.deferred = meterRegistry.counter("singularity.archive.build.queue.deferred");
+    meterRegistry.gauge(
+        "singularity.archive.scratch.reserved", this, queue -> ScratchSpace.getReservedBytes());
+  }
+
+  @PostConstruct
+  public void init() {
+    log.info("Build queue worker {} started with {} workers", instanceId, properties.getWorkers());
+    workerDisposable =
+        Flux.interval(Duration.ZERO, Duration.ofMillis(properties.getPollIntervalMs()))
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    claimAvailable()
+                        .then(buildQueueRepo.count())
+                        .doOnNext(queueDepth::set)
+                        .onErrorResume(
+                            throwable -> {
+                              log.warn("Build queue poll failed: {}", throwable.getMessage());
+                              return Mono.empty();
+                            }))
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    // stop claiming, builds still running here are claimed again once their leases expire
+    if (workerDisposable != null) {
+      workerDisposable.dispose();
+    }
+  }
+
+  public Mono<ArchiveBuildRequest> enqueue(ArchiveBuildRequest archiveBuildRequest) {
+    return buildQueueRepo
+        .enqueue(
+            archiveBuildRequest.getArchive().getId(),
+            archiveBuildRequest.getQueryBuilder().toString())
+        .doOnSuccess(
+            updated ->
+                log.debug("Archive {} queued for build", archiveBuildRequest.getArchive().getId()))
+        .thenReturn(archiveBuildRequest);
+  }
+
+  /** Cancels builds running on this replica whose archive matches the predicate */
+  public void cancelLocalBuilds(Predicate<Archive> predicate) {
+    running.values().stream()
+        .filter(runningBuild -> predicate.test(runningBuild.getArchive()))
+        .forEach(
+            runningBuild -> {
+              log.info("Cancelling build of archive {}", runningBuild.getArchive().getId());
+              runningBuild.getDisposable().dispose();
+            });
+  }
+
+  /**
+   * Cancels the build of an archive if it is running on this replica. Disposing the build aborts
+   * its downloads and upload, and releasing its scratch space and deleting its bundle happen as it
+   * terminates.
+   */
+  public boolean cancelLocalBuild(UUID archiveId) {
+    return Optional.ofNullable(running.get(archiveId))
+        .map(
+            runningBuild -> {
+              log.info("Cancelling build of archive {}", archiveId);
+              runningBuild.getDisposable().dispose();
+              return true;
+            })
+        .orElse(false);
+  }
+
+  private Flux<BuildQueueEntry> claimAvailable() {
+    // keep claiming while there are free workers, queued builds and scratch space to build them in
+    return claimAndAdmit().expand(entry -> claimAndAdmit()).doOnNext(this::startClaimedBuild);
+  }
+
+  private Mono<BuildQueueEntry> claimAndAdmit() {
+    return claimNext().flatMap(this::admit);
+  }
+
+  /**
+   * Reserves scratch space for a claimed build from the size of the files it will download. A
+   * build that doesn't fit is put back in the queue to wait for running builds to free up space,
+   * which also stops this poll from claiming anything else.
+   */
+  private Mono<BuildQueueEntry> admit(BuildQueueEntry entry) {
+    return elasticSearchFileSize
+        .apply(QueryBuilders.wrapperQuery(entry.getQuery()))
+        .map(ScratchSpace::estimateBuildBytes)
+        .flatMap(
+            bytes ->
+                ScratchSpace.reserve(entry.getArchiveId(), bytes).isPresent()
+                    ? Mono.just(entry)
+                    : unclaim(entry, format("%d bytes of scratch space unavailable", bytes)))
+        .onErrorResume(
+            throwable -> unclaim(entry, format("size estimate failed, %s", throwable.getMessage())));
+  }
+
+  private Mono<BuildQueueEntry> unclaim(BuildQueueEntry entry, String reason) {
+    log.info("Build of archive {} deferred: {}", entry.getArchiveId(), reason);
+    deferred.increment();
+    return buildQueueRepo
+        .unclaim(entry.getArchiveId(), instanceId)
+        .doFinally(signalType -> claimed.decrementAndGet())
+        .then(Mono.empty());
+  }
+
+  private Mono<BuildQueueEntry> claimNext() {
+    return Mono.defer(
+        () ->
+            claimed.get() < properties.getWorkers()
+                ? buildQueueRepo
+                    .claimNext(instanceId, leaseExpiresAt(), now())
+                    .doOnNext(
+                        entry -> {
+                          claimed.incrementAndGet();
+                          log.info(
+                              "Claimed build of archive {} (attempt {})",
+                              entry.getArchiveId(),
+                              entry.getAttempts());
+                        })
+                : Mono.empty());
+  }
+
+  private void startClaimedBuild(BuildQueueEntry entry) {
+    final Disposable.Swap disposable = Disposables.swap();
+    final Disposable heartbeat = heartbeat(entry);
+
+    disposable.update(
+        archivesRepo
+            .findById(entry.getArchiveId())
+            // cancelled or otherwise finished since it was queued
+            .filter(archive -> ArchiveStatus.BUILDING.equals(archive.getStatus()))
+            .flatMapMany(
+                archive -> {
+                  final RunningBuild runningBuild = new RunningBuild(archive, disposable);
+                  running.put(archive.getId(), runningBuild);
+                  return (entry.getAttempts() > properties.getMaxAttempts()
+                          ? failArchive(archive, entry).flux()
+                          : build(archive, entry))
+                      .contextWrite(Context.of(CLAIM_LOST, runningBuild.getClaimLost()));
+                })
+            .doFinally(
+                signalType -> {
+                  heartbeat.dispose();
+                  ScratchSpace.release(entry.getArchiveId());
+                  running.remove(entry.getArchiveId());
+                  claimed.decrementAndGet();
+                  buildQueueRepo.release(entry.getArchiveId(), instanceId).subscribe();
+                })
+            .subscribe(
+                archive -> {},
+                throwable ->
+                    log.error(
+                        "Build of archive {} failed: {}",
+                        entry.getArchiveId(),
+                        throwable.getLocalizedMessage())));
+  }
+
+  private Flux<Archive> build(Archive archive, BuildQueueEntry entry) {
+    final ArchiveBuildRequest archiveBuildRequest =
+        new ArchiveBuildRequest(archive, QueryBuilders.wrapperQuery(entry.getQuery()));
+    return archive.isSharded()
+        ? archiveBuildRequestToShardedArchive.apply(archiveBuildRequest)
+        : archiveBuildRequestToArchive.apply(archiveBuildRequest);
+  }
+
+  private Mono<Archive> failArchive(Archive archive, BuildQueueEntry entry) {
+    log.error(
+        "Archive {} was claimed {} times without being built, marking it as failed",
+        archive.getId(),
+        entry.getAttempts() - 1);
+    archive.setStatus(ArchiveStatus.FAILED);
+    notifier.notify(archive);
+    return archivesRepo.save(archive);
+  }
+
+  private Disposable heartbeat(BuildQueueEntry entry) {
+    return Flux.interval(Duration.ofMillis(properties.getHeartbeatIntervalMs()))
+        .concatMap(
+            tick ->
+                buildQueueRepo
+                    .heartbeat(entry.getArchiveId(), instanceId, leaseExpiresAt(), now())
+                    .onErrorResume(
+                        throwable -> {
+                          log.warn(
+                              "Heartbeat for archive {} failed: {}",
+                              entry.getArchiveId(),
+                              throwable.getMessage());
+                          return Mono.just(1);
+                        }))
+        .filter(updated -> updated == 0)
+        .take(1)
+        // another replica now owns the build, this one stops building the same archive, which
+        // releases its scratch space and deletes its bundle, without cancelling the archive
+        .subscribe(
+            updated -> {
+              log.warn(
+                  "Lost the claim on archive {}, its lease expired before it was renewed",
+                  entry.getArchiveId());
+              Optional.ofNullable(running.get(entry.getArchiveId()))
+                  .ifPresent(runningBuild -> runningBuild.getClaimLost().set(true));
+              cancelLocalBuild(entry.getArchiveId());
+            });
+  }
+
+  private long leaseExpiresAt() {
+    return Instant.now().plusSeconds(properties.getLeaseSeconds()).getEpochSecond();
+  }
+
+  private static long now() {
+    return Instant.now().getEpochSecond();
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  private static class RunningBuild {
+    private final Archive archive;
+    private final Disposable disposable;
+    private final AtomicBoolean claimLost = new AtomicBoolean();
+  }
+}
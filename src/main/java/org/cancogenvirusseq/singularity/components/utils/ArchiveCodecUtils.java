@@ -0,0 +1,49 @@
+package org.cancogenvirusseq.singularity.components.utils;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ArchiveCodecUtils {
+
+  private static int ZSTD_LEVEL = 3;
+  private static int ZSTD_WORKERS = 0;
+  private static int ZSTD_WINDOW_LOG = 27;
+
+  @Value("${archive.zstd.level:3}")
+  public void setZstdLevel(int level) {
+    ZSTD_LEVEL = level;
+  }
+
+  @Value("${archive.zstd.workers:0}")
+  public void setZstdWorkers(int workers) {
+    // zero means one compression worker per available processor
+    ZSTD_WORKERS = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+  }
+
+  @Value("${archive.zstd.windowLog:27}")
+  public void setZstdWindowLog(int windowLog) {
+    ZSTD_WINDOW_LOG = windowLog;
+  }
+
+  public static OutputStream compressorOutputStream(ArchiveCodec codec, OutputStream out)
+      throws IOException {
+    switch (codec) {
+      case ZSTD:
+        // long distance matching over a large window finds repeats between genomes that are far
+        // apart in the fasta file, which gzip's 32KB window never sees
+        return new ZstdOutputStream(out)
+            .setLevel(ZSTD_LEVEL)
+            .setWorkers(ZSTD_WORKERS)
+            .setLong(ZSTD_WINDOW_LOG);
+      case GZIP:
+      default:
+        return new GzipCompressorOutputStream(out);
+    }
+  }
+}
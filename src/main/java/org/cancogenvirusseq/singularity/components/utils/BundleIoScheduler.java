@@ -0,0 +1,47 @@
+package org.cancogenvirusseq.singularity.components.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Scheduler for the blocking writes of downloaded records into bundle files. Downloads complete on
+ * the S3 client's event loops, which must never wait on the disk, so records are handed off to
+ * these threads through a bounded queue. When the disk can't keep up the queue fills and
+ * backpressure slows the downloads down instead of stalling the event loops.
+ */
+@Slf4j
+@Configuration
+public class BundleIoScheduler {
+  private static int THREADS = 4;
+  private static int HANDOFF_SIZE = 256;
+
+  private static Scheduler SCHEDULER;
+
+  @Value("${archive.io.threads:4}")
+  public void setThreads(int threads) {
+    THREADS = threads;
+  }
+
+  @Value("${archive.io.handoffSize:256}")
+  public void setHandoffSize(int handoffSize) {
+    HANDOFF_SIZE = handoffSize;
+  }
+
+  public static synchronized Scheduler get() {
+    if (SCHEDULER == null) {
+      log.info("Bundle I/O scheduler started with {} threads", THREADS);
+      SCHEDULER =
+          Schedulers.newBoundedElastic(
+              THREADS, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "bundle-io", 60, true);
+    }
+    return SCHEDULER;
+  }
+
+  /** The most records waiting to be written to a bundle before downloads are held back */
+  public static int getHandoffSize() {
+    return HANDOFF_SIZE;
+  }
+}
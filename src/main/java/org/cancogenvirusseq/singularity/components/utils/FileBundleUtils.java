@@ -19,33 +19,81 @@
 package org.cancogenvirusseq.singularity.components.utils;
 
 import static java.lang.String.format;
-import static org.cancogenvirusseq.singularity.components.model.FileBundle.DOWNLOAD_DIR;
-import static org.cancogenvirusseq.singularity.components.model.FileBundle.archiveFilenameFromArchiveId;
+import static org.cancogenvirusseq.singularity.components.model.FileBundle.archiveFilenameFromArchive;
+import static org.cancogenvirusseq.singularity.components.model.FileBundle.sampleIndexFilenameFromArchive;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Optional;
 import java.util.function.*;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.compress.utils.IOUtils;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
 import org.cancogenvirusseq.singularity.components.model.AnalysisDocumentMolecularDataPair;
 import org.cancogenvirusseq.singularity.components.model.FileBundle;
+import org.cancogenvirusseq.singularity.components.model.SampleIndex;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
 import org.springframework.util.FileSystemUtils;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 public class FileBundleUtils {
 
+  /**
+   * Writes the downloaded pairs into a bundle and compresses it into an archive. Each stage runs on
+   * its own threads:
+   *
+   * <ul>
+   *   <li>downloads complete on the S3 client's event loops, which only hand the pairs off
+   *   <li>the bundle is created and written on the {@link BundleIoScheduler}, one pair at a time,
+   *       with at most {@link BundleIoScheduler#getHandoffSize()} pairs waiting to be written
+   *   <li>compression runs on bounded elastic threads, so the shards of an archive compress in
+   *       parallel
+   * </ul>
+   */
   public static Function<Flux<AnalysisDocumentMolecularDataPair>, Flux<Path>>
-      createFileBundleFromPairsWithArchive(Archive archive) {
+      createFileBundleFromPairsWithArchive(Archive archive, ArchiveMetrics archiveMetrics) {
     return dataPairFlux ->
-        dataPairFlux
-            .reduce(new FileBundle(archive.getId()), addDownloadPairToFileBundle)
-            .map(tarGzipArchiveAndClose)
+        Mono.fromCallable(
+                () ->
+                    new FileBundle(
+                        archive.getId(), archive.getCodec(), ScratchSpace.directoryFor(archive)))
+            .subscribeOn(BundleIoScheduler.get())
+            .flatMap(
+                fileBundle ->
+                    dataPairFlux
+                        .publishOn(BundleIoScheduler.get(), BundleIoScheduler.getHandoffSize())
+                        .reduce(fileBundle, addDownloadPairToFileBundle))
+            .publishOn(Schedulers.boundedElastic())
+            .map(
+                fileBundle -> {
+                  final Path archivePath =
+                      archiveMetrics.compression(
+                          archive.getType(),
+                          fileBundle.getUncompressedBytes(),
+                          () -> tarGzipArchiveAndClose.apply(fileBundle));
+                  archive.setSizeBytes(fileSize(archivePath));
+                  archive.setSha256(hex(fileBundle.getArchiveSha256()));
+                  archive.setMd5(hex(fileBundle.getArchiveMd5()));
+                  archive.setContentSha256(hex(fileBundle.getContentSha256()));
+                  return archivePath;
+                })
             .flux()
             .log("Download::downloadAndArchiveFunctionWithInstant");
   }
@@ -59,33 +107,56 @@ public class FileBundleUtils {
         }
       };
 
-  private static final BiFunction<FileBundle, AnalysisDocumentMolecularDataPair, FileBundle>
+  @VisibleForTesting
+  public static final BiFunction<FileBundle, AnalysisDocumentMolecularDataPair, FileBundle>
       addDownloadPairToFileBundle =
           (fileBundle, downloadPair) -> {
+            final byte[] tsvRowBytes =
+                TsvUtils.analysisDocumentToTsvRowBytes(downloadPair.getAnalysisDocument());
             writeToFileStream.accept(
                 fileBundle.getMolecularFileOutputStream(), downloadPair.getMolecularData());
-            writeToFileStream.accept(
-                fileBundle.getMetadataFileOutputStream(),
-                TsvUtils.analysisDocumentToTsvRowBytes(downloadPair.getAnalysisDocument()));
+            writeToFileStream.accept(fileBundle.getMetadataFileOutputStream(), tsvRowBytes);
+            fileBundle.addContent(
+                downloadPair.getAnalysisDocument().getObjectId().asText(), tsvRowBytes);
+            if (downloadPair.isGzipMember()) {
+              writeToFileStream.accept(
+                  fileBundle.getSampleIndexOutputStream(),
+                  sampleIndexEntry(downloadPair, fileBundle.getMolecularFileBytes()).toTsvLine());
+            }
+            fileBundle.addMolecularData(downloadPair);
+            fileBundle.addUncompressedBytes(
+                downloadPair.getMolecularDataLength() + tsvRowBytes.length);
             return fileBundle;
           };
 
+  private static SampleIndex.Entry sampleIndexEntry(
+      AnalysisDocumentMolecularDataPair downloadPair, long offset) {
+    final AnalysisDocument document = downloadPair.getAnalysisDocument();
+    return new SampleIndex.Entry(
+        document.getDonors().get(0).getSubmitterDonorId().asText(),
+        document.getObjectId().asText(),
+        offset,
+        downloadPair.getMolecularData().length);
+  }
+
   private static final UnaryOperator<FileBundle> closeMolecularAndMetadataFileStreams =
       fileBundle -> {
         try {
           fileBundle.getMolecularFileOutputStream().close();
           fileBundle.getMetadataFileOutputStream().close();
+          fileBundle.getSampleIndexOutputStream().close();
         } catch (IOException e) {
           log.error(e.getLocalizedMessage(), e);
         }
         return fileBundle;
       };
 
-  private static final UnaryOperator<FileBundle> createGzipOutputStream =
+  private static final UnaryOperator<FileBundle> createCompressorOutputStream =
       fileBundle -> {
         try {
-          fileBundle.setArchiveGzipOutputStream(
-              new GzipCompressorOutputStream(fileBundle.getArchiveFileOutputStream()));
+          fileBundle.setArchiveCompressorOutputStream(
+              ArchiveCodecUtils.compressorOutputStream(
+                  fileBundle.getCodec(), fileBundle.getArchiveFileOutputStream()));
         } catch (IOException e) {
           log.error(e.getLocalizedMessage(), e);
         }
@@ -94,7 +165,7 @@ public class FileBundleUtils {
 
   private static final UnaryOperator<FileBundle> createTarOutputStream =
       fileBundle -> {
-        TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(fileBundle.getArchiveGzipOutputStream());
+        TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(fileBundle.getArchiveCompressorOutputStream());
         tarArchiveOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
         fileBundle.setArchiveTarOutputStream(tarArchiveOutputStream);
         return fileBundle;
@@ -133,9 +204,8 @@ public class FileBundleUtils {
 
   private static final UnaryOperator<FileBundle> closeAllStreams =
       fileBundle -> {
-        // closing the ArchiveTarOutputStream cascades and closes the underlying gzip and buffered
-        // file
-        // input streams
+        // closing the ArchiveTarOutputStream cascades and closes the underlying compressor and
+        // buffered file input streams
         try {
           fileBundle.getArchiveTarOutputStream().close();
         } catch (IOException e) {
@@ -151,33 +221,164 @@ public class FileBundleUtils {
         } catch (IOException e) {
           log.error(e.getLocalizedMessage(), e);
         }
-        return Paths.get(format("%s/%s", DOWNLOAD_DIR, fileBundle.getArchiveFilename()));
+        return fileBundle.getScratchDirectory().resolve(fileBundle.getArchiveFilename());
       };
 
   public static final Consumer<Archive> deleteFileBundleForArchive =
       archive -> {
+        // the reservation of a finished build may already be released, so look in every directory
+        for (Path directory : ScratchSpace.getDirectories()) {
+          try {
+            if (FileSystemUtils.deleteRecursively(
+                directory.resolve(archiveFilenameFromArchive(archive)))) {
+              log.debug(
+                  "File archive '{}/{}' deleted from disk",
+                  directory,
+                  archiveFilenameFromArchive(archive));
+            }
+            Files.deleteIfExists(directory.resolve(sampleIndexFilenameFromArchive(archive)));
+          } catch (IOException e) {
+            log.error(e.getLocalizedMessage(), e);
+          }
+        }
+      };
+
+  /** The sample index written next to an assembled archive, if there is one */
+  public static Optional<Path> sampleIndexForArchive(Archive archive, Path archivePath) {
+    return Optional.of(archivePath.resolveSibling(sampleIndexFilenameFromArchive(archive)))
+        .filter(Files::exists);
+  }
+
+  /** Writes a manifest into an archive of its own, compressed with the archive's codec */
+  public static Path createManifestArchive(Archive archive, String manifestFilename, byte[] manifest)
+      throws IOException {
+    final Path archivePath =
+        ScratchSpace.directoryFor(archive).resolve(archiveFilenameFromArchive(archive));
+    try (TarArchiveOutputStream tarArchiveOutputStream =
+        new TarArchiveOutputStream(
+            ArchiveCodecUtils.compressorOutputStream(
+                archive.getCodec(),
+                new BufferedOutputStream(new FileOutputStream(archivePath.toFile()))))) {
+      final TarArchiveEntry entry = new TarArchiveEntry(manifestFilename);
+      entry.setSize(manifest.length);
+      tarArchiveOutputStream.putArchiveEntry(entry);
+      tarArchiveOutputStream.write(manifest);
+      tarArchiveOutputStream.closeArchiveEntry();
+    }
+    return archivePath;
+  }
+
+  @SneakyThrows
+  public static long fileSize(Path path) {
+    return Files.size(path);
+  }
+
+  @SneakyThrows
+  public static String sha256Hex(Path path) {
+    return com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256()).toString();
+  }
+
+  @SneakyThrows
+  @SuppressWarnings("deprecation")
+  public static String md5Hex(Path path) {
+    return com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.md5()).toString();
+  }
+
+  private static String hex(MessageDigest digest) {
+    return HashCode.fromBytes(digest.digest()).toString();
+  }
+
+  /**
+   * Assembles a tar.gz from a bundle whose fasta file holds gzip members. The archive is a sequence
+   * of gzip members that decompress to the same tar as compressing the bundle would have produced:
+   * a member holding the fasta entry's tar header, the fasta's own members copied as they are, and
+   * a member holding the rest of the tar (padding, the metadata entry and the end of archive). Only
+   * the tar framing and the metadata are compressed.
+   */
+  private static final UnaryOperator<FileBundle> assembleGzipMembers =
+      fileBundle -> {
+        final File molecularFile =
+            new File(
+                format("%s/%s", fileBundle.getDownloadDirectory(), fileBundle.getMolecularFilename()));
+        final File metadataFile =
+            new File(
+                format("%s/%s", fileBundle.getDownloadDirectory(), fileBundle.getMetadataFilename()));
+        final BufferedOutputStream archiveOutputStream = fileBundle.getArchiveFileOutputStream();
+
         try {
-          FileSystemUtils.deleteRecursively(
-              Paths.get(
-                  format("%s/%s", DOWNLOAD_DIR, archiveFilenameFromArchiveId(archive.getId()))));
-          log.debug(
-              "File archive '{}/{}' deleted from disk",
-              DOWNLOAD_DIR,
-              archiveFilenameFromArchiveId(archive.getId()));
+          final TarArchiveEntry molecularEntry =
+              new TarArchiveEntry(molecularFile, molecularFile.getName());
+          molecularEntry.setSize(fileBundle.getMolecularDataLength());
+          final byte[] molecularEntryHeader = new byte[TarConstants.DEFAULT_RCDSIZE];
+          // star mode encodes sizes over 8GB in binary, like BIGNUMBER_STAR
+          molecularEntry.writeEntryHeader(
+              molecularEntryHeader, ZipEncodingHelper.getZipEncoding(null), true);
+          final byte[] molecularEntryHeaderMember = GzipMembers.compress(molecularEntryHeader);
+          archiveOutputStream.write(molecularEntryHeaderMember);
+
+          Files.copy(molecularFile.toPath(), archiveOutputStream);
+
+          final GzipCompressorOutputStream tailOutputStream =
+              new GzipCompressorOutputStream(archiveOutputStream);
+          tailOutputStream.write(
+              new byte
+                  [(int)
+                      ((TarConstants.DEFAULT_RCDSIZE
+                              - fileBundle.getMolecularDataLength() % TarConstants.DEFAULT_RCDSIZE)
+                          % TarConstants.DEFAULT_RCDSIZE)]);
+          final TarArchiveOutputStream tailTarOutputStream =
+              new TarArchiveOutputStream(tailOutputStream);
+          tailTarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+          archiveFile.accept(tailTarOutputStream, metadataFile);
+          // closing the tar closes the gzip member and the archive file
+          tailTarOutputStream.close();
+
+          // the fasta members follow the header member in the archive
+          writeSampleIndex(fileBundle, molecularEntryHeaderMember.length);
         } catch (IOException e) {
           log.error(e.getLocalizedMessage(), e);
         }
+        return fileBundle;
       };
 
-  /**
-   * Function that takes a fileBundle, closes it's files, generates the tar.gz, deletes the download
-   * directory and returns the full path to the archive
-   */
-  public static final Function<FileBundle, Path> tarGzipArchiveAndClose =
+  /** Writes the sample index next to the archive, with offsets into the archive */
+  private static void writeSampleIndex(FileBundle fileBundle, long molecularFileOffset)
+      throws IOException {
+    try (BufferedReader reader =
+            Files.newBufferedReader(fileBundle.getSampleIndexPath(), StandardCharsets.UTF_8);
+        OutputStream indexOutputStream =
+            new GzipCompressorOutputStream(
+                new BufferedOutputStream(
+                    Files.newOutputStream(
+                        fileBundle
+                            .getScratchDirectory()
+                            .resolve(fileBundle.getSampleIndexFilename()))))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        indexOutputStream.write(
+            SampleIndex.Entry.fromTsvLine(line).withOffsetFrom(molecularFileOffset).toTsvLine());
+      }
+    }
+  }
+
+  private static final Function<FileBundle, Path> compressBundle =
       closeMolecularAndMetadataFileStreams
-          .andThen(createGzipOutputStream)
+          .andThen(createCompressorOutputStream)
           .andThen(createTarOutputStream)
           .andThen(putBundleFilesInArchive)
           .andThen(closeAllStreams)
           .andThen(finalize);
+
+  private static final Function<FileBundle, Path> assembleBundle =
+      closeMolecularAndMetadataFileStreams.andThen(assembleGzipMembers).andThen(finalize);
+
+  /**
+   * Function that takes a fileBundle, closes it's files, generates the tar compressed with the
+   * bundle's codec, deletes the download directory and returns the full path to the archive
+   */
+  public static final Function<FileBundle, Path> tarGzipArchiveAndClose =
+      fileBundle ->
+          fileBundle.isGzipMembers()
+              ? assembleBundle.apply(fileBundle)
+              : compressBundle.apply(fileBundle);
 }
@@ -0,0 +1,49 @@
+package org.cancogenvirusseq.singularity.components.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import lombok.SneakyThrows;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+/**
+ * Gzip members are complete gzip streams that can be concatenated, a gzip reader decompresses
+ * concatenated members into the concatenation of their contents. Compressing each genome as its own
+ * member once lets an archive be assembled by copying members instead of compressing it again.
+ */
+public class GzipMembers {
+
+  @SneakyThrows
+  public static byte[] compress(byte[] data) {
+    final ByteArrayOutputStream member = new ByteArrayOutputStream(data.length / 3);
+    writeMember(member, data);
+    return member.toByteArray();
+  }
+
+  /** Compresses the data as a single member at the end of the stream, leaving it open */
+  public static void writeMember(OutputStream out, byte[] data) throws IOException {
+    final GzipCompressorOutputStream gzipOutputStream = new GzipCompressorOutputStream(out);
+    gzipOutputStream.write(data);
+    gzipOutputStream.finish();
+  }
+
+  @SneakyThrows
+  public static byte[] decompress(byte[] member) {
+    try (GzipCompressorInputStream gzipInputStream =
+        new GzipCompressorInputStream(new ByteArrayInputStream(member))) {
+      return IOUtils.toByteArray(gzipInputStream);
+    }
+  }
+
+  /** The size of a member's content, from the ISIZE field of its trailer (the size modulo 2^32) */
+  public static long uncompressedSize(byte[] member) {
+    final int end = member.length;
+    return (member[end - 4] & 0xffL)
+        | (member[end - 3] & 0xffL) << 8
+        | (member[end - 2] & 0xffL) << 16
+        | (member[end - 1] & 0xffL) << 24;
+  }
+}
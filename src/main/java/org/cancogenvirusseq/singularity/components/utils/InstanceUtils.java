@@ -0,0 +1,23 @@
+package org.cancogenvirusseq.singularity.components.utils;
+
+import static java.lang.String.format;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+public class InstanceUtils {
+
+  /** Identifies this replica in shared database state, unique even across restarts of a pod */
+  public static String newInstanceId() {
+    return format("%s-%s", hostname(), UUID.randomUUID().toString().substring(0, 8));
+  }
+
+  private static String hostname() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "singularity";
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package org.cancogenvirusseq.singularity.components.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Local directories archives are built in, possibly on several volumes. A build reserves its
+ * estimated size on one of the directories before it starts, and is only admitted when a directory
+ * has that much free space that isn't already reserved by other builds on this replica.
+ */
+@Slf4j
+@Configuration
+public class ScratchSpace {
+
+  public enum Placement {
+    // take turns between the directories that have room for the build
+    ROUND_ROBIN,
+    // the directory with the most unreserved free space
+    MOST_FREE
+  }
+
+  private static List<Path> DIRECTORIES = List.of(Paths.get("/tmp"));
+  private static Placement PLACEMENT = Placement.MOST_FREE;
+  private static long MIN_FREE_BYTES = 0;
+  private static double ESTIMATE_FACTOR = 1.5;
+
+  private static final Map<UUID, Reservation> RESERVATIONS = new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT_DIRECTORY = new AtomicInteger();
+
+  @Value("${archive.scratch.directories:/tmp}")
+  @SneakyThrows
+  public void setDirectories(String[] directories) {
+    DIRECTORIES =
+        Arrays.stream(directories)
+            .map(String::trim)
+            .filter(directory -> !directory.isEmpty())
+            .map(Paths::get)
+            .collect(Collectors.toUnmodifiableList());
+    for (Path directory : DIRECTORIES) {
+      Files.createDirectories(directory);
+    }
+  }
+
+  @Value("${archive.scratch.placement:MOST_FREE}")
+  public void setPlacement(Placement placement) {
+    PLACEMENT = placement;
+  }
+
+  @Value("${archive.scratch.minFreeBytes:0}")
+  public void setMinFreeBytes(long minFreeBytes) {
+    MIN_FREE_BYTES = minFreeBytes;
+  }
+
+  @Value("${archive.scratch.estimateFactor:1.5}")
+  public void setEstimateFactor(double estimateFactor) {
+    ESTIMATE_FACTOR = estimateFactor;
+  }
+
+  /**
+   * Space to reserve for a build given the size of the molecular files it will download. The
+   * uncompressed bundle files and the compressed archive are on disk together while compressing.
+   */
+  public static long estimateBuildBytes(long molecularFileBytes) {
+    return (long) (molecularFileBytes * ESTIMATE_FACTOR);
+  }
+
+  /**
+   * Reserves space for building an archive, returns the directory it was reserved in or empty when
+   * no directory has enough room right now. A directory with nothing reserved on it always admits
+   * a build, so a build bigger than every volume (or a bad estimate) still gets to run alone
+   * instead of waiting forever.
+   */
+  public static synchronized Optional<Path> reserve(UUID archiveId, long bytes) {
+    final List<Path> candidates =
+        IntStream.range(0, DIRECTORIES.size())
+            .mapToObj(i -> DIRECTORIES.get(orderedIndex(i)))
+            .filter(directory -> reservedBytes(directory) == 0 || availableBytes(directory) >= bytes)
+            .collect(Collectors.toList());
+
+    final Optional<Path> directory =
+        Placement.MOST_FREE.equals(PLACEMENT)
+            ? candidates.stream().max(Comparator.comparingLong(ScratchSpace::availableBytes))
+            : candidates.stream().findFirst();
+
+    directory.ifPresent(
+        reserved -> {
+          if (Placement.ROUND_ROBIN.equals(PLACEMENT)) {
+            NEXT_DIRECTORY.set(DIRECTORIES.indexOf(reserved) + 1);
+          }
+          RESERVATIONS.put(archiveId, new Reservation(reserved, bytes));
+          log.debug("Reserved {} bytes in {} for archive {}", bytes, reserved, archiveId);
+        });
+    return directory;
+  }
+
+  public static void release(UUID archiveId) {
+    RESERVATIONS.remove(archiveId);
+  }
+
+  /** The directory an archive is built in, shards are built where their release was reserved */
+  public static Path directoryFor(Archive archive) {
+    return Optional.ofNullable(RESERVATIONS.get(archive.getId()))
+        .or(() -> Optional.ofNullable(archive.getParentId()).map(RESERVATIONS::get))
+        .map(Reservation::getDirectory)
+        .orElse(DIRECTORIES.get(0));
+  }
+
+  public static List<Path> getDirectories() {
+    return DIRECTORIES;
+  }
+
+  public static long getReservedBytes() {
+    return RESERVATIONS.values().stream().mapToLong(Reservation::getBytes).sum();
+  }
+
+  private static int orderedIndex(int i) {
+    return Placement.ROUND_ROBIN.equals(PLACEMENT)
+        ? (NEXT_DIRECTORY.get() + i) % DIRECTORIES.size()
+        : i;
+  }
+
+  private static long reservedBytes(Path directory) {
+    return RESERVATIONS.values().stream()
+        .filter(reservation -> reservation.getDirectory().equals(directory))
+        .mapToLong(Reservation::getBytes)
+        .sum();
+  }
+
+  private static long availableBytes(Path directory) {
+    try {
+      // space already used by builds in progress is counted both as used and as reserved, which
+      // errs on the side of admitting fewer builds
+      return Files.getFileStore(directory).getUsableSpace()
+          - reservedBytes(directory)
+          - MIN_FREE_BYTES;
+    } catch (IOException e) {
+      log.error("Unable to read free space of scratch directory {}", directory, e);
+      return 0;
+    }
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  private static class Reservation {
+    private final Path directory;
+    private final long bytes;
+  }
+}
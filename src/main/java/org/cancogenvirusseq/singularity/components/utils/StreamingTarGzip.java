@@ -0,0 +1,66 @@
+package org.cancogenvirusseq.singularity.components.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+import lombok.SneakyThrows;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+
+/**
+ * Writes a tar.gz in memory one entry at a time, handing back the compressed bytes of each entry as
+ * soon as it is written so that the archive can be streamed as it is produced. Each entry is sync
+ * flushed through the compressor, which costs a little compression for not holding anything back.
+ * Not thread safe, entries have to be put one after the other.
+ */
+public class StreamingTarGzip implements AutoCloseable {
+  private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+  private final GZIPOutputStream gzipOutputStream;
+  private final TarArchiveOutputStream tarOutputStream;
+  private final Date modTime = new Date();
+
+  @SneakyThrows
+  public StreamingTarGzip() {
+    // one record per block so an entry is never held back waiting for its block to fill
+    this.gzipOutputStream = new GZIPOutputStream(compressed, TarConstants.DEFAULT_BLKSIZE, true);
+    this.tarOutputStream = new TarArchiveOutputStream(gzipOutputStream, TarConstants.DEFAULT_RCDSIZE);
+    this.tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    this.tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+  }
+
+  /** Puts an entry in the archive and returns the compressed bytes written since the last call */
+  @SneakyThrows
+  public ByteBuffer putEntry(String name, byte[] content) {
+    final TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(content.length);
+    entry.setModTime(modTime);
+    tarOutputStream.putArchiveEntry(entry);
+    tarOutputStream.write(content);
+    tarOutputStream.closeArchiveEntry();
+    // the tar doesn't pass flushes on to the stream it writes to
+    gzipOutputStream.flush();
+    return drain();
+  }
+
+  /** Ends the archive and returns its remaining compressed bytes */
+  @SneakyThrows
+  public ByteBuffer finish() {
+    tarOutputStream.close();
+    return drain();
+  }
+
+  @Override
+  @SneakyThrows
+  public void close() {
+    // a no-op once finished
+    tarOutputStream.close();
+  }
+
+  private ByteBuffer drain() {
+    final ByteBuffer bytes = ByteBuffer.wrap(compressed.toByteArray());
+    compressed.reset();
+    return bytes;
+  }
+}
@@ -1,6 +1,8 @@
 package org.cancogenvirusseq.singularity.config.archive;
 
+import java.util.List;
 import lombok.Data;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
@@ -11,4 +13,12 @@ import org.springframework.context.annotation.Configuration;
 public class ArchiveProperties {
   Long cancelPeriodSeconds;
   Long maxBuildingSeconds;
+  Long progressIntervalMs = 1000L;
+  // a release archive is built for each of these codecs, in order
+  List<ArchiveCodec> allCodecs = List.of(ArchiveCodec.GZIP);
+  Integer shardCount = 1;
+  // parsed sample indexes kept in memory for single sample downloads
+  Integer sampleIndexCacheSize = 4;
+  // sets up to this size can be exported straight into the response without building an archive
+  Long streamingExportMaxSamples = 1000L;
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package org.cancogenvirusseq.singularity.config.archive;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "archive.queue")
+public class BuildQueueProperties {
+  // archive builds this replica runs at the same time
+  private Integer workers = 2;
+  // how often an idle replica looks for queued builds
+  private Long pollIntervalMs = 5000L;
+  // a claimed build is given to another replica if not renewed within this long
+  private Long leaseSeconds = 120L;
+  private Long heartbeatIntervalMs = 30000L;
+  // claims of the same build before its archive is marked as failed
+  private Integer maxAttempts = 3;
+  // stop builds as soon as their archive is cancelled, on any replica, through postgres notify
+  private Boolean listenForCancellations = true;
+  // wait before listening again after losing the listening connection, doubled up to a minute
+  private Long listenRetryDelayMs = 1000L;
+}
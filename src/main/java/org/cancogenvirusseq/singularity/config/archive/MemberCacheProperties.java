@@ -0,0 +1,17 @@
+package org.cancogenvirusseq.singularity.config.archive;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "archive.member-cache")
+public class MemberCacheProperties {
+  // gzip archives are assembled from cached per genome gzip members instead of being compressed
+  private Boolean enabled = true;
+  private String directory = "/tmp/singularity-member-cache";
+  // least recently used members are evicted once the cache is bigger than this
+  private Long maxBytes = 10L * 1024 * 1024 * 1024;
+  private Long evictionIntervalSeconds = 60L;
+}
@@ -0,0 +1,24 @@
+package org.cancogenvirusseq.singularity.config.archive;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "archive.retention")
+public class RetentionProperties {
+  private Boolean enabled = false;
+  private Long intervalMinutes = 60L;
+  // complete releases kept per codec, the latest one is always kept
+  private Integer keepReleases = 10;
+  // set query archives are removed this long after their last download (or creation)
+  private Long setQueryExpiryDays = 30L;
+  // failed and cancelled archives are removed this long after they were created
+  private Long unfinishedExpiryDays = 7L;
+  // archives removed per batch (one DeleteObjects request and one delete statement)
+  private Integer batchSize = 100;
+  private Long pauseBetweenBatchesMs = 1000L;
+  // caps the work done per run, the rest is left for the next run
+  private Integer maxArchivesPerRun = 1000;
+}
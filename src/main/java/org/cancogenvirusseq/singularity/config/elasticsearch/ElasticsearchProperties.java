@@ -35,4 +35,16 @@ public class ElasticsearchProperties {
   String fileCentricIndex;
   String arrangerSetsIndex;
   Long scrollTimeoutMinutes;
+  Integer scrollPageSize = 10;
+  Integer maxConnections = 50;
+  Long pendingAcquireTimeoutMs = 45000L;
+  Long maxIdleTimeSeconds = 30L;
+  Long maxLifeTimeSeconds = 600L;
+  Integer maxResponseBytes = 104857600;
+  Boolean filterHitMetadata = true;
+  Integer setChunkSize = 1000;
+  Integer setChunkConcurrency = 4;
+  Long setDocumentCacheMaxIds = 1_000_000L;
+  Integer aggregationCacheSize = 1000;
+  Long aggregationCacheTtlSeconds = 60L;
 }
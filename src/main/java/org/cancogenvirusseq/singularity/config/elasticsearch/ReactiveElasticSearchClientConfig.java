@@ -20,8 +20,12 @@ package org.cancogenvirusseq.singularity.config.elasticsearch;
 
 import static java.lang.String.format;
 
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import java.time.Duration;
 import java.util.Optional;
-import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -29,7 +33,14 @@ import org.springframework.data.elasticsearch.client.ClientConfiguration;
 import org.springframework.data.elasticsearch.client.reactive.ReactiveElasticsearchClient;
 import org.springframework.data.elasticsearch.client.reactive.ReactiveRestClients;
 import org.springframework.data.elasticsearch.config.AbstractReactiveElasticsearchConfiguration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Configuration
 @RequiredArgsConstructor
@@ -39,7 +50,10 @@ public class ReactiveElasticSearchClientConfig extends AbstractReactiveElasticse
 
   private static final Integer connectTimeout = 15_000;
   private static final Integer socketTimeout = 15_000;
-  private static final Integer maxInMemorySize = -1;
+
+  // metadata of each hit that nothing reads, dropped from search and scroll responses
+  private static final String HIT_METADATA_FILTER_PATH =
+      "-hits.hits._index,-hits.hits._type,-hits.hits._score";
 
   @Override
   @Bean
@@ -67,16 +81,75 @@ public class ReactiveElasticSearchClientConfig extends AbstractReactiveElasticse
             .get()
             .withConnectTimeout(connectTimeout)
             .withSocketTimeout(socketTimeout)
-            // Avoid default buffer size limit
             .withWebClientConfigurer(
-                webClient ->
-                    webClient.mutate().exchangeStrategies(exchangeStrategies.get()).build())
+                webClient -> {
+                  final WebClient.Builder builder =
+                      webClient
+                          .mutate()
+                          .clientConnector(new ReactorClientHttpConnector(httpClient()))
+                          .exchangeStrategies(exchangeStrategies());
+                  return elasticsearchProperties.getFilterHitMetadata()
+                      ? builder.filter(filterHitMetadata()).build()
+                      : builder.build();
+                })
             .build());
   }
 
-  private static final Supplier<ExchangeStrategies> exchangeStrategies =
-      () ->
-          ExchangeStrategies.builder()
-              .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(maxInMemorySize))
-              .build();
+  /**
+   * Same client the elasticsearch client would create (compressed responses, timeouts, https) but
+   * on a connection pool of our own sizing that keeps connections alive between scroll pages
+   */
+  private HttpClient httpClient() {
+    final HttpClient httpClient =
+        HttpClient.create(
+                ConnectionProvider.builder("elasticsearch")
+                    .maxConnections(elasticsearchProperties.getMaxConnections())
+                    .pendingAcquireTimeout(
+                        Duration.ofMillis(elasticsearchProperties.getPendingAcquireTimeoutMs()))
+                    .maxIdleTime(
+                        Duration.ofSeconds(elasticsearchProperties.getMaxIdleTimeSeconds()))
+                    .maxLifeTime(
+                        Duration.ofSeconds(elasticsearchProperties.getMaxLifeTimeSeconds()))
+                    .evictInBackground(
+                        Duration.ofSeconds(elasticsearchProperties.getMaxIdleTimeSeconds()))
+                    .build())
+            .compress(true)
+            .keepAlive(true)
+            .option(ChannelOption.SO_KEEPALIVE, true)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+            .doOnConnected(
+                connection ->
+                    connection
+                        .addHandlerLast(
+                            new ReadTimeoutHandler(socketTimeout, TimeUnit.MILLISECONDS))
+                        .addHandlerLast(
+                            new WriteTimeoutHandler(socketTimeout, TimeUnit.MILLISECONDS)));
+
+    return elasticsearchProperties.getUseHttps() ? httpClient.secure() : httpClient;
+  }
+
+  // responses are parsed from memory, the limit fails a response too large instead of the heap
+  private ExchangeStrategies exchangeStrategies() {
+    return ExchangeStrategies.builder()
+        .codecs(
+            configurer ->
+                configurer
+                    .defaultCodecs()
+                    .maxInMemorySize(elasticsearchProperties.getMaxResponseBytes()))
+        .build();
+  }
+
+  private static ExchangeFilterFunction filterHitMetadata() {
+    return (request, next) ->
+        request.url().getPath().contains("/_search")
+            ? next.exchange(
+                ClientRequest.from(request)
+                    .url(
+                        UriComponentsBuilder.fromUri(request.url())
+                            .queryParam("filter_path", HIT_METADATA_FILTER_PATH)
+                            .build(true)
+                            .toUri())
+                    .build())
+            : next.exchange(request);
+  }
 }
@@ -0,0 +1,15 @@
+package org.cancogenvirusseq.singularity.config.events;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "events.coalescer")
+public class EventCoalescerProperties {
+  // time without new events before the coalesced trigger is emitted
+  private Long quietPeriodSeconds = 60L;
+  // upper bound between the first coalesced event and its trigger, regardless of new events
+  private Long maxWaitSeconds = 600L;
+}
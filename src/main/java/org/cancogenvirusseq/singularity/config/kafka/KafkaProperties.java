@@ -33,5 +33,7 @@ public class KafkaProperties {
   private String groupId;
   private String autoOffsetReset;
   private String songUploadTopic;
+  private Integer songUploadMaxBatchSize = 500;
+  private Long songUploadMaxBatchWaitMs = 1000L;
   private String archiveBuildTopic;
 }
@@ -18,6 +18,7 @@
 
 package org.cancogenvirusseq.singularity.config.kafka;
 
+import java.time.Duration;
 import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.Map;
@@ -54,8 +55,15 @@ public class KafkaSongUploadConsumerConfig {
                 new AbstractMap.SimpleEntry<>(
                     ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class),
                 new AbstractMap.SimpleEntry<>(
-                    ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, properties.getAutoOffsetReset())))
-         .subscription(Collections.singleton(properties.getSongUploadTopic()))
+                    ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, properties.getAutoOffsetReset()),
+                // offsets are committed manually once a batch has been processed
+                new AbstractMap.SimpleEntry<>(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false),
+                new AbstractMap.SimpleEntry<>(
+                    ConsumerConfig.MAX_POLL_RECORDS_CONFIG,
+                    properties.getSongUploadMaxBatchSize())))
+        .commitBatchSize(0)
+        .commitInterval(Duration.ZERO)
+        .subscription(Collections.singleton(properties.getSongUploadTopic()))
         .addAssignListener(partitions -> log.debug("onPartitionsAssigned {}", partitions))
         .addRevokeListener(partitions -> log.debug("onPartitionsRevoked {}", partitions));
   }
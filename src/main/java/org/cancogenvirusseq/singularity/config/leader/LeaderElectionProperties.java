@@ -0,0 +1,16 @@
+package org.cancogenvirusseq.singularity.config.leader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "leader")
+public class LeaderElectionProperties {
+  // when disabled every replica acts as the leader, ex. for a single replica deployment
+  private Boolean enabled = true;
+  // a leader that stops renewing is replaced after this long
+  private Long leaseMs = 15000L;
+  private Long renewIntervalMs = 5000L;
+}
@@ -0,0 +1,21 @@
+package org.cancogenvirusseq.singularity.config.notifications;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "notifications.dispatch")
+public class NotificationDispatchProperties {
+  // notifications waiting to be sent per channel, any more are dropped
+  private Integer queueSize = 1000;
+  // notifications queued within a window are sent together as one digest per notification name
+  private Long windowMs = 5000L;
+  // minimum time between two messages to the same channel
+  private Long minIntervalMs = 1000L;
+  private Integer maxRetries = 3;
+  private Long retryBackoffMs = 2000L;
+  // notifications listed in a digest, the rest are only counted
+  private Integer maxDigestEntries = 20;
+}
@@ -51,14 +51,21 @@ public class S3ClientConfiguration {
           .build();
 
   @Bean
-  public S3AsyncClient s3client(
+  public S3Clients s3Clients(
       S3ClientProperties s3props, AwsCredentialsProvider credentialsProvider) {
+    return new S3Clients(s3props, workload -> s3client(s3props, workload, credentialsProvider));
+  }
+
+  private S3AsyncClient s3client(
+      S3ClientProperties s3props,
+      S3ClientProperties.Workload workload,
+      AwsCredentialsProvider credentialsProvider) {
 
     SdkAsyncHttpClient httpClient =
         NettyNioAsyncHttpClient.builder()
             .writeTimeout(Duration.ZERO)
-            .maxConcurrency(s3props.getMaxConcurrency())
-            .connectionAcquisitionTimeout(ofMillis(s3props.getAcquisitionTimeoutMs()))
+            .maxConcurrency(workload.getMaxConcurrency())
+            .connectionAcquisitionTimeout(ofMillis(workload.getAcquisitionTimeoutMs()))
             .build();
 
     S3AsyncClientBuilder s3AsyncClientBuilder =
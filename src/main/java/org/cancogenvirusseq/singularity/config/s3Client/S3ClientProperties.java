@@ -19,7 +19,12 @@
 package org.cancogenvirusseq.singularity.config.s3Client;
 
 import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import software.amazon.awssdk.regions.Region;
 
@@ -34,4 +39,25 @@ public class S3ClientProperties {
   private String dataDir;
   private Integer maxConcurrency;
   private Long acquisitionTimeoutMs;
+  // download bandwidth shared by the workloads by weight, 0 is unlimited
+  private Long maxBytesPerSecond = 0L;
+  private Map<S3Workload, Workload> workloads = new EnumMap<>(S3Workload.class);
+
+  /** Settings of a workload, its connection settings default to the ones above */
+  public Workload getWorkload(S3Workload workload) {
+    final Workload settings = workloads.getOrDefault(workload, new Workload());
+    return new Workload(
+        Optional.ofNullable(settings.getMaxConcurrency()).orElse(maxConcurrency),
+        Optional.ofNullable(settings.getAcquisitionTimeoutMs()).orElse(acquisitionTimeoutMs),
+        settings.getBandwidthWeight());
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Workload {
+    private Integer maxConcurrency;
+    private Long acquisitionTimeoutMs;
+    private Integer bandwidthWeight = 1;
+  }
 }
@@ -0,0 +1,85 @@
+package org.cancogenvirusseq.singularity.config.s3Client;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+/**
+ * An object storage client per workload, each on its own connection pool so that a release build
+ * saturating its pool doesn't hold user downloads waiting for a connection. Download bandwidth can
+ * also be capped in total and shared between the workloads by weight, a workload that used up its
+ * share has its next downloads delayed.
+ */
+@Slf4j
+public class S3Clients {
+  private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Map<S3Workload, S3AsyncClient> clients = new EnumMap<>(S3Workload.class);
+  private final Map<S3Workload, Integer> maxConcurrency = new EnumMap<>(S3Workload.class);
+  private final Map<S3Workload, Bandwidth> bandwidth = new EnumMap<>(S3Workload.class);
+
+  public S3Clients(
+      S3ClientProperties s3props, Function<S3ClientProperties.Workload, S3AsyncClient> clientFn) {
+    final int totalWeight =
+        Arrays.stream(S3Workload.values())
+            .map(s3props::getWorkload)
+            .mapToInt(S3ClientProperties.Workload::getBandwidthWeight)
+            .sum();
+
+    for (S3Workload workload : S3Workload.values()) {
+      final S3ClientProperties.Workload workloadProps = s3props.getWorkload(workload);
+      clients.put(workload, clientFn.apply(workloadProps));
+      maxConcurrency.put(workload, workloadProps.getMaxConcurrency());
+      if (s3props.getMaxBytesPerSecond() > 0) {
+        final long bytesPerSecond =
+            s3props.getMaxBytesPerSecond() * workloadProps.getBandwidthWeight() / totalWeight;
+        log.info("S3 {} downloads limited to {} bytes per second", workload, bytesPerSecond);
+        bandwidth.put(workload, new Bandwidth(bytesPerSecond));
+      }
+    }
+  }
+
+  public S3AsyncClient get(S3Workload workload) {
+    return clients.get(workload);
+  }
+
+  /** Requests of the workload in flight at most, the size of its connection pool */
+  public int getMaxConcurrency(S3Workload workload) {
+    return maxConcurrency.get(workload);
+  }
+
+  /** Completes once the workload can download again after downloading these bytes */
+  public Mono<Void> throttle(S3Workload workload, long bytes) {
+    final Bandwidth workloadBandwidth = bandwidth.get(workload);
+    if (workloadBandwidth == null) {
+      return Mono.empty();
+    }
+
+    final long waitNanos = workloadBandwidth.reserve(bytes);
+    return waitNanos > 0 ? Mono.delay(Duration.ofNanos(waitNanos)).then() : Mono.empty();
+  }
+
+  /** Token bucket of bytes, refilled at a constant rate and holding at most a second's worth */
+  private static class Bandwidth {
+    private final long bytesPerSecond;
+    private long nextFreeAt = System.nanoTime();
+
+    private Bandwidth(long bytesPerSecond) {
+      this.bytesPerSecond = Math.max(1, bytesPerSecond);
+    }
+
+    private synchronized long reserve(long bytes) {
+      final long now = System.nanoTime();
+      nextFreeAt = Math.max(nextFreeAt, now - ONE_SECOND_NANOS);
+      final long waitNanos = Math.max(0, nextFreeAt - now);
+      nextFreeAt += bytes * ONE_SECOND_NANOS / bytesPerSecond;
+      return waitNanos;
+    }
+  }
+}
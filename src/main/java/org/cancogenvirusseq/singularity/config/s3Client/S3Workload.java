@@ -0,0 +1,23 @@
+package org.cancogenvirusseq.singularity.config.s3Client;
+
+import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
+import reactor.util.context.ContextView;
+
+/** The kinds of object storage traffic, each with its own connections and bandwidth share */
+public enum S3Workload {
+  BUILD_ALL,
+  BUILD_SET,
+  SERVE;
+
+  /** The workload of an archive build from its context, anything outside a build serves users */
+  public static S3Workload of(ContextView ctx) {
+    return ctx.<ArchiveBuildRequest>getOrEmpty("archiveBuildRequest")
+        .map(
+            archiveBuildRequest ->
+                ArchiveType.SET_QUERY.equals(archiveBuildRequest.getArchive().getType())
+                    ? BUILD_SET
+                    : BUILD_ALL)
+        .orElse(SERVE);
+  }
+}
@@ -0,0 +1,19 @@
+package org.cancogenvirusseq.singularity.exceptions.http;
+
+import lombok.EqualsAndHashCode;
+import lombok.Value;
+import org.springframework.http.HttpStatus;
+
+@Value
+@EqualsAndHashCode(callSuper = true)
+public class SampleNotFoundHttpException extends Throwable implements BaseHttpException {
+  @Override
+  public HttpStatus getStatusCode() {
+    return HttpStatus.NOT_FOUND;
+  }
+
+  @Override
+  public String getMessage() {
+    return "The sample is not in this archive, or the archive has no sample index";
+  }
+}
@@ -0,0 +1,21 @@
+package org.cancogenvirusseq.singularity.exceptions.http;
+
+import static java.lang.String.format;
+
+import lombok.EqualsAndHashCode;
+import lombok.Value;
+
+@Value
+@EqualsAndHashCode(callSuper = true)
+public class SetTooLargeToStreamHttpException extends Throwable implements BaseHttpException {
+  Long setSize;
+  Long maxSamples;
+
+  @Override
+  public String getMessage() {
+    return format(
+        "The set has %d samples, only sets of up to %d samples can be exported directly, build a"
+            + " set query archive instead",
+        setSize, maxSamples);
+  }
+}
@@ -0,0 +1,21 @@
+package org.cancogenvirusseq.singularity.exceptions.http;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+import lombok.EqualsAndHashCode;
+import lombok.Value;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
+
+@Value
+@EqualsAndHashCode(callSuper = true)
+public class UnsupportedArchiveFormatHttpException extends Throwable implements BaseHttpException {
+  String format;
+
+  @Override
+  public String getMessage() {
+    return format(
+        "Archive format '%s' is not supported, use one of %s",
+        format, Arrays.toString(ArchiveCodec.values()));
+  }
+}
@@ -0,0 +1,20 @@
+package org.cancogenvirusseq.singularity.exceptions.runtime;
+
+import static java.lang.String.format;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+public class S3DeleteFailedException extends RuntimeException {
+
+  public S3DeleteFailedException(List<S3Error> errors) {
+    super(
+        format(
+            "Delete from object storage failed for %d objects: %s",
+            errors.size(),
+            errors.stream()
+                .map(error -> format("%s (%s)", error.key(), error.code()))
+                .collect(Collectors.joining(", "))));
+  }
+}
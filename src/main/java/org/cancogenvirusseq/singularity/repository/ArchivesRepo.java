@@ -1,14 +1,18 @@
 package org.cancogenvirusseq.singularity.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import lombok.NonNull;
 import lombok.val;
 import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
 import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
 import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
 import org.cancogenvirusseq.singularity.repository.query.FindArchivesQuery;
 import org.springframework.data.domain.*;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -24,6 +28,11 @@ public interface ArchivesRepo extends ReactiveCrudRepository<Archive, UUID> {
   Mono<Archive> findTopByTypeAndStatusOrderByCreatedAtDesc(
       @NonNull ArchiveType type, @NonNull ArchiveStatus status);
 
+  Mono<Archive> findTopByTypeAndStatusAndCodecOrderByCreatedAtDesc(
+      @NonNull ArchiveType type, @NonNull ArchiveStatus status, @NonNull ArchiveCodec codec);
+
+  Mono<Archive> findTopByTypeOrderByCreatedAtDesc(@NonNull ArchiveType type);
+
   Mono<Archive> findArchiveByIdEqualsAndStatusEquals(UUID id, ArchiveStatus status);
 
   Mono<Archive> findArchiveByHashInfoEquals(String hashInfo);
@@ -36,8 +45,64 @@ public interface ArchivesRepo extends ReactiveCrudRepository<Archive, UUID> {
 
   Flux<Archive> findByHashInAndStatusAndCreatedAtLessThan(List<String> hash, ArchiveStatus status, Long fromTime);
 
-  default Mono<Archive> findLatestAllArchive() {
-    return findTopByTypeAndStatusOrderByCreatedAtDesc(ArchiveType.ALL, ArchiveStatus.COMPLETE);
+  Flux<Archive> findByParentId(UUID parentId);
+
+  /** Complete releases older than the latest keep releases of their codec, except pinned ones */
+  @Query(
+      "SELECT * FROM (SELECT *, row_number() OVER (PARTITION BY codec ORDER BY created_at DESC) "
+          + "AS release_rank FROM archive WHERE type = 'ALL' AND status = 'COMPLETE') releases "
+          + "WHERE release_rank > :keep AND NOT pinned ORDER BY created_at LIMIT :limit")
+  Flux<Archive> findExpiredReleases(@Param("keep") Integer keep, @Param("limit") Integer limit);
+
+  /** Complete set query archives that haven't been downloaded since before, except pinned ones */
+  @Query(
+      "SELECT * FROM archive WHERE type = 'SET_QUERY' AND status = 'COMPLETE' AND NOT pinned "
+          + "AND coalesce(last_downloaded_at, created_at) < :before ORDER BY created_at LIMIT :limit")
+  Flux<Archive> findExpiredSetQueryArchives(
+      @Param("before") Long before, @Param("limit") Integer limit);
+
+  /** Failed and cancelled archives created before, shards are removed with their release */
+  @Query(
+      "SELECT * FROM archive WHERE status IN ('FAILED', 'CANCELLED') AND type <> 'ALL_SHARD' "
+          + "AND NOT pinned AND created_at < :before ORDER BY created_at LIMIT :limit")
+  Flux<Archive> findExpiredUnfinishedArchives(
+      @Param("before") Long before, @Param("limit") Integer limit);
+
+  @Query(
+      "SELECT * FROM archive WHERE content_sha256 = :contentSha256 AND codec = :codec "
+          + "AND status = 'COMPLETE' AND object_id IS NOT NULL AND id <> :id "
+          + "ORDER BY created_at DESC LIMIT 1")
+  Mono<Archive> findCompleteArchiveByContentSha256(
+      @Param("contentSha256") String contentSha256,
+      @Param("codec") String codec,
+      @Param("id") UUID id);
+
+  /** Marks the releases still building, other than the given ones, as cancelled */
+  @Query(
+      "UPDATE archive SET status = 'CANCELLED' WHERE type = 'ALL' AND status = 'BUILDING' "
+          + "AND id NOT IN (:ids) RETURNING *")
+  Flux<Archive> cancelBuildingReleasesExcept(@Param("ids") Collection<UUID> ids);
+
+  /** Objects of the given ones that are still used by archives other than the given ones */
+  @Query(
+      "SELECT object_id FROM archive WHERE object_id IN (:objectIds) AND id NOT IN (:archiveIds) "
+          + "UNION SELECT index_object_id FROM archive WHERE index_object_id IN (:objectIds) "
+          + "AND id NOT IN (:archiveIds)")
+  Flux<UUID> findObjectIdsInUse(
+      @Param("objectIds") Collection<UUID> objectIds,
+      @Param("archiveIds") Collection<UUID> archiveIds);
+
+  /** A complete archive of the same content and codec, whose object can be reused */
+  default Mono<Archive> findIdenticalCompleteArchive(
+      String contentSha256, ArchiveCodec codec, UUID id) {
+    return contentSha256 == null
+        ? Mono.empty()
+        : findCompleteArchiveByContentSha256(contentSha256, codec.name(), id);
+  }
+
+  default Mono<Archive> findLatestAllArchive(ArchiveCodec codec) {
+    return findTopByTypeAndStatusAndCodecOrderByCreatedAtDesc(
+        ArchiveType.ALL, ArchiveStatus.COMPLETE, codec);
   }
 
   default Mono<Archive> findCompletedArchiveById(UUID id) {
@@ -0,0 +1,69 @@
+package org.cancogenvirusseq.singularity.repository;
+
+import java.util.UUID;
+import org.cancogenvirusseq.singularity.repository.model.BuildQueueEntry;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+public interface BuildQueueRepo extends ReactiveCrudRepository<BuildQueueEntry, UUID> {
+
+  /**
+   * Adds an archive to the queue, or puts it back unclaimed if it is already there and no replica
+   * holds a live claim on it. A running build is left alone, and attempts are kept so that a build
+   * that keeps failing still runs out of attempts.
+   */
+  @Modifying
+  @Query(
+      "INSERT INTO build_queue (archive_id, query) VALUES (:archiveId, :query) "
+          + "ON CONFLICT (archive_id) DO UPDATE SET query = excluded.query, "
+          + "enqueued_at = extract(epoch from now()), claimed_by = NULL, "
+          + "lease_expires_at = NULL, heartbeat_at = NULL "
+          + "WHERE build_queue.claimed_by IS NULL "
+          + "OR build_queue.lease_expires_at < extract(epoch from now())")
+  Mono<Integer> enqueue(@Param("archiveId") UUID archiveId, @Param("query") String query);
+
+  /**
+   * Claims the oldest entry that is unclaimed or whose lease has expired. Rows locked by another
+   * replica's claim are skipped rather than waited on, so concurrent claims never block each other
+   * or claim the same entry.
+   */
+  @Query(
+      "UPDATE build_queue SET claimed_by = :instanceId, lease_expires_at = :leaseExpiresAt, "
+          + "heartbeat_at = :now, attempts = attempts + 1 "
+          + "WHERE archive_id = ("
+          + "SELECT archive_id FROM build_queue "
+          + "WHERE claimed_by IS NULL OR lease_expires_at < :now "
+          + "ORDER BY enqueued_at LIMIT 1 FOR UPDATE SKIP LOCKED) "
+          + "RETURNING *")
+  Mono<BuildQueueEntry> claimNext(
+      @Param("instanceId") String instanceId,
+      @Param("leaseExpiresAt") Long leaseExpiresAt,
+      @Param("now") Long now);
+
+  @Modifying
+  @Query(
+      "UPDATE build_queue SET lease_expires_at = :leaseExpiresAt, heartbeat_at = :now "
+          + "WHERE archive_id = :archiveId AND claimed_by = :instanceId")
+  Mono<Integer> heartbeat(
+      @Param("archiveId") UUID archiveId,
+      @Param("instanceId") String instanceId,
+      @Param("leaseExpiresAt") Long leaseExpiresAt,
+      @Param("now") Long now);
+
+  /** Puts a claimed entry back in the queue as if it had never been claimed */
+  @Modifying
+  @Query(
+      "UPDATE build_queue SET claimed_by = NULL, lease_expires_at = NULL, heartbeat_at = NULL, "
+          + "attempts = attempts - 1 WHERE archive_id = :archiveId AND claimed_by = :instanceId")
+  Mono<Integer> unclaim(
+      @Param("archiveId") UUID archiveId, @Param("instanceId") String instanceId);
+
+  /** Removes an entry once its build is over, unless another replica has since claimed it */
+  @Modifying
+  @Query("DELETE FROM build_queue WHERE archive_id = :archiveId AND claimed_by = :instanceId")
+  Mono<Integer> release(
+      @Param("archiveId") UUID archiveId, @Param("instanceId") String instanceId);
+}
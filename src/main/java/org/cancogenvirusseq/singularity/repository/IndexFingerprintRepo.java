@@ -0,0 +1,33 @@
+package org.cancogenvirusseq.singularity.repository;
+
+import org.cancogenvirusseq.singularity.repository.model.IndexFingerprint;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+public interface IndexFingerprintRepo extends ReactiveCrudRepository<IndexFingerprint, String> {
+
+  @Query(
+      "INSERT INTO index_fingerprint (name, last_updated_at, num_documents, max_seq_no, recorded_at) "
+          + "VALUES (:name, :lastUpdatedAt, :numDocuments, :maxSeqNo, :recordedAt) "
+          + "ON CONFLICT (name) DO UPDATE SET last_updated_at = excluded.last_updated_at, "
+          + "num_documents = excluded.num_documents, max_seq_no = excluded.max_seq_no, "
+          + "recorded_at = excluded.recorded_at "
+          + "RETURNING *")
+  Mono<IndexFingerprint> upsert(
+      @Param("name") String name,
+      @Param("lastUpdatedAt") Long lastUpdatedAt,
+      @Param("numDocuments") Long numDocuments,
+      @Param("maxSeqNo") Long maxSeqNo,
+      @Param("recordedAt") Long recordedAt);
+
+  default Mono<IndexFingerprint> record(IndexFingerprint fingerprint) {
+    return upsert(
+        fingerprint.getName(),
+        fingerprint.getLastUpdatedAt(),
+        fingerprint.getNumDocuments(),
+        fingerprint.getMaxSeqNo(),
+        fingerprint.getRecordedAt());
+  }
+}
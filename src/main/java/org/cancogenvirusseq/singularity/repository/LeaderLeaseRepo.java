@@ -0,0 +1,29 @@
+package org.cancogenvirusseq.singularity.repository;
+
+import org.cancogenvirusseq.singularity.repository.model.LeaderLease;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+public interface LeaderLeaseRepo extends ReactiveCrudRepository<LeaderLease, String> {
+
+  /**
+   * Takes the lease if it is free or expired, or renews it if already held by the holder. Empty
+   * when another holder has it. Expiry uses the database clock so replicas with skewed clocks agree.
+   */
+  @Query(
+      "INSERT INTO leader_lease (name, holder, expires_at) "
+          + "VALUES (:name, :holder, (extract(epoch from clock_timestamp()) * 1000)::bigint + :leaseMs) "
+          + "ON CONFLICT (name) DO UPDATE SET holder = excluded.holder, expires_at = excluded.expires_at "
+          + "WHERE leader_lease.holder = excluded.holder "
+          + "OR leader_lease.expires_at < (extract(epoch from clock_timestamp()) * 1000)::bigint "
+          + "RETURNING *")
+  Mono<LeaderLease> acquire(
+      @Param("name") String name, @Param("holder") String holder, @Param("leaseMs") Long leaseMs);
+
+  @Modifying
+  @Query("DELETE FROM leader_lease WHERE name = :name AND holder = :holder")
+  Mono<Integer> release(@Param("name") String name, @Param("holder") String holder);
+}
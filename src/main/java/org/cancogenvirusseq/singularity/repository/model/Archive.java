@@ -8,6 +8,7 @@ import lombok.*;
 import org.cancogenvirusseq.singularity.components.model.AllArchiveHashInfo;
 import org.cancogenvirusseq.singularity.components.model.CountAndLastUpdatedResult;
 import org.cancogenvirusseq.singularity.components.model.SetQueryArchiveHashInfo;
+import org.cancogenvirusseq.singularity.components.model.ShardArchiveHashInfo;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Table;
 
@@ -26,8 +27,32 @@ public class Archive {
 
   @NonNull private Long numOfSamples;
 
+  @Builder.Default private ArchiveCodec codec = ArchiveCodec.GZIP;
+
+  // the number of shards of a sharded ALL archive, whose own object is the shard manifest
+  private Integer shardCount;
+
+  // set on ALL_SHARD archives only
+  private UUID parentId;
+  private Integer shardIndex;
+
+  // size and checksums of the uploaded object
+  private Long sizeBytes;
+  private String sha256;
+  private String md5;
+
+  // digest of the samples in the archive, archives with the same content share their object
+  private String contentSha256;
+
+  // sample index uploaded next to archives assembled from gzip members
+  private UUID indexObjectId;
+
   // always initialized to zero when creating
   private Integer numOfDownloads;
+  private Long lastDownloadedAt;
+
+  // pinned archives are kept forever regardless of the retention policy
+  @Builder.Default private Boolean pinned = false;
 
   @RequiredArgsConstructor
   public enum Fields {
@@ -38,7 +63,8 @@ public class Archive {
     id("id"),
     numOfSamples("numOfSamples"),
     numOfDownloads("numOfDownloads"),
-    hash("hash");
+    hash("hash"),
+    codec("codec");
 
     private final String text;
 
@@ -48,17 +74,44 @@ public class Archive {
   }
 
   public static Archive newAllArchiveFromCountAndLastUpdatedResult(
-      CountAndLastUpdatedResult countAndLastUpdatedResult) {
+      CountAndLastUpdatedResult countAndLastUpdatedResult, ArchiveCodec codec) {
+    return newAllArchiveFromCountAndLastUpdatedResult(countAndLastUpdatedResult, codec, 1);
+  }
+
+  public static Archive newAllArchiveFromCountAndLastUpdatedResult(
+      CountAndLastUpdatedResult countAndLastUpdatedResult, ArchiveCodec codec, int shardCount) {
+    final Integer shards = shardCount > 1 ? shardCount : null;
     return Archive.builder()
         .status(ArchiveStatus.BUILDING)
         .type(ArchiveType.ALL)
+        .codec(codec)
+        .shardCount(shards)
         .hashInfo(
-            AllArchiveHashInfo.parseFromCountAndLastUpdatedResult(countAndLastUpdatedResult)
+            AllArchiveHashInfo.parseFromCountAndLastUpdatedResult(
+                    countAndLastUpdatedResult, codec, shards)
                 .toString())
-        .numOfSamples(countAndLastUpdatedResult.getNumDocuments().getValue())
+        .numOfSamples(countAndLastUpdatedResult.getNumDocuments())
         .build();
   }
 
+  public static Archive newShardFromArchive(Archive parent, int shardIndex) {
+    return Archive.builder()
+        .status(ArchiveStatus.BUILDING)
+        .type(ArchiveType.ALL_SHARD)
+        .codec(parent.getCodec())
+        .parentId(parent.getId())
+        .shardIndex(shardIndex)
+        .shardCount(parent.getShardCount())
+        .hashInfo(new ShardArchiveHashInfo(parent.getHash(), shardIndex).toString())
+        // only known once the shard is built
+        .numOfSamples(0L)
+        .build();
+  }
+
+  public boolean isSharded() {
+    return ArchiveType.ALL.equals(type) && shardCount != null;
+  }
+
   public static Archive newFromSetQueryArchiveHashInfo(
       SetQueryArchiveHashInfo setQueryArchiveHashInfo) {
     return Archive.builder()
@@ -71,17 +124,33 @@ public class Archive {
 
   public static Archive incrementDownloadsForArchive(Archive archive) {
     archive.setNumOfDownloads(archive.getNumOfDownloads() + 1);
+    archive.setLastDownloadedAt(Instant.now().getEpochSecond());
     return archive;
   }
 
   public static String parseFilenameFromArchive(Archive archive) {
-    if (archive.getType().equals(ArchiveType.ALL)) {
+    if (archive.isSharded()) {
+      return format(
+          "virusseq-data-release-%s-manifest%s",
+          Instant.ofEpochSecond(archive.getCreatedAt()),
+          archive.getCodec().getExtension());
+    } else if (archive.getType().equals(ArchiveType.ALL_SHARD)) {
+      return format(
+          "virusseq-data-release-%s-shard-%d-of-%d%s",
+          Instant.ofEpochSecond(archive.getCreatedAt()),
+          archive.getShardIndex() + 1,
+          archive.getShardCount(),
+          archive.getCodec().getExtension());
+    } else if (archive.getType().equals(ArchiveType.ALL)) {
       // for a download all entry, use the createdAt timestamp for the filename
       return format(
-          "virusseq-data-release-%s.tar.gz", Instant.ofEpochSecond(archive.getCreatedAt()));
+          "virusseq-data-release-%s%s",
+          Instant.ofEpochSecond(archive.getCreatedAt()),
+          archive.getCodec().getExtension());
     } else {
       // for all other export types just note that it's an export and the download time
-      return format("virusseq-search-export-%s.tar.gz", Instant.now());
+      return format(
+          "virusseq-search-export-%s%s", Instant.now(), archive.getCodec().getExtension());
     }
   }
 }
@@ -0,0 +1,37 @@
+package org.cancogenvirusseq.singularity.repository.model;
+
+import java.util.Arrays;
+import java.util.Optional;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum ArchiveCodec {
+  GZIP(".tar.gz", MediaTypes.GZIP),
+  ZSTD(".tar.zst", MediaTypes.ZSTD);
+
+  public static final class MediaTypes {
+    public static final String GZIP = "application/x-gtar";
+    public static final String ZSTD = "application/zstd";
+  }
+
+  private final String extension;
+  private final String mediaType;
+
+  /** Resolves a codec from a download format, either its name ("zstd") or extension ("tar.zst") */
+  public static Optional<ArchiveCodec> fromFormat(String format) {
+    return Arrays.stream(values())
+        .filter(
+            codec ->
+                codec.name().equalsIgnoreCase(format)
+                    || codec.getExtension().equalsIgnoreCase("." + format))
+        .findFirst();
+  }
+
+  public static Optional<ArchiveCodec> fromFilename(String filename) {
+    return Arrays.stream(values())
+        .filter(codec -> filename.endsWith(codec.getExtension()))
+        .findFirst();
+  }
+}
@@ -0,0 +1,13 @@
+package org.cancogenvirusseq.singularity.repository.model;
+
+import lombok.NonNull;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.WritingConverter;
+
+@WritingConverter
+public class ArchiveCodecConverter implements Converter<ArchiveCodec, ArchiveCodec> {
+  @Override
+  public ArchiveCodec convert(@NonNull ArchiveCodec source) {
+    return source;
+  }
+}
@@ -3,4 +3,6 @@ package org.cancogenvirusseq.singularity.repository.model;
 public enum ArchiveType {
   ALL,
   SET_QUERY,
+  // one part of a sharded ALL archive
+  ALL_SHARD,
 }
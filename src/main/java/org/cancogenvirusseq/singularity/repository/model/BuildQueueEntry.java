@@ -0,0 +1,24 @@
+package org.cancogenvirusseq.singularity.repository.model;
+
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Table("build_queue")
+public class BuildQueueEntry {
+  @Id private UUID archiveId;
+  private String query;
+  private Long enqueuedAt;
+  private Integer attempts;
+
+  // the replica building the archive, and until when its claim holds
+  private String claimedBy;
+  private Long leaseExpiresAt;
+  private Long heartbeatAt;
+}
@@ -0,0 +1,34 @@
+package org.cancogenvirusseq.singularity.repository.model;
+
+import java.util.Objects;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+/**
+ * A cheap summary of the data generation of an index: the latest document update, the number of
+ * documents and the sequence numbers of its shards. Any publish, update or suppression changes at
+ * least one of them.
+ */
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@Table("index_fingerprint")
+public class IndexFingerprint {
+  @Id private String name;
+  private Long lastUpdatedAt;
+  private Long numDocuments;
+  // unknown when the index stats couldn't be read
+  private Long maxSeqNo;
+  private Long recordedAt;
+
+  /** Whether both fingerprints describe the same data, regardless of when they were recorded */
+  public boolean sameDataAs(IndexFingerprint other) {
+    return other != null
+        && Objects.equals(lastUpdatedAt, other.lastUpdatedAt)
+        && Objects.equals(numDocuments, other.numDocuments)
+        && Objects.equals(maxSeqNo, other.maxSeqNo);
+  }
+}
@@ -0,0 +1,17 @@
+package org.cancogenvirusseq.singularity.repository.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Table("leader_lease")
+public class LeaderLease {
+  @Id private String name;
+  private String holder;
+  private Long expiresAt;
+}
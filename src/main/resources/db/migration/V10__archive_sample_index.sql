@@ -0,0 +1,2 @@
+-- object of the sample index of an archive, single samples are read from the archive through it
+ALTER TABLE archive ADD COLUMN index_object_id uuid;
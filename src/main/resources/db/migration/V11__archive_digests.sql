@@ -0,0 +1,6 @@
+ALTER TABLE archive
+    ADD COLUMN md5            VARCHAR,
+    ADD COLUMN content_sha256 VARCHAR;
+
+-- finds an archive with the same content whose object can be reused
+CREATE INDEX archive_content_sha256_index ON archive (content_sha256);
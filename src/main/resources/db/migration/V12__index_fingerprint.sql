@@ -0,0 +1,13 @@
+-- last seen fingerprint of an index, a release is only built once the fingerprint changes
+CREATE TABLE if not exists index_fingerprint
+(
+    name            VARCHAR NOT NULL,
+    -- epoch millis of the most recently updated document
+    last_updated_at bigint,
+    num_documents   bigint  NOT NULL,
+    -- sum of the max sequence numbers of the primary shards, it moves on every write and delete
+    max_seq_no      bigint,
+    -- epoch millis
+    recorded_at     bigint  NOT NULL,
+    PRIMARY KEY (name)
+);
@@ -0,0 +1,15 @@
+-- tells every replica the moment an archive is cancelled, so the one building it can stop
+CREATE OR REPLACE FUNCTION notify_archive_cancelled() RETURNS trigger AS
+$$
+BEGIN
+    PERFORM pg_notify('archive_cancelled', NEW.id::text);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER archive_cancelled_notify
+    AFTER UPDATE OF status
+    ON archive
+    FOR EACH ROW
+    WHEN (NEW.status = 'CANCELLED' AND OLD.status IS DISTINCT FROM NEW.status)
+EXECUTE PROCEDURE notify_archive_cancelled();
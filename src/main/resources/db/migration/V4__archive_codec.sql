@@ -0,0 +1,3 @@
+CREATE TYPE archive_codec as enum ('GZIP', 'ZSTD');
+
+ALTER TABLE archive ADD COLUMN codec archive_codec NOT NULL DEFAULT 'GZIP';
@@ -0,0 +1 @@
+ALTER TYPE archive_type ADD VALUE 'ALL_SHARD';
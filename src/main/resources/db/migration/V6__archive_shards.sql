@@ -0,0 +1,9 @@
+-- a sharded release is a manifest archive (shard_count set) with one ALL_SHARD archive per shard
+ALTER TABLE archive
+    ADD COLUMN parent_id   uuid REFERENCES archive (id) ON DELETE CASCADE,
+    ADD COLUMN shard_index int,
+    ADD COLUMN shard_count int,
+    ADD COLUMN size_bytes  bigint,
+    ADD COLUMN sha256      VARCHAR;
+
+CREATE INDEX archive_parent_id_index ON archive (parent_id);
@@ -0,0 +1,15 @@
+-- archive builds waiting for, or claimed by, a replica
+CREATE TABLE if not exists build_queue
+(
+    archive_id       uuid    NOT NULL REFERENCES archive (id) ON DELETE CASCADE,
+    -- the elasticsearch query the archive is built from, as json
+    query            VARCHAR NOT NULL,
+    enqueued_at      bigint  NOT NULL DEFAULT extract(epoch from now()),
+    attempts         int     NOT NULL DEFAULT 0,
+    claimed_by       VARCHAR,
+    lease_expires_at bigint,
+    heartbeat_at     bigint,
+    PRIMARY KEY (archive_id)
+);
+
+CREATE INDEX build_queue_enqueued_at_index ON build_queue (enqueued_at);
@@ -0,0 +1,9 @@
+-- one row per leadership, held by the replica that last acquired or renewed it
+CREATE TABLE if not exists leader_lease
+(
+    name       VARCHAR NOT NULL,
+    holder     VARCHAR NOT NULL,
+    -- epoch millis, by the database clock
+    expires_at bigint  NOT NULL,
+    PRIMARY KEY (name)
+);
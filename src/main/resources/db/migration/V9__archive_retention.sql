@@ -0,0 +1,7 @@
+-- pinned archives are never removed by retention
+ALTER TABLE archive ADD COLUMN pinned boolean NOT NULL DEFAULT false;
+
+-- set query archives expire some time after they were last downloaded
+ALTER TABLE archive ADD COLUMN last_downloaded_at bigint;
+
+CREATE INDEX if not exists archive_type_status_created_at ON archive (type, status, created_at);
@@ -0,0 +1,70 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import lombok.val;
+import org.cancogenvirusseq.singularity.components.model.AnalysisChangeSet;
+import org.cancogenvirusseq.singularity.components.model.SongAnalysisMessage;
+import org.junit.jupiter.api.Test;
+
+public class AnalysisChangeSetTest {
+
+  @Test
+  public void testMessagesAreGroupedByChangeType() {
+    val changeSet =
+        AnalysisChangeSet.fromMessages(
+            List.of(
+                message("a", "PUBLISHED", "PUBLISH"),
+                message("b", "PUBLISHED", "UPDATE"),
+                message("c", "UNPUBLISHED", "UNPUBLISH"),
+                message("d", "UNPUBLISHED", "CREATE")));
+
+    assertEquals(Set.of("a"), changeSet.getAdded());
+    assertEquals(Set.of("b"), changeSet.getUpdated());
+    assertEquals(Set.of("c"), changeSet.getSuppressed());
+    assertEquals(3, changeSet.size());
+  }
+
+  @Test
+  public void testLatestMessagePerAnalysisWins() {
+    val changeSet =
+        AnalysisChangeSet.fromMessages(
+            List.of(
+                message("a", "PUBLISHED", "PUBLISH"), message("a", "SUPPRESSED", "SUPPRESS")));
+
+    assertTrue(changeSet.getAdded().isEmpty());
+    assertEquals(Set.of("a"), changeSet.getSuppressed());
+  }
+
+  @Test
+  public void testUnpublishedAnalysesAreIgnored() {
+    assertTrue(
+        AnalysisChangeSet.fromMessages(List.of(message("a", "UNPUBLISHED", "CREATE"))).isEmpty());
+  }
+
+  @Test
+  public void testLaterChangeSetWinsWhenMerged() {
+    val merged =
+        AnalysisChangeSet.fromMessages(
+                List.of(message("a", "PUBLISHED", "PUBLISH"), message("b", "PUBLISHED", "PUBLISH")),
+                1)
+            .merge(AnalysisChangeSet.fromMessages(List.of(message("a", "SUPPRESSED", "SUPPRESS"))));
+
+    assertEquals(Set.of("b"), merged.getAdded());
+    assertEquals(Set.of("a"), merged.getSuppressed());
+    assertEquals(Set.of("a", "b"), merged.getAnalysisIds());
+    assertFalse(merged.isComplete());
+  }
+
+  private static SongAnalysisMessage message(String analysisId, String state, String action) {
+    val message = new SongAnalysisMessage();
+    message.setAnalysisId(analysisId);
+    message.setState(state);
+    message.setAction(action);
+    return message;
+  }
+}
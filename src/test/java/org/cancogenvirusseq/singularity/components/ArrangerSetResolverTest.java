@@ -0,0 +1,68 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.cancogenvirusseq.singularity.components.base.ArrangerSetResolver;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.junit.jupiter.api.Test;
+
+public class ArrangerSetResolverTest {
+  private static final String ARRANGER_SETS_INDEX = "arranger-sets";
+
+  @Test
+  public void testSetIsRecognizedBeforeAndAfterTheBuildQueue() {
+    final UUID setId = UUID.randomUUID();
+    final QueryBuilder setQuery =
+        ArrangerSetResolver.arrangerSetTermsQuery(ARRANGER_SETS_INDEX, setId);
+
+    assertEquals(
+        Optional.of(setId), ArrangerSetResolver.arrangerSetIdOf(setQuery, ARRANGER_SETS_INDEX));
+    // queued builds are read back as wrapper queries of the query json
+    assertEquals(
+        Optional.of(setId),
+        ArrangerSetResolver.arrangerSetIdOf(
+            QueryBuilders.wrapperQuery(setQuery.toString()), ARRANGER_SETS_INDEX));
+    assertEquals(
+        Optional.empty(), ArrangerSetResolver.arrangerSetIdOf(setQuery, "other-sets-index"));
+    assertEquals(
+        Optional.empty(),
+        ArrangerSetResolver.arrangerSetIdOf(
+            QueryBuilders.rangeQuery("analysis.updated_at").to(0), ARRANGER_SETS_INDEX));
+  }
+
+  @Test
+  public void testNoSetIsRecognizedWithoutASetsIndex() {
+    final QueryBuilder setQuery =
+        ArrangerSetResolver.arrangerSetTermsQuery(ARRANGER_SETS_INDEX, UUID.randomUUID());
+
+    // deployments without arranger sets leave the index unset
+    assertEquals(Optional.empty(), ArrangerSetResolver.arrangerSetIdOf(setQuery, null));
+    assertEquals(
+        Optional.empty(),
+        ArrangerSetResolver.arrangerSetIdOf(QueryBuilders.matchAllQuery(), null));
+  }
+
+  @Test
+  public void testSlicesOfChunksCoverEachIdOnce() {
+    final List<String> ids =
+        IntStream.range(0, 10_500).mapToObj(Integer::toString).collect(Collectors.toList());
+
+    assertEquals(11, ArrangerSetResolver.chunks(ids, 1000, null).size());
+    assertEquals(
+        ids,
+        IntStream.range(0, 3)
+            .mapToObj(
+                sliceId -> ArrangerSetResolver.chunks(ids, 1000, new SliceBuilder(sliceId, 3)))
+            .flatMap(List::stream)
+            .flatMap(List::stream)
+            .sorted((a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)))
+            .collect(Collectors.toList()));
+  }
+}
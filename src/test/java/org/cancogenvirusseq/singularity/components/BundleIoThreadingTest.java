@@ -0,0 +1,119 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import lombok.SneakyThrows;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocumentMolecularDataPair;
+import org.cancogenvirusseq.singularity.components.utils.FileBundleUtils;
+import org.cancogenvirusseq.singularity.components.utils.ScratchSpace;
+import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveType;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Builds an archive from pairs that arrive on Netty event loop threads, like S3 responses do, and
+ * checks that none of the blocking bundle writes happen on those threads.
+ */
+public class BundleIoThreadingTest {
+  private static final int GENOMES = 200;
+
+  @TempDir Path scratchDirectory;
+
+  private NioEventLoopGroup eventLoops;
+  private String[] previousScratchDirectories;
+
+  @BeforeEach
+  public void setUp() {
+    eventLoops = new NioEventLoopGroup(2);
+    previousScratchDirectories =
+        ScratchSpace.getDirectories().stream().map(Path::toString).toArray(String[]::new);
+    new ScratchSpace().setDirectories(new String[] {scratchDirectory.toString()});
+    new TsvUtils().setListSeparator(";");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    new ScratchSpace().setDirectories(previousScratchDirectories);
+    eventLoops.shutdownGracefully();
+  }
+
+  @Test
+  public void testBundleIsNotWrittenOnEventLoops() {
+    final ObjectMapper objectMapper = new ObjectMapper();
+    final Set<Thread> writingThreads = ConcurrentHashMap.newKeySet();
+    final Archive archive =
+        Archive.builder()
+            .id(UUID.randomUUID())
+            .status(ArchiveStatus.BUILDING)
+            .type(ArchiveType.SET_QUERY)
+            .hashInfo("test")
+            .numOfSamples((long) GENOMES)
+            .build();
+
+    final Path archivePath =
+        Flux.range(0, GENOMES)
+            .publishOn(Schedulers.fromExecutor(eventLoops))
+            .map(
+                i ->
+                    (AnalysisDocumentMolecularDataPair)
+                        new AnalysisDocumentMolecularDataPair(
+                            readDocument(objectMapper, i), SyntheticAnalysisDocuments.fasta(i)) {
+                          @Override
+                          public byte[] getMolecularData() {
+                            // read by the bundle as it writes the record to the fasta file
+                            writingThreads.add(Thread.currentThread());
+                            return super.getMolecularData();
+                          }
+                        })
+            .transform(
+                FileBundleUtils.createFileBundleFromPairsWithArchive(
+                    archive, new ArchiveMetrics(new SimpleMeterRegistry())))
+            .blockLast();
+
+    assertTrue(Files.exists(archivePath));
+    // the digests computed while the archive was written match the archive on disk
+    assertEquals(FileBundleUtils.sha256Hex(archivePath), archive.getSha256());
+    assertEquals(FileBundleUtils.md5Hex(archivePath), archive.getMd5());
+    assertFalse(writingThreads.isEmpty());
+    assertEquals(
+        Set.of(),
+        writingThreads.stream().filter(this::isEventLoop).collect(Collectors.toSet()),
+        "bundle written on event loop threads");
+    assertTrue(
+        writingThreads.stream().allMatch(thread -> thread.getName().startsWith("bundle-io")));
+  }
+
+  private boolean isEventLoop(Thread thread) {
+    return StreamSupport.stream(eventLoops.spliterator(), false)
+        .anyMatch(eventLoop -> ((EventExecutor) eventLoop).inEventLoop(thread));
+  }
+
+  @SneakyThrows
+  private static AnalysisDocument readDocument(ObjectMapper objectMapper, long index) {
+    return objectMapper.readValue(
+        SyntheticAnalysisDocuments.sourceJson(index), AnalysisDocument.class);
+  }
+}
@@ -0,0 +1,68 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import lombok.val;
+import org.cancogenvirusseq.singularity.components.events.EventCoalescer;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class EventCoalescerTest {
+  private static final Duration QUIET_PERIOD = Duration.ofSeconds(60);
+  private static final Duration MAX_WAIT = Duration.ofSeconds(300);
+
+  @Test
+  public void testBurstIsCoalescedIntoFinalEvent() {
+    val meterRegistry = new SimpleMeterRegistry();
+
+    StepVerifier.withVirtualTime(
+            () ->
+                Flux.just(1, 2, 3)
+                    .concatWith(Flux.never())
+                    .transform(coalescer(meterRegistry)))
+        .expectSubscription()
+        .expectNoEvent(QUIET_PERIOD.minusSeconds(1))
+        .thenAwait(Duration.ofSeconds(1))
+        .expectNext(3)
+        .thenCancel()
+        .verify();
+
+    assertEquals(
+        3.0, meterRegistry.get("singularity.events.coalesced").summary().totalAmount());
+  }
+
+  @Test
+  public void testContinuousStreamIsNotStarved() {
+    StepVerifier.withVirtualTime(
+            () ->
+                // an event every 10 seconds never leaves a quiet period
+                Flux.interval(Duration.ofSeconds(10))
+                    .transform(coalescer(new SimpleMeterRegistry())))
+        .expectSubscription()
+        // first event arrives after 10 seconds, the trigger is due max wait after that
+        .expectNoEvent(MAX_WAIT.plusSeconds(9))
+        .thenAwait(Duration.ofSeconds(1))
+        .expectNextCount(1)
+        .thenAwait(MAX_WAIT.plusSeconds(10))
+        .expectNextCount(1)
+        .thenCancel()
+        .verify();
+  }
+
+  @Test
+  public void testPendingEventIsFlushedOnComplete() {
+    StepVerifier.withVirtualTime(
+            () -> Flux.just("a", "b").transform(coalescer(new SimpleMeterRegistry())))
+        .expectNext("b")
+        .verifyComplete();
+  }
+
+  private static <T> EventCoalescer<T> coalescer(SimpleMeterRegistry meterRegistry) {
+    return new EventCoalescer<>(
+        "test", QUIET_PERIOD, MAX_WAIT, Schedulers.parallel(), meterRegistry);
+  }
+}
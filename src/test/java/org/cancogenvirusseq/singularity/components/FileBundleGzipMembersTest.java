@@ -0,0 +1,130 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import lombok.SneakyThrows;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocument;
+import org.cancogenvirusseq.singularity.components.model.AnalysisDocumentMolecularDataPair;
+import org.cancogenvirusseq.singularity.components.model.FileBundle;
+import org.cancogenvirusseq.singularity.components.model.SampleIndex;
+import org.cancogenvirusseq.singularity.components.utils.FileBundleUtils;
+import org.cancogenvirusseq.singularity.components.utils.GzipMembers;
+import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileBundleGzipMembersTest {
+  private static final int GENOMES = 25;
+
+  @TempDir Path scratchDirectory;
+
+  @Test
+  public void testAssembledArchiveMatchesCompressedArchive() throws IOException {
+    new TsvUtils().setListSeparator(";");
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    final FileBundle compressed = newBundle();
+    final FileBundle assembled = newBundle();
+    for (int i = 0; i < GENOMES; i++) {
+      final AnalysisDocument document = readDocument(objectMapper, i);
+      // an odd length so the fasta entry has to be padded to the tar record size
+      final byte[] record = SyntheticAnalysisDocuments.fasta(i, 1001 + i);
+      FileBundleUtils.addDownloadPairToFileBundle.apply(
+          compressed, new AnalysisDocumentMolecularDataPair(document, record));
+      FileBundleUtils.addDownloadPairToFileBundle.apply(
+          assembled,
+          AnalysisDocumentMolecularDataPair.fromGzipMember(
+              document, GzipMembers.compress(record)));
+    }
+
+    final List<byte[]> expected =
+        entryContents(FileBundleUtils.tarGzipArchiveAndClose.apply(compressed));
+    final List<byte[]> actual =
+        entryContents(FileBundleUtils.tarGzipArchiveAndClose.apply(assembled));
+
+    assertEquals(2, actual.size());
+    assertArrayEquals(expected.get(0), actual.get(0));
+    assertArrayEquals(expected.get(1), actual.get(1));
+  }
+
+  @Test
+  public void testSampleIndexLocatesEachRecordInTheArchive() throws IOException {
+    new TsvUtils().setListSeparator(";");
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    final FileBundle assembled = newBundle();
+    final List<AnalysisDocument> documents = new ArrayList<>();
+    for (int i = 0; i < GENOMES; i++) {
+      final AnalysisDocument document = readDocument(objectMapper, i);
+      documents.add(document);
+      FileBundleUtils.addDownloadPairToFileBundle.apply(
+          assembled,
+          AnalysisDocumentMolecularDataPair.fromGzipMember(
+              document, GzipMembers.compress(SyntheticAnalysisDocuments.fasta(i, 1001 + i))));
+    }
+
+    final Path archivePath = FileBundleUtils.tarGzipArchiveAndClose.apply(assembled);
+    final byte[] archive = Files.readAllBytes(archivePath);
+    final SampleIndex sampleIndex =
+        SampleIndex.read(
+            Files.readAllBytes(scratchDirectory.resolve(assembled.getSampleIndexFilename())));
+
+    assertEquals(GENOMES, sampleIndex.size());
+    for (int i = 0; i < GENOMES; i++) {
+      final SampleIndex.Entry entry =
+          sampleIndex.find(documents.get(i).getObjectId().asText()).orElseThrow();
+      final byte[] member =
+          Arrays.copyOfRange(
+              archive, (int) entry.getOffset(), (int) (entry.getOffset() + entry.getLength()));
+      assertArrayEquals(
+          SyntheticAnalysisDocuments.fasta(i, 1001 + i), GzipMembers.decompress(member));
+    }
+  }
+
+  @Test
+  public void testUncompressedSizeIsReadFromTheTrailer() {
+    final byte[] record = SyntheticAnalysisDocuments.fasta(7);
+    assertEquals(record.length, GzipMembers.uncompressedSize(GzipMembers.compress(record)));
+  }
+
+  private FileBundle newBundle() {
+    return new FileBundle(UUID.randomUUID(), ArchiveCodec.GZIP, scratchDirectory);
+  }
+
+  private static List<byte[]> entryContents(Path archive) throws IOException {
+    final List<byte[]> contents = new ArrayList<>();
+    try (TarArchiveInputStream tarInputStream =
+        new TarArchiveInputStream(
+            // every gzip member is read, not just the first one
+            new GzipCompressorInputStream(
+                new BufferedInputStream(Files.newInputStream(archive)), true))) {
+      TarArchiveEntry entry;
+      while ((entry = tarInputStream.getNextTarEntry()) != null) {
+        contents.add(IOUtils.toByteArray(tarInputStream));
+      }
+    }
+    return contents;
+  }
+
+  @SneakyThrows
+  private static AnalysisDocument readDocument(ObjectMapper objectMapper, long index) {
+    return objectMapper.readValue(
+        SyntheticAnalysisDocuments.sourceJson(index), AnalysisDocument.class);
+  }
+}
@@ -0,0 +1,46 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Clients;
+import org.cancogenvirusseq.singularity.config.s3Client.S3Workload;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+public class S3ClientsTest {
+
+  @Test
+  public void testWorkloadsShareBandwidthByWeight() {
+    final S3ClientProperties s3props = new S3ClientProperties();
+    s3props.setMaxConcurrency(64);
+    s3props.setAcquisitionTimeoutMs(30000L);
+    s3props.setMaxBytesPerSecond(4000L);
+    s3props.setWorkloads(
+        Map.of(
+            S3Workload.BUILD_ALL, new S3ClientProperties.Workload(null, null, 3),
+            S3Workload.SERVE, new S3ClientProperties.Workload(8, null, 1)));
+    final S3Clients s3Clients = new S3Clients(s3props, workload -> null);
+
+    assertEquals(64, s3Clients.getMaxConcurrency(S3Workload.BUILD_ALL));
+    assertEquals(8, s3Clients.getMaxConcurrency(S3Workload.SERVE));
+
+    // serving gets 1/5 of the bandwidth (800 bytes/s), the first download isn't held back but the
+    // next one has to wait for it to be paid back
+    StepVerifier.create(s3Clients.throttle(S3Workload.SERVE, 1600))
+        .expectComplete()
+        .verify(Duration.ofMillis(100));
+    final long startedAt = System.nanoTime();
+    StepVerifier.create(s3Clients.throttle(S3Workload.SERVE, 1)).expectComplete().verify();
+    final long waitedMs = Duration.ofNanos(System.nanoTime() - startedAt).toMillis();
+    assertTrue(waitedMs >= 1500 && waitedMs < 3000, "waited " + waitedMs + "ms");
+
+    // other workloads have shares of their own
+    StepVerifier.create(s3Clients.throttle(S3Workload.BUILD_ALL, 2400))
+        .expectComplete()
+        .verify(Duration.ofMillis(100));
+  }
+}
@@ -0,0 +1,53 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.cancogenvirusseq.singularity.components.utils.StreamingTarGzip;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+import org.junit.jupiter.api.Test;
+
+public class StreamingTarGzipTest {
+
+  @Test
+  public void testEachEntryIsStreamedAsItIsPut() throws IOException {
+    final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    final List<byte[]> records = new ArrayList<>();
+
+    try (StreamingTarGzip tarGzip = new StreamingTarGzip()) {
+      for (int i = 0; i < 10; i++) {
+        final byte[] record = SyntheticAnalysisDocuments.fasta(i, 1001 + i);
+        records.add(record);
+        final ByteBuffer compressed = tarGzip.putEntry("fasta/" + i + ".fasta", record);
+        // nothing is held back until the archive is finished
+        assertTrue(compressed.hasRemaining());
+        archive.write(compressed.array());
+      }
+      archive.write(tarGzip.finish().array());
+    }
+
+    try (TarArchiveInputStream tarInputStream =
+        new TarArchiveInputStream(
+            new GzipCompressorInputStream(new ByteArrayInputStream(archive.toByteArray())))) {
+      TarArchiveEntry entry;
+      int entries = 0;
+      while ((entry = tarInputStream.getNextTarEntry()) != null) {
+        assertEquals("fasta/" + entries + ".fasta", entry.getName());
+        assertArrayEquals(records.get(entries), IOUtils.toByteArray(tarInputStream));
+        entries++;
+      }
+      assertEquals(records.size(), entries);
+    }
+  }
+}
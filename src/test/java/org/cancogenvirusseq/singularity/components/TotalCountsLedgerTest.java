@@ -0,0 +1,44 @@
+package org.cancogenvirusseq.singularity.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.util.List;
+import lombok.val;
+import org.cancogenvirusseq.singularity.components.model.TotalCountsLedger;
+import org.cancogenvirusseq.singularity.components.model.TotalCountsLedger.FileCounts;
+import org.junit.jupiter.api.Test;
+
+public class TotalCountsLedgerTest {
+
+  @Test
+  public void testSharedStudiesAndSamplesAreCountedOnce() {
+    val ledger = new TotalCountsLedger();
+    ledger.put("a", List.of(new FileCounts("a", "STUDY1", 100L, List.of("donor1"))));
+    ledger.put("b", List.of(new FileCounts("b", "STUDY1", 50L, List.of("donor1", "donor2"))));
+
+    val totalCounts = ledger.toTotalCounts(Instant.ofEpochMilli(1));
+    assertEquals(2L, totalCounts.getFiles());
+    assertEquals(150L, totalCounts.getFileSizeBytes());
+    assertEquals(1, totalCounts.getStudies());
+    assertEquals(2L, totalCounts.getSamples());
+  }
+
+  @Test
+  public void testChangedAnalysesReplaceTheirCounts() {
+    val ledger = new TotalCountsLedger();
+    ledger.put("a", List.of(new FileCounts("a", "STUDY1", 100L, List.of("donor1"))));
+    ledger.put("b", List.of(new FileCounts("b", "STUDY2", 50L, List.of("donor2"))));
+
+    // a is updated and b suppressed, putting the same change again changes nothing more
+    ledger.put("a", List.of(new FileCounts("a", "STUDY1", 120L, List.of("donor1"))));
+    ledger.put("b", List.of());
+    ledger.put("b", List.of());
+
+    val totalCounts = ledger.toTotalCounts(Instant.ofEpochMilli(1));
+    assertEquals(1L, totalCounts.getFiles());
+    assertEquals(120L, totalCounts.getFileSizeBytes());
+    assertEquals(1, totalCounts.getStudies());
+    assertEquals(1L, totalCounts.getSamples());
+  }
+}
@@ -0,0 +1,290 @@
+package org.cancogenvirusseq.singularity.loadtest;
+
+import static java.lang.String.format;
+import static org.cancogenvirusseq.singularity.components.model.FileBundle.FILE_NAME_TEMPLATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.cancogenvirusseq.singularity.components.base.ArrangerSetResolver;
+import org.cancogenvirusseq.singularity.components.base.CountAndLastUpdatedAggregation;
+import org.cancogenvirusseq.singularity.components.base.DownloadMolecularDataToPair;
+import org.cancogenvirusseq.singularity.components.base.ElasticSearchScroll;
+import org.cancogenvirusseq.singularity.components.base.FileBundleUpload;
+import org.cancogenvirusseq.singularity.components.base.GetArrangerSetDocument;
+import org.cancogenvirusseq.singularity.components.cache.GzipMemberCache;
+import org.cancogenvirusseq.singularity.components.hoc.ArchiveBuildRequestToArchive;
+import org.cancogenvirusseq.singularity.components.hoc.ArchiveBuildRequestToShardedArchive;
+import org.cancogenvirusseq.singularity.components.metrics.ArchiveMetrics;
+import org.cancogenvirusseq.singularity.components.model.ArchiveBuildRequest;
+import org.cancogenvirusseq.singularity.components.notifications.archives.ArchiveNotifier;
+import org.cancogenvirusseq.singularity.components.progress.BuildProgressRegistry;
+import org.cancogenvirusseq.singularity.components.utils.ExistingArchiveUtils;
+import org.cancogenvirusseq.singularity.components.utils.ScratchSpace;
+import org.cancogenvirusseq.singularity.components.utils.TsvUtils;
+import org.cancogenvirusseq.singularity.config.archive.ArchiveProperties;
+import org.cancogenvirusseq.singularity.config.archive.MemberCacheProperties;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ElasticsearchProperties;
+import org.cancogenvirusseq.singularity.config.elasticsearch.ReactiveElasticSearchClientConfig;
+import org.cancogenvirusseq.singularity.config.s3Client.S3ClientConfiguration;
+import org.cancogenvirusseq.singularity.config.s3Client.S3ClientProperties;
+import org.cancogenvirusseq.singularity.repository.ArchivesRepo;
+import org.cancogenvirusseq.singularity.repository.model.Archive;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveCodec;
+import org.cancogenvirusseq.singularity.repository.model.ArchiveStatus;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+
+/**
+ * Builds an archive end to end through ArchiveBuildRequestToArchive against in-process stand-ins
+ * for Elasticsearch and object storage, with Postgres mocked out, and reports throughput, peak heap
+ * and peak disk usage. Only runs when a corpus size is given, ex:
+ *
+ * <pre>
+ * mvn test -Dtest=ArchiveBuildLoadTest -Dloadtest.genomes=100000 -Dloadtest.s3LatencyMs=20
+ * </pre>
+ *
+ * Other settings: loadtest.genomeLength (bases per genome), loadtest.s3BandwidthBytesPerSecond
+ * (per connection, 0 for unlimited), loadtest.esLatencyMs, loadtest.scrollPageSize,
+ * loadtest.s3MaxConcurrency, loadtest.codec (GZIP or ZSTD), loadtest.shards and
+ * loadtest.memberCache (a directory to cache gzip members in, kept between runs so that a second
+ * run shows a rebuild from cached members).
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "loadtest.genomes", matches = "\\d+")
+public class ArchiveBuildLoadTest {
+  private static final Duration SAMPLE_INTERVAL = Duration.ofMillis(100);
+
+  @Test
+  public void buildArchive() throws Exception {
+    final SyntheticCorpus corpus =
+        new SyntheticCorpus(
+            Long.getLong("loadtest.genomes"), Integer.getInteger("loadtest.genomeLength", 29_903));
+
+    try (FakeElasticsearchServer elasticsearch =
+            new FakeElasticsearchServer(
+                corpus, Duration.ofMillis(Long.getLong("loadtest.esLatencyMs", 0)));
+        FakeS3Server s3 =
+            new FakeS3Server(
+                corpus,
+                Duration.ofMillis(Long.getLong("loadtest.s3LatencyMs", 0)),
+                Long.getLong("loadtest.s3BandwidthBytesPerSecond", 0))) {
+
+      final ElasticsearchProperties elasticsearchProperties = new ElasticsearchProperties();
+      elasticsearchProperties.setHost("localhost");
+      elasticsearchProperties.setPort(elasticsearch.getPort());
+      elasticsearchProperties.setUseHttps(false);
+      elasticsearchProperties.setUseAuthentication(false);
+      elasticsearchProperties.setFileCentricIndex("file_centric");
+      elasticsearchProperties.setArrangerSetsIndex("arranger-sets");
+      elasticsearchProperties.setScrollTimeoutMinutes(10L);
+      elasticsearchProperties.setScrollPageSize(Integer.getInteger("loadtest.scrollPageSize", 10));
+
+      final S3ClientProperties s3ClientProperties = new S3ClientProperties();
+      s3ClientProperties.setEndpoint(s3.getEndpoint());
+      s3ClientProperties.setAccessKeyId("loadtest");
+      s3ClientProperties.setSecretAccessKey("loadtest");
+      s3ClientProperties.setBucket("loadtest");
+      s3ClientProperties.setDataDir("data");
+      s3ClientProperties.setMaxConcurrency(Integer.getInteger("loadtest.s3MaxConcurrency", 64));
+      s3ClientProperties.setAcquisitionTimeoutMs(30_000L);
+
+      final ArchiveProperties archiveProperties = new ArchiveProperties();
+      archiveProperties.setProgressIntervalMs(1000L);
+
+      new TsvUtils().setListSeparator(";");
+
+      final MemberCacheProperties memberCacheProperties = new MemberCacheProperties();
+      memberCacheProperties.setEnabled(System.getProperty("loadtest.memberCache") != null);
+      memberCacheProperties.setDirectory(
+          System.getProperty("loadtest.memberCache", memberCacheProperties.getDirectory()));
+      final GzipMemberCache gzipMemberCache =
+          new GzipMemberCache(memberCacheProperties, new SimpleMeterRegistry());
+      gzipMemberCache.init();
+
+      final ReactiveElasticSearchClientConfig elasticSearchClientConfig =
+          new ReactiveElasticSearchClientConfig(elasticsearchProperties);
+      final S3ClientConfiguration s3ClientConfiguration = new S3ClientConfiguration();
+      final AwsCredentialsProvider credentialsProvider =
+          s3ClientConfiguration.awsCredentialsProvider(s3ClientProperties);
+      final ArchiveMetrics archiveMetrics = new ArchiveMetrics(new SimpleMeterRegistry());
+
+      final ArchivesRepo archivesRepo = mock(ArchivesRepo.class);
+      when(archivesRepo.findByArchiveObject(any()))
+          .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+      when(archivesRepo.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+      when(archivesRepo.findArchiveByHashInfoEquals(any())).thenReturn(Mono.empty());
+      when(archivesRepo.findIdenticalCompleteArchive(any(), any(), any())).thenReturn(Mono.empty());
+
+      // every archive written to disk by the build, the release and any shards
+      final Set<UUID> archiveIds = ConcurrentHashMap.newKeySet();
+      final ExistingArchiveUtils existingArchiveUtils = mock(ExistingArchiveUtils.class);
+      when(existingArchiveUtils.createNewOrResetExistingArchiveInDatabase(any()))
+          .thenAnswer(
+              invocation -> {
+                final Archive shard = invocation.getArgument(0);
+                shard.setId(UUID.randomUUID());
+                shard.setCreatedAt(Instant.now().getEpochSecond());
+                archiveIds.add(shard.getId());
+                return Mono.just(shard);
+              });
+
+      final ArrangerSetResolver arrangerSetResolver =
+          new ArrangerSetResolver(
+              elasticsearchProperties,
+              new GetArrangerSetDocument(
+                  elasticsearchProperties, elasticSearchClientConfig, new ObjectMapper()));
+      final FileBundleUpload fileBundleUpload =
+          new FileBundleUpload(
+              s3ClientConfiguration.s3Presigner(s3ClientProperties, credentialsProvider),
+              s3ClientProperties,
+              archiveMetrics);
+      final ArchiveBuildRequestToArchive archiveBuildRequestToArchive =
+          new ArchiveBuildRequestToArchive(
+              new ElasticSearchScroll(
+                  elasticsearchProperties,
+                  elasticSearchClientConfig,
+                  new ObjectMapper(),
+                  archiveMetrics,
+                  arrangerSetResolver),
+              new DownloadMolecularDataToPair(
+                  s3ClientConfiguration.s3Clients(s3ClientProperties, credentialsProvider),
+                  s3ClientProperties,
+                  archiveMetrics,
+                  gzipMemberCache),
+              fileBundleUpload,
+              archivesRepo,
+              archiveMetrics,
+              new BuildProgressRegistry(archiveProperties),
+              mock(ArchiveNotifier.class));
+
+      // the archive as InstantToArchiveBuildRequest would create it
+      final Archive archive =
+          new CountAndLastUpdatedAggregation(
+                  elasticsearchProperties, elasticSearchClientConfig, arrangerSetResolver)
+              .apply(QueryBuilders.matchAllQuery())
+              .map(
+                  result ->
+                      Archive.newAllArchiveFromCountAndLastUpdatedResult(
+                          result,
+                          ArchiveCodec.valueOf(System.getProperty("loadtest.codec", "GZIP")),
+                          Integer.getInteger("loadtest.shards", 1)))
+              .block();
+      archive.setId(UUID.randomUUID());
+      archive.setCreatedAt(Instant.now().getEpochSecond());
+      archiveIds.add(archive.getId());
+
+      final ArchiveBuildRequestToShardedArchive archiveBuildRequestToShardedArchive =
+          new ArchiveBuildRequestToShardedArchive(
+              archiveBuildRequestToArchive,
+              existingArchiveUtils,
+              fileBundleUpload,
+              archivesRepo,
+              archiveMetrics,
+              new ObjectMapper(),
+              mock(ArchiveNotifier.class));
+
+      final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      final AtomicLong peakHeapBytes = new AtomicLong();
+      final AtomicLong peakDiskBytes = new AtomicLong();
+      final Disposable sampler =
+          Flux.interval(Duration.ZERO, SAMPLE_INTERVAL, Schedulers.newSingle("loadtest-sampler"))
+              .subscribe(
+                  tick -> {
+                    peakHeapBytes.accumulateAndGet(
+                        memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    peakDiskBytes.accumulateAndGet(diskUsedByArchives(archiveIds), Math::max);
+                  });
+
+      final long startNanos = System.nanoTime();
+      final ArchiveBuildRequest archiveBuildRequest =
+          new ArchiveBuildRequest(archive, QueryBuilders.matchAllQuery());
+      final Archive builtArchive =
+          (archive.isSharded()
+                  ? archiveBuildRequestToShardedArchive.apply(archiveBuildRequest)
+                  : archiveBuildRequestToArchive.apply(archiveBuildRequest))
+              .blockLast();
+      final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      sampler.dispose();
+      gzipMemberCache.shutdown();
+
+      log.info(
+          "\n"
+              + "Archive build load test: {} genomes in {}s ({} scroll pages, {} GETs)\n"
+              + "  genomes/sec:     {}\n"
+              + "  downloaded MB/s: {}\n"
+              + "  archive size:    {} MB\n"
+              + "  peak heap:       {} MB\n"
+              + "  peak disk:       {} MB",
+          corpus.getSize(),
+          format("%.1f", elapsedSeconds),
+          elasticsearch.getPagesServed().get(),
+          s3.getGetRequests().get(),
+          format("%.0f", corpus.getSize() / elapsedSeconds),
+          format("%.1f", megabytes(s3.getBytesServed().get()) / elapsedSeconds),
+          format("%.1f", megabytes(s3.getBytesUploaded().get())),
+          format("%.0f", megabytes(peakHeapBytes.get())),
+          format("%.1f", megabytes(peakDiskBytes.get())));
+
+      assertEquals(ArchiveStatus.COMPLETE, builtArchive.getStatus());
+      if (!gzipMemberCache.isEnabled()) {
+        assertEquals(corpus.getSize(), s3.getGetRequests().get());
+      } else {
+        // genomes cached by a previous run are not downloaded again
+        assertTrue(s3.getGetRequests().get() <= corpus.getSize());
+      }
+    }
+  }
+
+  /** The bundle directories and archive files of the given archives under the scratch directory. */
+  private static long diskUsedByArchives(Set<UUID> archiveIds) {
+    try (Stream<Path> files = Files.walk(ScratchSpace.getDirectories().get(0), 2)) {
+      return files
+          .filter(
+              path ->
+                  archiveIds.stream()
+                      .anyMatch(id -> path.toString().contains(FILE_NAME_TEMPLATE + id)))
+          .filter(Files::isRegularFile)
+          .mapToLong(ArchiveBuildLoadTest::sizeOrZero)
+          .sum();
+    } catch (IOException | RuntimeException e) {
+      // files are deleted as the build goes
+      return 0;
+    }
+  }
+
+  private static long sizeOrZero(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static double megabytes(long bytes) {
+    return bytes / (1024.0 * 1024.0);
+  }
+}
@@ -0,0 +1,167 @@
+package org.cancogenvirusseq.singularity.loadtest;
+
+import static java.lang.String.format;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * In-process stand-in for the Elasticsearch endpoints used by ElasticSearchScroll and
+ * CountAndLastUpdatedAggregation. Queries are ignored, every search matches the whole corpus.
+ * Every response, in particular every scroll page, is sent after the configured latency.
+ */
+@Slf4j
+public class FakeElasticsearchServer implements AutoCloseable {
+  private static final int DEFAULT_PAGE_SIZE = 10;
+
+  private final SyntheticCorpus corpus;
+  private final Duration latency;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final DisposableServer server;
+
+  // scroll id to the position in the corpus of the next page
+  private final Map<String, Scroll> scrolls = new ConcurrentHashMap<>();
+
+  @Getter private final AtomicLong pagesServed = new AtomicLong();
+
+  public FakeElasticsearchServer(SyntheticCorpus corpus, Duration latency) {
+    this.corpus = corpus;
+    this.latency = latency;
+    this.server = HttpServer.create().host("localhost").port(0).handle(this::handle).bindNow();
+  }
+
+  public int getPort() {
+    return server.port();
+  }
+
+  private Publisher<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+    final QueryStringDecoder uri = new QueryStringDecoder(request.uri());
+    return request
+        .receive()
+        .aggregate()
+        .asString()
+        .defaultIfEmpty("")
+        .map(body -> route(request.method(), uri, body))
+        .delayElement(latency)
+        .flatMap(
+            json ->
+                response
+                    .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                    .sendString(Mono.just(json))
+                    .then());
+  }
+
+  @SneakyThrows
+  private String route(HttpMethod method, QueryStringDecoder uri, String body) {
+    final String path = uri.path();
+    if (path.endsWith("/_search/scroll") && HttpMethod.DELETE.equals(method)) {
+      objectMapper.readTree(body).path("scroll_id").forEach(id -> scrolls.remove(id.asText()));
+      return "{\"succeeded\":true,\"num_freed\":1}";
+    } else if (path.endsWith("/_search/scroll")) {
+      return nextPage(objectMapper.readTree(body).path("scroll_id").asText());
+    } else if (path.endsWith("/_search") && uri.parameters().containsKey("scroll")) {
+      return startScroll(objectMapper.readTree(body));
+    } else if (path.endsWith("/_search")) {
+      return aggregations();
+    }
+    // cluster info for pings
+    return "{\"name\":\"fake\",\"cluster_name\":\"fake\",\"version\":{\"number\":\"7.15.2\"},"
+        + "\"tagline\":\"You Know, for Search\"}";
+  }
+
+  private String startScroll(JsonNode request) {
+    final String scrollId = UUID.randomUUID().toString();
+    scrolls.put(
+        scrollId,
+        new Scroll(
+            request.path("size").asInt(DEFAULT_PAGE_SIZE),
+            request.path("slice").path("id").asInt(0),
+            request.path("slice").path("max").asInt(1)));
+    return nextPage(scrollId);
+  }
+
+  private String nextPage(String scrollId) {
+    final Scroll scroll = scrolls.get(scrollId);
+    final long sliceSize = scroll == null ? 0 : scroll.sliceSize(corpus.getSize());
+    final long from = scroll == null ? 0 : scroll.position;
+    final long to = scroll == null ? 0 : Math.min(from + scroll.pageSize, sliceSize);
+    if (scroll != null) {
+      scroll.position = to;
+    }
+    pagesServed.incrementAndGet();
+
+    final String hits =
+        LongStream.range(from, to)
+            // every sliceMax-th document from sliceId belongs to the slice
+            .map(position -> scroll.sliceId + position * scroll.sliceMax)
+            .mapToObj(
+                index ->
+                    format(
+                        "{\"_index\":\"file_centric\",\"_type\":\"_doc\",\"_id\":\"%s\","
+                            + "\"_score\":1.0,\"_source\":%s}",
+                        corpus.objectId(index), corpus.sourceJson(index)))
+            .collect(Collectors.joining(","));
+    return format(
+        "{\"_scroll_id\":\"%s\",%s,\"hits\":{\"total\":{\"value\":%d,\"relation\":\"eq\"},"
+            + "\"max_score\":1.0,\"hits\":[%s]}}",
+        scrollId, searchResponseHeader(), corpus.getSize(), hits);
+  }
+
+  private String aggregations() {
+    return format(
+        "{%s,\"hits\":{\"total\":{\"value\":%d,\"relation\":\"eq\"},\"max_score\":null,"
+            + "\"hits\":[]},\"aggregations\":{"
+            + "\"max#lastUpdatedDate\":{\"value\":%d.0},"
+            + "\"value_count#totalHits\":{\"value\":%d}}}",
+        searchResponseHeader(),
+        corpus.getSize(),
+        corpus.getLastUpdatedAt(),
+        corpus.getSize());
+  }
+
+  private static String searchResponseHeader() {
+    return "\"took\":1,\"timed_out\":false,"
+        + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}";
+  }
+
+  @Override
+  public void close() {
+    server.disposeNow();
+  }
+
+  private static class Scroll {
+    private final int pageSize;
+    private final int sliceId;
+    private final int sliceMax;
+    private volatile long position = 0;
+
+    private Scroll(int pageSize, int sliceId, int sliceMax) {
+      this.pageSize = pageSize;
+      this.sliceId = sliceId;
+      this.sliceMax = sliceMax;
+    }
+
+    private long sliceSize(long corpusSize) {
+      return Math.max(corpusSize - sliceId + sliceMax - 1, 0) / sliceMax;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package org.cancogenvirusseq.singularity.loadtest;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * In-process stand-in for the object storage GET and PUT calls made by an archive build. GETs of
+ * {bucket}/{dataDir}/{objectId} return the FASTA of that object in the corpus, PUTs are read and
+ * discarded. Every request waits for the configured latency and bodies are sent or received no
+ * faster than the configured bandwidth per connection (0 for unlimited).
+ */
+@Slf4j
+public class FakeS3Server implements AutoCloseable {
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private final SyntheticCorpus corpus;
+  private final Duration latency;
+  private final long bytesPerSecond;
+  private final DisposableServer server;
+
+  @Getter private final AtomicLong bytesServed = new AtomicLong();
+  @Getter private final AtomicLong bytesUploaded = new AtomicLong();
+  @Getter private final AtomicLong getRequests = new AtomicLong();
+
+  public FakeS3Server(SyntheticCorpus corpus, Duration latency, long bytesPerSecond) {
+    this.corpus = corpus;
+    this.latency = latency;
+    this.bytesPerSecond = bytesPerSecond;
+    this.server = HttpServer.create().host("localhost").port(0).handle(this::handle).bindNow();
+  }
+
+  public URI getEndpoint() {
+    return URI.create("http://localhost:" + server.port());
+  }
+
+  private Publisher<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+    if (HttpMethod.GET.equals(request.method())) {
+      return Mono.delay(latency).then(getObject(request, response));
+    } else if (HttpMethod.PUT.equals(request.method())) {
+      return Mono.delay(latency).then(putObject(request, response));
+    }
+    return response.status(HttpResponseStatus.METHOD_NOT_ALLOWED).send();
+  }
+
+  private Mono<Void> getObject(HttpServerRequest request, HttpServerResponse response) {
+    final String path = request.fullPath();
+    final byte[] fasta = corpus.fasta(path.substring(path.lastIndexOf('/') + 1));
+    getRequests.incrementAndGet();
+    bytesServed.addAndGet(fasta.length);
+
+    return response
+        .header(HttpHeaderNames.CONTENT_LENGTH, String.valueOf(fasta.length))
+        .header(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream")
+        .send(throttle(chunks(fasta)))
+        .then();
+  }
+
+  private Mono<Void> putObject(HttpServerRequest request, HttpServerResponse response) {
+    return throttle(request.receive().retain())
+        .doOnNext(
+            byteBuf -> {
+              bytesUploaded.addAndGet(byteBuf.readableBytes());
+              byteBuf.release();
+            })
+        .then(response.status(HttpResponseStatus.OK).send());
+  }
+
+  private static Flux<ByteBuf> chunks(byte[] bytes) {
+    return Flux.range(0, (bytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE)
+        .map(
+            chunk ->
+                Unpooled.wrappedBuffer(
+                    bytes,
+                    chunk * CHUNK_SIZE,
+                    Math.min(CHUNK_SIZE, bytes.length - chunk * CHUNK_SIZE)));
+  }
+
+  private Flux<ByteBuf> throttle(Flux<ByteBuf> body) {
+    if (bytesPerSecond <= 0) {
+      return body;
+    }
+    return body.concatMap(
+        byteBuf ->
+            Mono.delay(Duration.ofNanos(byteBuf.readableBytes() * 1_000_000_000L / bytesPerSecond))
+                .thenReturn(byteBuf));
+  }
+
+  @Override
+  public void close() {
+    server.disposeNow();
+  }
+}
@@ -0,0 +1,36 @@
+package org.cancogenvirusseq.singularity.loadtest;
+
+import java.util.UUID;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.cancogenvirusseq.singularity.testdata.SyntheticAnalysisDocuments;
+
+/**
+ * A corpus of synthetic genomes served by the fake stand-ins. Nothing is held in memory, documents
+ * and FASTA objects are generated on demand from their position in the corpus.
+ */
+@Getter
+@RequiredArgsConstructor
+public class SyntheticCorpus {
+  private final long size;
+  private final int genomeLength;
+
+  // updated_at of every document is before this, in epoch millis
+  private final long lastUpdatedAt = 1_672_531_200_000L;
+
+  public String sourceJson(long index) {
+    return SyntheticAnalysisDocuments.sourceJson(index);
+  }
+
+  public String objectId(long index) {
+    return SyntheticAnalysisDocuments.objectId(index);
+  }
+
+  public byte[] fasta(String objectId) {
+    return SyntheticAnalysisDocuments.fasta(indexOf(objectId), genomeLength);
+  }
+
+  private static long indexOf(String objectId) {
+    return UUID.fromString(objectId).getLeastSignificantBits();
+  }
+}
@@ -0,0 +1,129 @@
+package org.cancogenvirusseq.singularity.repository;
+
+import static java.lang.String.format;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import io.r2dbc.spi.ConnectionFactory;
+import java.time.Instant;
+import java.util.UUID;
+import org.cancogenvirusseq.singularity.config.db.PostgresProperties;
+import org.cancogenvirusseq.singularity.config.db.R2DBCConfiguration;
+import org.cancogenvirusseq.singularity.repository.model.BuildQueueEntry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+/**
+ * Runs the build queue queries against a Postgres database migrated by the application's
+ * migrations. Only runs when a database is given, ex:
+ *
+ * <pre>
+ * mvn test -Dtest=BuildQueueRepoTest -Dpostgres.host=localhost -Dpostgres.database=singularity
+ * </pre>
+ *
+ * Other settings: postgres.port, postgres.username and postgres.password.
+ */
+@EnabledIfSystemProperty(named = "postgres.host", matches = ".+")
+public class BuildQueueRepoTest {
+  private static final String INSTANCE_ID = "replica-1";
+  private static final String QUERY = "{\"match_all\":{}}";
+
+  private static DatabaseClient databaseClient;
+  private static BuildQueueRepo buildQueueRepo;
+
+  @BeforeAll
+  public static void setUp() {
+    final PostgresProperties postgresProperties =
+        PostgresProperties.builder()
+            .host(System.getProperty("postgres.host"))
+            .port(Integer.getInteger("postgres.port", 5432))
+            .database(System.getProperty("postgres.database", "singularity"))
+            .username(System.getProperty("postgres.username", "postgres"))
+            .password(System.getProperty("postgres.password", "password"))
+            .build();
+
+    Flyway.configure()
+        .dataSource(
+            format(
+                "jdbc:postgresql://%s:%d/%s",
+                postgresProperties.getHost(),
+                postgresProperties.getPort(),
+                postgresProperties.getDatabase()),
+            postgresProperties.getUsername(),
+            postgresProperties.getPassword())
+        .load()
+        .migrate();
+
+    final ConnectionFactory connectionFactory =
+        R2DBCConfiguration.createPsqlConnectionFactory(postgresProperties);
+    databaseClient = DatabaseClient.create(connectionFactory);
+    buildQueueRepo =
+        new R2dbcRepositoryFactory(new R2dbcEntityTemplate(connectionFactory))
+            .getRepository(BuildQueueRepo.class);
+  }
+
+  @Test
+  public void testEnqueueLeavesALiveClaimAlone() {
+    final UUID archiveId = newArchive();
+    buildQueueRepo.enqueue(archiveId, QUERY).block();
+    final BuildQueueEntry claimed = claim(archiveId, now() + 600);
+
+    // ex. the archive has been building for longer than maxBuildingSeconds and is queued again
+    buildQueueRepo.enqueue(archiveId, QUERY).block();
+
+    final BuildQueueEntry entry = buildQueueRepo.findById(archiveId).block();
+    assertEquals(INSTANCE_ID, entry.getClaimedBy());
+    assertEquals(claimed.getLeaseExpiresAt(), entry.getLeaseExpiresAt());
+    assertEquals(1, entry.getAttempts());
+  }
+
+  @Test
+  public void testEnqueueResetsALapsedClaimButKeepsAttempts() {
+    final UUID archiveId = newArchive();
+    buildQueueRepo.enqueue(archiveId, QUERY).block();
+    claim(archiveId, now() - 1);
+
+    buildQueueRepo.enqueue(archiveId, QUERY).block();
+
+    final BuildQueueEntry entry = buildQueueRepo.findById(archiveId).block();
+    assertNull(entry.getClaimedBy());
+    assertNull(entry.getLeaseExpiresAt());
+    assertEquals(1, entry.getAttempts());
+  }
+
+  private static UUID newArchive() {
+    return databaseClient
+        .sql(
+            "INSERT INTO archive (status, hash_info, type, num_of_samples) "
+                + "VALUES ('BUILDING', :hashInfo, 'SET_QUERY', 0) RETURNING id")
+        .bind("hashInfo", UUID.randomUUID().toString())
+        .map(row -> row.get("id", UUID.class))
+        .one()
+        .block();
+  }
+
+  /** Claims the archive like claimNext would, without depending on what else is queued */
+  private static BuildQueueEntry claim(UUID archiveId, long leaseExpiresAt) {
+    databaseClient
+        .sql(
+            "UPDATE build_queue SET claimed_by = :instanceId, lease_expires_at = :leaseExpiresAt, "
+                + "heartbeat_at = :now, attempts = attempts + 1 WHERE archive_id = :archiveId")
+        .bind("instanceId", INSTANCE_ID)
+        .bind("leaseExpiresAt", leaseExpiresAt)
+        .bind("now", now())
+        .bind("archiveId", archiveId)
+        .fetch()
+        .rowsUpdated()
+        .block();
+    return buildQueueRepo.findById(archiveId).block();
+  }
+
+  private static long now() {
+    return Instant.now().getEpochSecond();
+  }
+}
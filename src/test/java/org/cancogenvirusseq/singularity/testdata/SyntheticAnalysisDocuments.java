@@ -0,0 +1,142 @@
+package org.cancogenvirusseq.singularity.testdata;
+
+import static java.lang.String.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Deterministic generator of file centric index documents and FASTA objects shaped like the ones in
+ * production, for benchmarks and load tests. The same index always generates the same document.
+ */
+public class SyntheticAnalysisDocuments {
+  public static final int DEFAULT_GENOME_LENGTH = 29_903;
+
+  private static final int FASTA_LINE_LENGTH = 60;
+  private static final byte[] BASES = "ACGT".getBytes(StandardCharsets.US_ASCII);
+
+  private static final List<String> STUDIES =
+      List.of("ON-PHL", "BCCDC-PHL", "QC-LSPQ", "AB-PHL", "MB-CPL", "NS-QE2", "SK-RRPL");
+  private static final List<String> PROVINCES =
+      List.of(
+          "Ontario", "British Columbia", "Quebec", "Alberta", "Manitoba", "Nova Scotia",
+          "Saskatchewan");
+  private static final List<String> LINEAGES =
+      List.of("BA.1.1", "BA.2", "BA.2.12.1", "BA.5.2.1", "AY.4", "B.1.1.7", "XBB.1.5");
+
+  // 2021-01-01 and one year of milliseconds
+  private static final long START_EPOCH_MILLI = 1_609_459_200_000L;
+  private static final long YEAR_MILLIS = 31_536_000_000L;
+
+  public static String objectId(long index) {
+    return new UUID(0x5e9a_0000_0000_0000L, index).toString();
+  }
+
+  public static String studyId(long index) {
+    return STUDIES.get((int) (index % STUDIES.size()));
+  }
+
+  public static String isolate(long index) {
+    return format("hCoV-19/Canada/%s-%d/2021", studyId(index), index);
+  }
+
+  /** The _source of the file centric document with the given index, as stored in the index. */
+  public static String sourceJson(long index) {
+    final SplittableRandom random = new SplittableRandom(index);
+    final String province = PROVINCES.get((int) (index % PROVINCES.size()));
+    final long publishedAt = START_EPOCH_MILLI + random.nextLong(YEAR_MILLIS);
+    final int ageBin = random.nextInt(9) * 10;
+
+    return "{"
+        + format("\"object_id\":\"%s\",", objectId(index))
+        + format("\"study_id\":\"%s\",", studyId(index))
+        + "\"analysis\":{"
+        + format("\"first_published_at\":%d,", publishedAt)
+        + format("\"updated_at\":%d,", publishedAt + random.nextLong(86_400_000L))
+        + "\"experiment\":{"
+        + "\"purpose_of_sequencing\":\"Baseline surveillance (random sampling)\","
+        + "\"purpose_of_sequencing_details\":\"Screened for S gene target failure\","
+        + "\"sequencing_instrument\":[\"Illumina NextSeq 550\"],"
+        + "\"sequencing_protocol\":\"ARTIC v4\"},"
+        + "\"database_identifiers\":{"
+        + format("\"gisaid_accession\":\"EPI_ISL_%d\"},", 1_000_000 + index)
+        + "\"host\":{"
+        + "\"host_age\":null,"
+        + "\"host_age_null_reason\":\"Not Provided\","
+        + format("\"host_gender\":\"%s\",", random.nextBoolean() ? "Female" : "Male")
+        + format("\"host_age_bin\":\"%d - %d\",", ageBin, ageBin + 9)
+        + "\"host_disease\":\"COVID-19\","
+        + "\"host_age_unit\":\"year\","
+        + "\"host_scientific_name\":\"Homo sapiens\"},"
+        + "\"lineage_analysis\":{"
+        + format("\"lineage_name\":\"%s\",", LINEAGES.get(random.nextInt(LINEAGES.size())))
+        + "\"lineage_analysis_software_name\":\"pangolin\","
+        + "\"lineage_analysis_software_version\":\"4.1.2\","
+        + "\"lineage_analysis_software_data_version\":\"PUSHER-v1.14\","
+        + "\"scorpio_call\":\"Probable Omicron (BA.5-like)\","
+        + "\"scorpio_version\":\"0.3.17\"},"
+        + "\"pathogen_diagnostic_testing\":{"
+        + "\"gene_name\":[\"E gene (orf4)\",\"RdRp gene (nsp12)\"],"
+        + format(
+            "\"diagnostic_pcr_ct_value\":[%.1f,%.1f],",
+            15 + random.nextDouble(20), 15 + random.nextDouble(20))
+        + "\"diagnostic_pcr_ct_value_null_reason\":null},"
+        + "\"sample_collection\":{"
+        + format("\"isolate\":\"%s\",", isolate(index))
+        + format("\"fasta_header_name\":\"%s\",", isolate(index))
+        + "\"organism\":\"Severe acute respiratory syndrome coronavirus 2\","
+        + "\"body_product\":\"Not Provided\","
+        + "\"anatomical_part\":\"Nasopharynx (NP)\","
+        + "\"geo_loc_country\":\"Canada\","
+        + format("\"geo_loc_province\":\"%s\",", province)
+        + "\"collection_device\":\"Swab\","
+        + "\"collection_method\":\"Not Provided\","
+        + "\"environmental_site\":\"Not Applicable\","
+        + "\"anatomical_material\":\"Not Provided\","
+        + "\"purpose_of_sampling\":\"Diagnostic testing\","
+        + format("\"sample_collected_by\":\"%s Public Health Laboratory\",", province)
+        + format("\"sequence_submitted_by\":\"%s Public Health Laboratory\",", province)
+        + "\"environmental_material\":\"Not Applicable\","
+        + format(
+            "\"sample_collection_date\":\"2021-%02d-%02d\",",
+            1 + random.nextInt(12), 1 + random.nextInt(28))
+        + "\"purpose_of_sampling_details\":\"Not Provided\","
+        + "\"sample_collection_date_null_reason\":null},"
+        + "\"sequence_analysis\":{"
+        + "\"consensus_sequence_software_name\":\"ncov-tools\","
+        + "\"consensus_sequence_software_version\":\"1.8.0\","
+        + "\"dehosting_method\":\"Human reads removed\","
+        + "\"metrics\":{"
+        + format("\"breadth_of_coverage\":\"%.2f%%\",", 90 + random.nextDouble(10))
+        + format("\"depth_of_coverage\":\"%dx\"},", 100 + random.nextInt(4000))
+        + "\"reference_genome_accession\":\"MN908947.3\","
+        + "\"raw_sequence_data_processing_method\":\"Porechop 0.2.4\","
+        + "\"bioinformatics_protocol\":\"https://github.com/connor-lab/ncov2019-artic-nf\"}},"
+        + format("\"donors\":[{\"submitter_donor_id\":\"%s\"}]", isolate(index))
+        + "}";
+  }
+
+  /** A FASTA object with a single record of a genome of the given length. */
+  public static byte[] fasta(long index, int genomeLength) {
+    final SplittableRandom random = new SplittableRandom(~index);
+    final byte[] header = format(">%s\n", isolate(index)).getBytes(StandardCharsets.UTF_8);
+    final int lines = (genomeLength + FASTA_LINE_LENGTH - 1) / FASTA_LINE_LENGTH;
+    final byte[] fasta = new byte[header.length + genomeLength + lines];
+
+    System.arraycopy(header, 0, fasta, 0, header.length);
+    int position = header.length;
+    for (int base = 0; base < genomeLength; base++) {
+      fasta[position++] = BASES[random.nextInt(BASES.length)];
+      if ((base + 1) % FASTA_LINE_LENGTH == 0 || base == genomeLength - 1) {
+        fasta[position++] = '\n';
+      }
+    }
+    return fasta;
+  }
+
+  public static byte[] fasta(long index) {
+    return fasta(index, DEFAULT_GENOME_LENGTH);
+  }
+}